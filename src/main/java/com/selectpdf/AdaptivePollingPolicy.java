@@ -0,0 +1,138 @@
+package com.selectpdf;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Polling policy that adapts the ping intervals to the jobs: the first ping is sent after a fraction of a second, 
+ * then the interval grows exponentially up to a maximum, so short jobs are picked up quickly and long jobs do not get useless pings.
+ *
+ * Delays suggested by the server (Retry-After header) are honored. The policy also learns how long the jobs of each endpoint take
+ * (scaled by the size of their input) and sends the first pings around the expected completion time.
+ */
+public final class AdaptivePollingPolicy implements AsyncPollingPolicy {
+    private static volatile AdaptivePollingPolicy defaultPolicy = null;
+
+    /**
+     * Weight of the last finished job in the learned averages.
+     */
+    private static final double LEARNING_RATE = 0.2;
+
+    private final long initialDelay;
+    private final double multiplier;
+    private final long maxDelay;
+    private final long maxWait;
+    private final ConcurrentHashMap<String, Estimate> estimates = new ConcurrentHashMap<String, Estimate>();
+
+    /**
+     * Construct a policy with the default settings: first ping after 250 milliseconds, interval growing 1.5 times up to 10 seconds, give up after 1 hour.
+     */
+    public AdaptivePollingPolicy() {
+        this(250, 1.5, 10000, 3600000);
+    }
+
+    /**
+     * Construct a policy.
+     * @param initialDelay Delay (in milliseconds) before the first ping, when nothing is known about the job duration.
+     * @param multiplier Growth factor of the interval between pings.
+     * @param maxDelay Maximum interval (in milliseconds) between pings, unless the server asks for a longer one.
+     * @param maxWait Maximum time (in milliseconds) to wait for a job to finish.
+     */
+    public AdaptivePollingPolicy(long initialDelay, double multiplier, long maxDelay, long maxWait) {
+        if (initialDelay <= 0 || multiplier < 1 || maxDelay < initialDelay || maxWait <= 0) {
+            throw new ApiException("Invalid polling policy settings.");
+        }
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Get the policy shared by all clients that do not have their own polling policy set.
+     * @return Default polling policy.
+     */
+    public static AdaptivePollingPolicy getDefault() {
+        AdaptivePollingPolicy result = defaultPolicy;
+        if (result == null) {
+            synchronized (AdaptivePollingPolicy.class) {
+                result = defaultPolicy;
+                if (result == null) {
+                    result = defaultPolicy = new AdaptivePollingPolicy();
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long nextPingDelay(AsyncJobStatus status) {
+        long elapsed = status.getElapsedMillis();
+        long remainingWait = maxWait - elapsed;
+        if (remainingWait <= 0) {
+            return -1;
+        }
+
+        long delay;
+        long retryAfter = status.getRetryAfter();
+        if (retryAfter >= 0) {
+            // the server knows best
+            delay = retryAfter;
+        }
+        else {
+            // exponential backoff
+            delay = (long)Math.min(maxDelay, initialDelay * Math.pow(multiplier, status.getNumberOfPings()));
+
+            // do not ping much before the expected completion time
+            long expected = expectedDuration(status);
+            if (expected > elapsed + delay) {
+                delay = Math.min(maxDelay, expected - elapsed);
+            }
+        }
+
+        return Math.min(delay, remainingWait);
+    }
+
+    @Override
+    public void jobFinished(AsyncJobStatus status, ApiResult result) {
+        if (status.getEndpoint() == null) return;
+        estimates.computeIfAbsent(status.getEndpoint(), key -> new Estimate()).learn(status.getElapsedMillis(), status.getInputSize());
+    }
+
+    /**
+     * Get the expected duration of a job, based on the jobs of the same endpoint that finished before.
+     * @param status Job status.
+     * @return Expected duration in milliseconds or 0 if unknown.
+     */
+    long expectedDuration(AsyncJobStatus status) {
+        Estimate estimate = status.getEndpoint() != null ? estimates.get(status.getEndpoint()) : null;
+        if (estimate == null) return 0;
+        // a bit early rather than late: one more ping is cheaper than a job that waits for nothing
+        return (long)(estimate.predict(status.getInputSize()) * 0.8);
+    }
+
+    /**
+     * Learned duration of the jobs of an endpoint.
+     */
+    private static final class Estimate {
+        private double duration = -1;
+        private double inputSize = 0;
+
+        synchronized void learn(long jobDuration, long jobInputSize) {
+            if (duration < 0) {
+                duration = jobDuration;
+                inputSize = jobInputSize;
+            }
+            else {
+                duration += LEARNING_RATE * (jobDuration - duration);
+                inputSize += LEARNING_RATE * (jobInputSize - inputSize);
+            }
+        }
+
+        synchronized double predict(long jobInputSize) {
+            if (jobInputSize <= 0 || inputSize <= 0) return duration;
+            // larger inputs take longer, but not proportionally (part of the time is spent loading pages and resources)
+            double ratio = Math.max(0.25, Math.min(4, (double)jobInputSize / inputSize));
+            return duration * ratio;
+        }
+    }
+}
@@ -1,469 +1,1634 @@
 package com.selectpdf;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.*;
 import java.io.*;
 import java.net.*;
+import java.nio.file.*;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 /**
  * Base class for API clients. Do not use this directly.
+ *
+ * Clients are thread-safe: options set on a client are copied into an immutable {@link ApiRequest} when a call starts,
+ * the values specific to the call are added only to that snapshot, and each call returns its own {@link ApiResult}.
+ * One client can be configured once and shared by many threads.
  */
 public class ApiClient {
     /**
      * API endpoint
      */
-    protected String apiEndpoint = "https://selectpdf.com/api2/convert/";
+    protected volatile String apiEndpoint = "https://selectpdf.com/api2/convert/";
 
     /**
      * API async jobs endpoint
      */
-    protected String apiAsyncEndpoint = "https://selectpdf.com/api2/asyncjob/";
+    protected volatile String apiAsyncEndpoint = "https://selectpdf.com/api2/asyncjob/";
 
     /**
      * API web elements endpoint
      */
-    protected String apiWebElementsEndpoint = "https://selectpdf.com/api2/webelements/";
+    protected volatile String apiWebElementsEndpoint = "https://selectpdf.com/api2/webelements/";
 
     /**
      * Parameters that will be sent to the API.
      */
-    protected HashMap<String, String> parameters = new HashMap<String, String>();
+    protected Map<String, String> parameters = new ConcurrentHashMap<String, String>();
 
     /**
      * HTTP Headers that will be sent to the API.
      */
-    protected HashMap<String, String> headers = new HashMap<String, String>();
+    protected Map<String, String> headers = new ConcurrentHashMap<String, String>();
 
     /**
      * Files that will be sent to the API.
      */
-    protected HashMap<String, String> files = new HashMap<String, String>();
+    protected Map<String, String> files = new ConcurrentHashMap<String, String>();
 
     /**
      * Binary data that will be sent to the API.
      */
-    protected HashMap<String, byte[]> binaryData = new HashMap<String, byte[]>();
+    protected Map<String, byte[]> binaryData = new ConcurrentHashMap<String, byte[]>();
 
     /**
-     * Number of pages of the pdf document resulted from the conversion.
+     * Result of the last call made by each thread, without its content.
      */
-    protected int numberOfPages = 0;
-
-    /**
-     * Job ID for asynchronous calls or for calls that require a second request.
-     */
-    protected String jobId = "";
-
-    /**
-     * Last HTTP Code
-     */
-    protected int lastHTTPCode = 0;
+    private final ThreadLocal<ApiResult> lastResult = new ThreadLocal<ApiResult>();
 
     /**
      * Library version
      */
-    public static final String CLIENT_VERSION = "1.4.0";
+    public static final String CLIENT_VERSION = "2.0.0";
     
     protected static final String MULTIPART_FORM_DATA_BOUNDARY = "------------SelectPdf_Api_Boundry_$";
     protected static final String NEW_LINE = "\r\n";
 
     /**
      * Ping interval in seconds for asynchronous calls. Default value is 3 seconds.
+     * If changed (and no polling policy is set), asynchronous jobs are pinged at this fixed interval.
+     * @deprecated Use {@link #setAsyncPollingPolicy(AsyncPollingPolicy)}.
      */
+    @Deprecated
     public int AsyncCallsPingInterval = 3;
 
     /**
      * Maximum number of pings for asynchronous calls. Default value is 1,000 pings.
+     * If changed (and no polling policy is set), asynchronous jobs are pinged at a fixed interval, up to this number of pings.
+     * @deprecated Use {@link #setAsyncPollingPolicy(AsyncPollingPolicy)}.
      */
+    @Deprecated
     public int AsyncCallsMaxPings = 1000;
 
     /**
-     * Set a custom SelectPdf API endpoint. Do not use this method unless advised by SelectPdf.
-     * @param apiEndpoint API endpoint.
+     * Compress request bodies with gzip.
+     */
+    protected volatile boolean requestCompression = false;
+
+    /**
+     * Minimum size (in bytes) of the request body that gets compressed.
+     */
+    protected volatile long requestCompressionThreshold = 16384;
+
+    /**
+     * Ask the server for compressed responses (Accept-Encoding: gzip, deflate).
+     */
+    protected volatile boolean responseCompression = false;
+
+    /**
+     * Maximum size (in bytes) of a result kept in memory. Larger results are written to a temporary file.
+     */
+    protected volatile long resultMemoryThreshold = 16 * 1024 * 1024;
+
+    /**
+     * Maximum duration (in milliseconds) of a call, from start until the result is received. 0 means no limit.
+     */
+    protected volatile long callTimeout = 0;
+
+    /**
+     * Time (in seconds) added to the time the server may work on a request, to get the read timeout of the request. Negative disables read timeouts.
+     */
+    protected volatile int readTimeoutMargin = DEFAULT_READ_TIMEOUT_MARGIN;
+
+    /**
+     * Default margin (in seconds) of the read timeouts: it covers the rendering of large documents, that comes on top of the page load time.
+     */
+    protected static final int DEFAULT_READ_TIMEOUT_MARGIN = 120;
+
+    /**
+     * Maximum time (in seconds) the server works on a request when the request does not set it.
+     */
+    protected static final int DEFAULT_SERVER_TIMEOUT = 30;
+
+    /**
+     * HTTP transport used by this client. If not set, the default transport is used.
+     */
+    protected volatile HttpTransport transport = null;
+
+    /**
+     * Executor used by the future-returning methods. If not set, a shared pool of daemon threads is used.
+     */
+    protected volatile Executor executor = null;
+
+    /**
+     * Poller of the asynchronous jobs started by this client. If not set, the default poller is used.
+     */
+    protected volatile AsyncJobPoller asyncJobPoller = null;
+
+    /**
+     * Policy that decides when asynchronous jobs are pinged. If not set, the default adaptive policy is used.
+     */
+    protected volatile AsyncPollingPolicy asyncPollingPolicy = null;
+
+    /**
+     * Policy that decides which failed calls are retried. If not set, the default retry policy is used.
+     */
+    protected volatile RetryPolicy retryPolicy = null;
+
+    /**
+     * Policy that decides which failed pings of the asynchronous jobs started by this client are retried. If not set, the default ping retry policy is used.
+     */
+    protected volatile RetryPolicy pingRetryPolicy = null;
+
+    /**
+     * Circuit breaker that stops the calls to failing endpoints. If not set, the default circuit breaker is used.
+     */
+    protected volatile CircuitBreaker circuitBreaker = null;
+
+    /**
+     * Rate limiter that keeps the calls within the limits of the plan. If not set, the default rate limiter is used.
+     */
+    protected volatile RateLimiter rateLimiter = null;
+
+    /**
+     * Maximum time (in milliseconds) a call waits for the rate limiter. 0 fails immediately, -1 waits until the deadline of the call.
+     */
+    protected volatile long rateLimitTimeout = -1;
+
+    /**
+     * Limiter of the calls in flight to each endpoint. If not set, the default concurrency limiter is used.
+     */
+    protected volatile ConcurrencyLimiter concurrencyLimiter = null;
+
+    /**
+     * Fill the stack trace of the exceptions thrown for error responses of the API.
+     */
+    protected volatile boolean errorStackTraces = false;
+
+    private static volatile HttpTransport defaultTransport = null;
+
+    /**
+     * Get the HTTP transport shared by all clients that do not have their own transport set.
+     * By default, this is a {@link JavaHttpClientTransport}.
+     * @return Default HTTP transport.
+     */
+    public static HttpTransport getDefaultTransport() {
+        HttpTransport result = defaultTransport;
+        if (result == null) {
+            synchronized (ApiClient.class) {
+                result = defaultTransport;
+                if (result == null) {
+                    result = defaultTransport = new JavaHttpClientTransport();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set the HTTP transport shared by all clients that do not have their own transport set.
+     * @param transport Default HTTP transport. Use new UrlConnectionTransport() to fall back to HttpURLConnection.
+     */
+    public static void setDefaultTransport(HttpTransport transport) {
+        defaultTransport = transport;
+    }
+
+    /**
+     * Get the HTTP transport used by this client.
+     * @return HTTP transport.
+     */
+    public HttpTransport getTransport() {
+        return transport != null ? transport : getDefaultTransport();
+    }
+
+    /**
+     * Set the HTTP transport used by this client. Clients created internally for asynchronous jobs and web elements use the same transport.
+     * @param transport HTTP transport. Set null to use the default transport.
+     */
+    public void setTransport(HttpTransport transport)
+    {
+        this.transport = transport;
+    }
+
+    /**
+     * Get the executor used by the future-returning methods that do not take an executor.
+     * @return Executor.
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : IoExecutor.get();
+    }
+
+    /**
+     * Set the executor used by the future-returning methods that do not take an executor.
+     * Responses are read, results of asynchronous jobs are downloaded and futures are completed on this executor, so its threads block on I/O.
+     * With the default transport no thread is blocked while the server processes a request; with {@link UrlConnectionTransport},
+     * an executor thread waits for each response. Do not use the common fork-join pool, it would be starved by the blocked threads.
+     * @param executor Executor. Set null to use a shared pool of daemon threads, that grows with the number of calls in flight.
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Get the poller of the asynchronous jobs started by this client.
+     * @return Asynchronous job poller.
+     */
+    public AsyncJobPoller getAsyncJobPoller() {
+        return asyncJobPoller != null ? asyncJobPoller : AsyncJobPoller.getDefault();
+    }
+
+    /**
+     * Set the poller of the asynchronous jobs started by this client.
+     * @param asyncJobPoller Asynchronous job poller. Set null to use the default poller.
+     */
+    public void setAsyncJobPoller(AsyncJobPoller asyncJobPoller)
+    {
+        this.asyncJobPoller = asyncJobPoller;
+    }
+
+    /**
+     * Get the policy that decides when the asynchronous jobs started by this client are pinged.
+     * @return Asynchronous polling policy.
+     */
+    @SuppressWarnings("deprecation")
+    public AsyncPollingPolicy getAsyncPollingPolicy() {
+        AsyncPollingPolicy policy = asyncPollingPolicy;
+        if (policy != null) {
+            return policy;
+        }
+        if (AsyncCallsPingInterval != 3 || AsyncCallsMaxPings != 1000) {
+            // the deprecated fields were changed, keep their behavior
+            return new FixedPollingPolicy(AsyncCallsPingInterval, AsyncCallsMaxPings);
+        }
+        return AdaptivePollingPolicy.getDefault();
+    }
+
+    /**
+     * Set the policy that decides when the asynchronous jobs started by this client are pinged.
+     * @param asyncPollingPolicy Asynchronous polling policy (for example a new AdaptivePollingPolicy or FixedPollingPolicy). Set null to use the default adaptive policy.
+     */
+    public void setAsyncPollingPolicy(AsyncPollingPolicy asyncPollingPolicy)
+    {
+        this.asyncPollingPolicy = asyncPollingPolicy;
+    }
+
+    /**
+     * Get the policy that decides which failed calls of this client are retried.
+     * @return Retry policy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : RetryPolicy.getDefault();
+    }
+
+    /**
+     * Set the policy that decides which failed calls of this client are retried.
+     * By default, calls that failed with 429 Too Many Requests, 502 or 503 responses or before the request reached the server (connection refused,
+     * connect timeout) are tried up to 3 times, with a random exponential backoff, within a retry budget shared by all clients.
+     * Calls that may have reached the server (connection lost, read timeout, 500 and 504 responses) are only retried when the policy retries these failures,
+     * since they can run a second conversion, and the submissions of asynchronous jobs are never sent again after such failures.
+     * A call that already wrote part of the result to an output stream is never retried.
+     * @param retryPolicy Retry policy (for example RetryPolicy.noRetries()). Set null to use the default retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Get the policy that decides which failed pings of the asynchronous jobs started by this client are retried.
+     * @return Ping retry policy.
+     */
+    public RetryPolicy getPingRetryPolicy() {
+        return pingRetryPolicy != null ? pingRetryPolicy : RetryPolicy.getDefaultForPings();
+    }
+
+    /**
+     * Set the policy that decides which failed pings of the asynchronous jobs started by this client are retried.
+     * Pings are retried separately from the calls that start the jobs, with their own retry budget.
+     * @param pingRetryPolicy Ping retry policy. Set null to use the default ping retry policy.
+     */
+    public void setPingRetryPolicy(RetryPolicy pingRetryPolicy)
+    {
+        this.pingRetryPolicy = pingRetryPolicy;
+    }
+
+    /**
+     * Get the circuit breaker that stops the calls of this client to failing endpoints.
+     * @return Circuit breaker.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker != null ? circuitBreaker : CircuitBreaker.getDefault();
+    }
+
+    /**
+     * Set the circuit breaker that stops the calls of this client to failing endpoints. Each endpoint has its own circuit.
+     * While the circuit of an endpoint is open, calls to it fail immediately with a {@link CircuitOpenException}, without waiting for a degraded server.
+     * Clients created internally for asynchronous jobs and web elements use the same circuit breaker.
+     * @param circuitBreaker Circuit breaker (for example new CircuitBreaker()). Set null to use the default circuit breaker (see CircuitBreaker.setDefault). By default, circuits never open.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker)
+    {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Get the rate limiter that keeps the calls of this client within the limits of the plan.
+     * @return Rate limiter.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter != null ? rateLimiter : RateLimiter.getDefault();
+    }
+
+    /**
+     * Set the rate limiter that keeps the calls of this client within the limits of the plan.
+     * The limiter has a token bucket for each API key, shared by all the clients that use the limiter. Each call, and each retry, takes a token.
+     * The pings of asynchronous jobs are not limited.
+     * @param rateLimiter Rate limiter (for example new RateLimiter(100 / 60.0, 5) for a plan of 100 calls per minute). Set null to use the default rate limiter (see RateLimiter.setDefault).
+     */
+    public void setRateLimiter(RateLimiter rateLimiter)
+    {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Set the maximum time a call waits for the rate limiter. The default value is -1 (wait as long as needed, within the deadline of the call).
+     * A call that cannot get a token in time fails with a {@link RateLimitException} without being sent. The future-returning methods wait without blocking a thread.
+     * @param rateLimitTimeout Maximum wait in milliseconds. Set 0 to fail immediately when the rate limit is reached, -1 to wait until the deadline of the call.
+     */
+    public void setRateLimitTimeout(long rateLimitTimeout)
+    {
+        this.rateLimitTimeout = rateLimitTimeout;
+    }
+
+    /**
+     * Get the limiter of the calls of this client in flight to each endpoint.
+     * @return Concurrency limiter.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter != null ? concurrencyLimiter : ConcurrencyLimiter.getDefault();
+    }
+
+    /**
+     * Set the limiter of the calls of this client in flight to each endpoint. The limit of each endpoint adapts to the latency of its calls,
+     * so the calls do not queue inside the service; the calls beyond the limit wait in the client, within the deadline of the call.
+     * The future-returning methods wait without blocking a thread. The pings of asynchronous jobs are not limited. By default, calls are not limited.
+     * @param concurrencyLimiter Concurrency limiter (for example new ConcurrencyLimiter()). Set null to use the default concurrency limiter (see ConcurrencyLimiter.setDefault).
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter)
+    {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Open connections to the API endpoint and the async jobs endpoint in advance, so the first requests do not pay the connection and TLS handshake latency.
+     * Call this at service start. Two connections are opened to each endpoint (a single one is used if the server speaks HTTP/2).
+     */
+    public void warmUp()
+    {
+        warmUp(2);
+    }
+
+    /**
+     * Open connections to the API endpoint and the async jobs endpoint in advance, so the first requests do not pay the connection and TLS handshake latency.
+     * @param connections Number of connections opened to each endpoint.
+     */
+    public void warmUp(int connections)
+    {
+        HttpTransport currentTransport = getTransport();
+        try {
+            currentTransport.warmUp(apiEndpoint, connections);
+            currentTransport.warmUp(apiAsyncEndpoint, connections);
+        }
+        catch (IOException ex) {
+            throw new ApiException(ex);
+        }
+    }
+
+    /**
+     * Set a custom SelectPdf API endpoint. Do not use this method unless advised by SelectPdf.
+     * @param apiEndpoint API endpoint.
+     */
+    public void setApiEndpoint(String apiEndpoint)
+    {
+        this.apiEndpoint = apiEndpoint;
+    }
+
+    /**
+     * Set a custom SelectPdf API endpoint for async jobs. Do not use this method unless advised by SelectPdf.
+     * @param apiAsyncEndpoint API endpoint.
+     */
+    public void setApiAsyncEndpoint(String apiAsyncEndpoint)
+    {
+        this.apiAsyncEndpoint = apiAsyncEndpoint;
+    }
+
+    /**
+     * Set a custom SelectPdf API endpoint for web elements. Do not use this method unless advised by SelectPdf.
+     * @param apiWebElementsEndpoint API endpoint.
+     */
+    public void setApiWebElementsEndpoint(String apiWebElementsEndpoint)
+    {
+        this.apiWebElementsEndpoint = apiWebElementsEndpoint;
+    }
+
+    /**
+     * Compress request bodies with gzip (Content-Encoding: gzip) while they are sent. The default value is False.
+     * Useful for large and repetitive HTML content. Bodies smaller than the compression threshold are sent uncompressed.
+     * @param requestCompression Compress requests or not.
+     */
+    public void setRequestCompression(boolean requestCompression)
+    {
+        this.requestCompression = requestCompression;
+    }
+
+    /**
+     * Set the minimum size (in bytes) of the request body that gets compressed when request compression is enabled. The default value is 16KB.
+     * @param requestCompressionThreshold Compression threshold in bytes.
+     */
+    public void setRequestCompressionThreshold(long requestCompressionThreshold)
+    {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     * Ask the server for compressed responses (Accept-Encoding: gzip, deflate). 
+     * Compressed responses are decoded on the fly, while they are copied to the output. The default value is False (True for Pdf To Text).
+     * @param responseCompression Accept compressed responses or not.
+     */
+    public void setResponseCompression(boolean responseCompression)
+    {
+        this.responseCompression = responseCompression;
+    }
+
+    /**
+     * Set the maximum size (in bytes) of a result kept in memory. The default value is 16MB.
+     * Larger results are written to a temporary file while they are received (see PdfResult), so the heap used by a call never exceeds this size.
+     * Methods that return a byte array still load the whole result in memory at the end, use the methods that return a PdfResult for large documents.
+     * @param resultMemoryThreshold Threshold in bytes.
+     */
+    public void setResultMemoryThreshold(long resultMemoryThreshold)
+    {
+        this.resultMemoryThreshold = resultMemoryThreshold;
+    }
+
+    /**
+     * Get the maximum duration of a call made by this client.
+     * @return Call timeout in milliseconds or 0 if calls have no time limit.
+     */
+    public long getCallTimeout() {
+        return callTimeout;
+    }
+
+    /**
+     * Set the maximum duration of a call made by this client. The default value is 0 (no limit).
+     * The deadline covers the whole call: waiting for a connection, connecting, uploading, the processing on the server
+     * (including all the pings of an asynchronous job) and downloading the result. When it passes, the pending request is aborted,
+     * its connection is closed and the call fails with an ApiException caused by a TimeoutException or SocketTimeoutException.
+     * Future-returning methods fail their future at the deadline; cancelling the future aborts the call the same way.
+     * @param callTimeout Call timeout in milliseconds. Set 0 for no limit.
+     */
+    public void setCallTimeout(long callTimeout)
+    {
+        this.callTimeout = callTimeout;
+    }
+
+    /**
+     * Set whether the exceptions thrown for error responses of the API (4xx and 5xx status codes) have a stack trace. The default value is False.
+     * Error responses are expected failures: during an outage or when the quota is exhausted, thousands of calls can fail quickly,
+     * and filling their stack traces would cost more than the calls themselves. Enable them when debugging.
+     * Exceptions caused by network errors, timeouts or invalid use of the client always have a stack trace.
+     * @param errorStackTraces True to fill the stack traces of error response exceptions.
+     */
+    public void setErrorStackTraces(boolean errorStackTraces)
+    {
+        this.errorStackTraces = errorStackTraces;
+    }
+
+    /**
+     * Set the margin of the read timeouts. The default value is 120 seconds.
+     * Each request gets a read timeout equal to the time the server may work on it (the timeout parameters of the call, see {@link #getServerTimeout(ApiRequest)}) plus this margin.
+     * A connection that sends no data for that long is considered dead and the call fails with an {@link ApiTimeoutException} caused by a SocketTimeoutException
+     * (HttpTimeoutException for the default transport), instead of hanging forever.
+     * The timeout parameters of a conversion only cover loading the page: the server sends nothing while it renders the PDF, so the margin must cover
+     * the longest rendering of the documents converted, plus the network. Raise it for very large documents.
+     * @param readTimeoutMargin Margin in seconds. Set -1 to disable read timeouts.
+     */
+    public void setReadTimeoutMargin(int readTimeoutMargin)
+    {
+        this.readTimeoutMargin = readTimeoutMargin;
+    }
+
+    /**
+     * Get the maximum time the server may work on a request before it answers. The default implementation uses the timeout parameter of the request (Pdf Merge, Pdf To Text).
+     * @param request Request.
+     * @return Server timeout in seconds.
+     */
+    protected int getServerTimeout(ApiRequest request)
+    {
+        return getIntParameter(request, "timeout", DEFAULT_SERVER_TIMEOUT);
+    }
+
+    /**
+     * Get the value of an integer parameter of a request.
+     * @param request Request.
+     * @param name Parameter name.
+     * @param defaultValue Value used if the parameter is not set or invalid.
+     * @return Parameter value.
+     */
+    protected static int getIntParameter(ApiRequest request, String name, int defaultValue)
+    {
+        String value = request.getParameter(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get the number of pages processed from the PDF document by the last call made from the current thread.
+     * @return Number of pages processed from the PDF document.
+     */
+    public int getNumberOfPages() {
+        ApiResult result = lastResult.get();
+        return result != null ? result.getNumberOfPages() : 0;
+    }
+
+    /**
+     * Get the result of the last call made from the current thread: status code, number of pages, job ID, length and timings.
+     * The content is not kept after the call, it is only in the result returned by the call.
+     * @return Result of the last call (without content) or null if this thread did not make any call.
+     */
+    public ApiResult getLastResult() {
+        return lastResult.get();
+    }
+
+    /**
+     * Set the result of the last call made from the current thread. Only a copy without the content is kept.
+     * @param result Call result.
+     */
+    protected void setLastResult(ApiResult result) {
+        lastResult.set(result != null ? result.withoutContent() : null);
+    }
+
+    /**
+     * Take a snapshot of the current options of the client. Per-call values are added to the snapshot, not to the client.
+     * The deadline of the call (see {@link #setCallTimeout(long)}) starts now.
+     * @return Request with the current endpoint, parameters, headers, files, binary data and deadline.
+     */
+    protected ApiRequest newRequest() {
+        return new ApiRequest(apiEndpoint, parameters, headers, files, binaryData).withTimeout(callTimeout);
+    }
+
+    /**
+     * Serialize parameters.
+     * @return Serialized parameters.
+     */
+    protected String serializeParameters() {
+        return serializeDictionary(parameters);
+    }
+
+    /**
+     * Serialize dictionary.
+     * @param dictionaryToSerialize Dictionary to serialize.
+     * @return Serialized dictionary.
+     */
+    protected String serializeDictionary(Map<String, String> dictionaryToSerialize) {
+        StringBuilder data = new StringBuilder();
+        for (Map.Entry<String,String> entry : dictionaryToSerialize.entrySet()) {
+            if (data.length() != 0) data.append('&');
+            PercentEncoder.encode(entry.getKey(), data);
+            data.append('=');
+            PercentEncoder.encode(entry.getValue(), data);
+        }
+
+        return data.toString();
+    }
+
+    /**
+     * Serialize dictionary.
+     * @param dictionaryToSerialize Dictionary to serialize.
+     * @return Serialized dictionary.
+     * @deprecated Kept for the subclasses written for version 1.x, use {@link #serializeDictionary(Map)}.
+     */
+    @Deprecated
+    protected String serializeDictionary(HashMap<String, String> dictionaryToSerialize) {
+        return serializeDictionary((Map<String, String>)dictionaryToSerialize);
+    }
+
+    /**
+     * Create a POST request with the current options of the client.
+     * @param outStream Output response to this stream, if specified.
+     * @return If output stream is not specified, return response as byte array.
+     * @deprecated Kept for the subclasses written for version 1.x, use {@link #performPost(ApiRequest, OutputStream)}, which returns the whole call result.
+     */
+    @Deprecated
+    protected byte[] performPost(OutputStream outStream)
+    {
+        return performPost(newRequest(), outStream).getContent();
+    }
+
+    /**
+     * Create a multipart/form-data POST request (that can handle file uploads) with the current options of the client.
+     * @param outStream Output response to this stream, if specified.
+     * @return If output stream is not specified, return response as byte array.
+     * @deprecated Kept for the subclasses written for version 1.x, use {@link #performPostAsMultipartFormData(ApiRequest, OutputStream)}, which returns the whole call result.
+     */
+    @Deprecated
+    protected byte[] performPostAsMultipartFormData(OutputStream outStream)
+    {
+        return performPostAsMultipartFormData(newRequest(), outStream).getContent();
+    }
+
+    /**
+     * Create a POST request.
+     * @param request Request to send.
+     * @param outStream Output response to this stream, if specified.
+     * @return Call result. If output stream is not specified, the result contains the response content.
+     */
+    protected ApiResult performPost(ApiRequest request, OutputStream outStream)
+    {
+        // parameters are url-encoded incrementally while the request is sent
+        RequestBody body = encodeRequestBody(request);
+
+        return performRequest(request, body, outStream);
+    }
+
+    /**
+     * Create a multipart/form-data POST request (that can handle file uploads).
+     * @param request Request to send.
+     * @param outStream Output response to this stream, if specified.
+     * @return Call result. If output stream is not specified, the result contains the response content.
+     */
+    protected ApiResult performPostAsMultipartFormData(ApiRequest request, OutputStream outStream)
+    {
+        // prepare parameters and files (files are streamed when the request is sent)
+        RequestBody body = encodeMultipartFormData(request);
+
+        return performRequest(request, body, outStream);
+    }
+
+    /**
+     * Create a POST request without blocking the calling thread.
+     * @param request Request to send.
+     * @param outStream Output response to this stream, if specified.
+     * @param multipartFormData Send the request as multipart/form-data.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future call result. Cancelling the future (or a timeout set with orTimeout) aborts the request.
+     */
+    protected CompletableFuture<ApiResult> performPostFuture(ApiRequest request, final OutputStream outStream, boolean multipartFormData, final Executor executor)
+    {
+        final RequestBody body;
+        try {
+            body = multipartFormData ? encodeMultipartFormData(request) : encodeRequestBody(request);
+        }
+        catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        final RetryPolicy policy = getRetryPolicy();
+        policy.callStarted();
+        final TrackedOutputStream output = outStream != null ? new TrackedOutputStream(outStream) : null;
+
+        final CompletableFuture<ApiResult> result = new CompletableFuture<ApiResult>();
+        final AtomicReference<Runnable> cancelPending = new AtomicReference<Runnable>();
+        result.whenComplete((value, ex) -> {
+            // cancelled or timed out: stop the attempt in progress or the scheduled retry
+            Runnable cancel = cancelPending.get();
+            if (ex != null && cancel != null) cancel.run();
+        });
+        failAtDeadline(request, result);
+
+        sendRequestFuture(request, body, output, executor, policy, 1, result, cancelPending);
+        return result;
+    }
+
+    /**
+     * Make one attempt of a future call, after the rate limiter allows it, and schedule the next attempt if it fails and the retry policy allows it.
+     * @param request Request to send.
+     * @param body Request body.
+     * @param output Output response to this stream, if specified.
+     * @param executor Executor that reads the response.
+     * @param policy Retry policy.
+     * @param attempt Number of the attempt, starting with 1.
+     * @param result Future result of the call, completed by the last attempt.
+     * @param cancelPending Receives the action that cancels the attempt in progress or the scheduled retry.
+     */
+    private void sendRequestFuture(final ApiRequest request, final RequestBody body, final TrackedOutputStream output, final Executor executor,
+            final RetryPolicy policy, final int attempt, final CompletableFuture<ApiResult> result, final AtomicReference<Runnable> cancelPending)
+    {
+        if (result.isDone()) return;
+        long wait;
+        try {
+            wait = acquirePermit(request);
+        }
+        catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+            return;
+        }
+        if (wait > 0) {
+            // wait for the rate limiter on the timer, not on a thread
+            TimingWheel.Timeout permit = DeadlineTimer.schedule(() -> sendAttemptFuture(request, body, output, executor, policy, attempt, result, cancelPending), wait);
+            cancelPending.set(permit::cancel);
+            if (result.isDone()) permit.cancel();
+        }
+        else {
+            sendAttemptFuture(request, body, output, executor, policy, attempt, result, cancelPending);
+        }
+    }
+
+    /**
+     * Send an attempt of a future call that got its token from the rate limiter, and schedule the next attempt if it fails and the retry policy allows it.
+     */
+    private void sendAttemptFuture(final ApiRequest request, final RequestBody body, final TrackedOutputStream output, final Executor executor,
+            final RetryPolicy policy, final int attempt, final CompletableFuture<ApiResult> result, final AtomicReference<Runnable> cancelPending)
+    {
+        if (result.isDone()) return;
+        final CompletableFuture<ApiResult> call = sendRequestFuture(request, body, output, executor);
+        cancelPending.set(() -> call.cancel(true));
+        if (result.isDone()) call.cancel(true);
+
+        call.whenComplete((value, ex) -> {
+            if (ex == null) {
+                result.complete(value);
+                return;
+            }
+            ApiException failure = toApiException(ex);
+            rateLimited(request, failure);
+            long delay = result.isDone() || (output != null && output.isWritten()) ? -1 : retryDelay(policy, request, failure, attempt);
+            if (delay < 0) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            TimingWheel.Timeout retry = DeadlineTimer.schedule(
+                () -> sendRequestFuture(request, body, output, executor, policy, attempt + 1, result, cancelPending), delay);
+            cancelPending.set(retry::cancel);
+            if (result.isDone()) retry.cancel();
+        });
+    }
+
+    /**
+     * Make one attempt of a future call, when the concurrency limiter lets it through.
+     * @param request Request to send.
+     * @param body Request body.
+     * @param outStream Output response to this stream, if specified.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future call result. Cancelling the future aborts the request, or gives up the wait for the concurrency limiter.
+     */
+    private CompletableFuture<ApiResult> sendRequestFuture(final ApiRequest request, final RequestBody body, final OutputStream outStream, final Executor executor)
+    {
+        final CompletableFuture<ApiResult> result = new CompletableFuture<ApiResult>();
+        final CompletableFuture<ConcurrencyLimiter.Permit> slot = getConcurrencyLimiter().acquireAsync(request.getEndpoint());
+        result.whenComplete((value, ex) -> slot.cancel(false));
+        slot.thenAccept(permit -> sendRequestFuture(request, body, outStream, executor, permit, result));
+        return result;
+    }
+
+    /**
+     * Send one attempt of a future call that got its place from the concurrency limiter.
+     * @param request Request to send.
+     * @param body Request body.
+     * @param outStream Output response to this stream, if specified.
+     * @param executor Executor that reads the response and completes the future.
+     * @param permit Place of the call in the concurrency limiter, finished with the call.
+     * @param result Future call result. Cancelling the future aborts the request.
+     */
+    private void sendRequestFuture(ApiRequest request, RequestBody body, final OutputStream outStream, final Executor executor,
+            final ConcurrencyLimiter.Permit permit, final CompletableFuture<ApiResult> result)
+    {
+        if (result.isDone()) {
+            permit.release();
+            return;
+        }
+        final long startTime = System.nanoTime();
+        final CircuitBreaker.Call circuitCall;
+        final CompletableFuture<TransportResponse> sent;
+        try {
+            TransportRequest transportRequest = prepareRequest(request, body);
+            circuitCall = getCircuitBreaker().acquire(request.getEndpoint());
+            try {
+                sent = getTransport().postAsync(transportRequest, executor);
+            }
+            catch (RuntimeException ex) {
+                circuitCall.failed(ex);
+                throw ex;
+            }
+        }
+        catch (RuntimeException ex) {
+            permit.release();
+            result.completeExceptionally(ex);
+            return;
+        }
+
+        final AtomicReference<TransportResponse> reading = new AtomicReference<TransportResponse>();
+        sent.whenComplete((response, ex) -> {
+            if (ex != null) {
+                result.completeExceptionally(toApiException(request, ex));
+                return;
+            }
+            final long responseTime = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    try (TransportResponse transportResponse = response) {
+                        if (!result.isDone()) {
+                            reading.set(transportResponse);
+                            if (result.isDone()) abortQuietly(transportResponse);
+                            result.complete(completeResult(request, readResponse(request, transportResponse, outStream, startTime, responseTime)));
+                        }
+                    }
+                    catch (IOException | RuntimeException readException) {
+                        result.completeExceptionally(toApiException(request, readException));
+                    }
+                });
+            }
+            catch (RejectedExecutionException rejected) {
+                closeQuietly(response);
+                result.completeExceptionally(new ApiException(rejected));
+            }
+        });
+        result.whenComplete((value, ex) -> {
+            if (ex != null) {
+                // cancelled or timed out: stop the request, or the download if the response is being read
+                sent.cancel(true);
+                TransportResponse response = reading.get();
+                if (response != null) abortQuietly(response);
+                circuitCall.failed(ex);
+                permit.failed(ex);
+            }
+            else {
+                circuitCall.succeeded(value.getResponseTime());
+                permit.succeeded(value.getResponseTime());
+            }
+        });
+    }
+
+    /**
+     * Send a POST request through the configured transport and process the response, retrying the failures allowed by the retry policy.
+     * @param request Request to send.
+     * @param body Request body.
+     * @param outStream Output response to this stream, if specified.
+     * @return Call result. If output stream is not specified, the result contains the response content.
      */
-    public void setApiEndpoint(String apiEndpoint)
+    private ApiResult performRequest(ApiRequest request, RequestBody body, OutputStream outStream)
     {
-        this.apiEndpoint = apiEndpoint;
+        // reset results
+        lastResult.remove();
+
+        RetryPolicy policy = getRetryPolicy();
+        policy.callStarted();
+        TrackedOutputStream output = outStream != null ? new TrackedOutputStream(outStream) : null;
+
+        for (int attempt = 1; ; attempt++) {
+            long wait = acquirePermit(request);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ApiException(ex);
+                }
+            }
+            try {
+                return sendRequest(request, body, output);
+            }
+            catch (ApiException ex) {
+                rateLimited(request, ex);
+                // part of the result already reached the caller's stream, it cannot be taken back
+                long delay = output != null && output.isWritten() ? -1 : retryDelay(policy, request, ex, attempt);
+                if (delay < 0) throw ex;
+                try {
+                    Thread.sleep(delay);
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
     }
 
     /**
-     * Set a custom SelectPdf API endpoint for async jobs. Do not use this method unless advised by SelectPdf.
-     * @param apiAsyncEndpoint API endpoint.
+     * Decide if a failed attempt of a call is retried, within the deadline of the call.
+     * The submission of an asynchronous job is not sent again when it may have reached the server, since it would start a second job.
+     * @param policy Retry policy.
+     * @param request Request that failed.
+     * @param failure Failure of the attempt.
+     * @param attempt Number of attempts made so far.
+     * @return Delay (in milliseconds) before the next attempt or -1 if the call must fail.
      */
-    public void setApiAsyncEndpoint(String apiAsyncEndpoint)
+    private static long retryDelay(RetryPolicy policy, ApiRequest request, ApiException failure, int attempt)
     {
-        this.apiAsyncEndpoint = apiAsyncEndpoint;
+        if ("True".equals(request.getParameter("async")) && RetryPolicy.mayHaveReachedServer(RetryPolicy.classify(failure))) {
+            return -1;
+        }
+        return policy.retryDelay(failure, attempt, request.hasDeadline() ? request.getRemainingTime() : -1);
     }
 
     /**
-     * Set a custom SelectPdf API endpoint for web elements. Do not use this method unless advised by SelectPdf.
-     * @param apiWebElementsEndpoint API endpoint.
+     * Take a token from the rate limiter for an attempt of a call.
+     * @param request Request to send.
+     * @return Time (in milliseconds) to wait before sending the request.
      */
-    public void setApiWebElementsEndpoint(String apiWebElementsEndpoint)
+    private long acquirePermit(ApiRequest request)
     {
-        this.apiWebElementsEndpoint = apiWebElementsEndpoint;
+        long maxWait = rateLimitTimeout;
+        if (request.hasDeadline()) {
+            long remaining = request.getRemainingTime();
+            maxWait = maxWait < 0 ? remaining : Math.min(maxWait, remaining);
+        }
+        return getRateLimiter().acquire(request.getParameter("key"), request.getEndpoint(), maxWait);
     }
 
     /**
-     * Get the number of pages processed from the PDF document.
-     * @return Number of pages processed from the PDF document.
+     * Slow down the API key of a request that the server rejected with 429 Too Many Requests.
+     * @param request Request that failed.
+     * @param failure Failure of the request.
      */
-    public int getNumberOfPages() {
-        return numberOfPages;
+    private void rateLimited(ApiRequest request, ApiException failure)
+    {
+        if (failure instanceof RateLimitException && failure.getStatusCode() == 429) {
+            getRateLimiter().rateLimited(request.getParameter("key"), failure.getRetryAfter());
+        }
     }
 
     /**
-     * Serialize parameters.
-     * @return Serialized parameters.
+     * Make one attempt of a call.
+     * @param request Request to send.
+     * @param body Request body.
+     * @param outStream Output response to this stream, if specified.
+     * @return Call result. If output stream is not specified, the result contains the response content.
      */
-    protected String serializeParameters() {
+    private ApiResult sendRequest(ApiRequest request, RequestBody body, OutputStream outStream)
+    {
+        ConcurrencyLimiter.Permit permit = acquireSlot(request);
+        TransportRequest transportRequest;
+        CircuitBreaker.Call circuitCall;
         try {
-            StringBuilder data = new StringBuilder();
-            for (Map.Entry<String,String> param : parameters.entrySet()) {
-                if (data.length() != 0) data.append('&');
-                data.append(URLEncoder.encode(param.getKey(), "UTF-8"));
-                data.append('=');
-                data.append(URLEncoder.encode(param.getValue(), "UTF-8"));
-            }
+            transportRequest = prepareRequest(request, body);
+            circuitCall = getCircuitBreaker().acquire(request.getEndpoint());
+        }
+        catch (RuntimeException ex) {
+            permit.release();
+            throw ex;
+        }
 
-            return data.toString();
+        ApiResult result;
+        long startTime = System.nanoTime();
+        try (TransportResponse response = getTransport().post(transportRequest)) {
+            long responseTime = System.nanoTime();
+            lastResult.set(new ApiResult(response.getStatusCode(), 0, null, null));
+
+            // the transport enforces the deadline until the headers are received, the download is aborted here
+            TimingWheel.Timeout watchdog = request.hasDeadline() ? DeadlineTimer.schedule(() -> abortQuietly(response), request.getRemainingTime()) : null;
+            try {
+                result = completeResult(request, readResponse(request, response, outStream, startTime, responseTime));
+                setLastResult(result);
+            }
+            finally {
+                if (watchdog != null) watchdog.cancel();
+            }
+        }
+        catch (IOException ex) {
+            ApiException failure = toApiException(request, ex);
+            circuitCall.failed(failure);
+            permit.failed(failure);
+            throw failure;
         }
-        catch (UnsupportedEncodingException ex) {
-            throw new ApiException("Error while serializing POST parameters.");
+        catch (RuntimeException | Error ex) {
+            circuitCall.failed(ex);
+            permit.failed(ex);
+            throw ex;
         }
+        circuitCall.succeeded(result.getResponseTime());
+        permit.succeeded(result.getResponseTime());
+        return result;
     }
 
     /**
-     * Serialize dictionary.
-     * @param dictionaryToSerialize Dictionary to serialize.
-     * @return Serialized dictionary.
+     * Wait until the concurrency limiter lets an attempt of a call through, within the deadline of the call.
+     * @param request Request to send.
+     * @return Place of the call in the concurrency limiter.
      */
-    protected String serializeDictionary(HashMap<String, String> dictionaryToSerialize) {
+    private ConcurrencyLimiter.Permit acquireSlot(ApiRequest request)
+    {
         try {
-            StringBuilder data = new StringBuilder();
-            for (Map.Entry<String,String> entry : dictionaryToSerialize.entrySet()) {
-                if (data.length() != 0) data.append('&');
-                data.append(URLEncoder.encode(entry.getKey(), "UTF-8"));
-                data.append('=');
-                data.append(URLEncoder.encode(entry.getValue(), "UTF-8"));
-            }
+            return getConcurrencyLimiter().acquire(request.getEndpoint(), request.hasDeadline() ? request.getRemainingTime() : -1);
+        }
+        catch (TimeoutException ex) {
+            throw timeoutException(request, ex);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(ex);
+        }
+    }
+
+    /**
+     * Add the client headers to the request, compress the body if needed and pass the time left until the deadline and the read timeout to the transport.
+     * @param request Request to send.
+     * @param body Request body.
+     * @return Request for the transport.
+     */
+    private TransportRequest prepareRequest(ApiRequest request, RequestBody body)
+    {
+        Map<String, String> requestHeaders = new HashMap<String, String>(request.getHeaders());
+        requestHeaders.put("selectpdf-api-client", String.format("java-%s-%s", System.getProperty("java.version"), CLIENT_VERSION));
+        if (responseCompression) {
+            requestHeaders.put("Accept-Encoding", "gzip, deflate");
+        }
+        else {
+            requestHeaders.remove("Accept-Encoding");
+        }
 
-            return data.toString();
+        if (requestCompression && body.getContentLength() >= requestCompressionThreshold) {
+            body = new GzipRequestBody(body);
         }
-        catch (UnsupportedEncodingException ex) {
-            throw new ApiException("Error while serializing dictionary.");
+
+        long timeout = 0;
+        if (request.hasDeadline()) {
+            timeout = request.getRemainingTime();
+            if (timeout == 0) {
+                throw timeoutException(request, null);
+            }
         }
+        int margin = readTimeoutMargin;
+        long readTimeout = margin >= 0 ? TimeUnit.SECONDS.toMillis(Math.max(getServerTimeout(request), 0) + (long)margin) : 0;
+        return new TransportRequest(request.getEndpoint(), requestHeaders, body, timeout, readTimeout);
     }
 
     /**
-     * Create a POST request.
+     * Complete the result of a call made by this client, for example with data that can be retrieved later from the API.
+     * The default implementation returns the result unchanged.
+     * @param request Request that was sent.
+     * @param result Result of the call.
+     * @return Completed result.
+     */
+    protected ApiResult completeResult(ApiRequest request, ApiResult result)
+    {
+        return result;
+    }
+
+    /**
+     * Process the response of the server.
+     * @param request Request that was sent.
+     * @param response Response received from the server.
      * @param outStream Output response to this stream, if specified.
-     * @return If output stream is not specified, return response as byte array.
+     * @param startTime Time when the request was sent (System.nanoTime()).
+     * @param responseTime Time when the response headers were received (System.nanoTime()).
+     * @return Call result. If output stream is not specified, the result contains the response content.
+     * @throws IOException
      */
-    protected byte[] performPost(OutputStream outStream)
+    private ApiResult readResponse(ApiRequest request, TransportResponse response, OutputStream outStream, long startTime, long responseTime) throws IOException
     {
-        headers.put("selectpdf-api-client", String.format("java-%s-%s", System.getProperty("java.version"), CLIENT_VERSION));
+        // GET response
+        int statusCode = response.getStatusCode();
 
-        // reset results
-        numberOfPages = 0;
-        jobId = "";
-        lastHTTPCode = 0;
+        if (statusCode == 200) {
+            // All OK - Get the response stream with the content returned by the server
 
-        HttpURLConnection urlConnection = null;
+            int numberOfPages = 0;
+            String value = response.getHeader("selectpdf-api-pages");
+            if (value != null && !value.isBlank())
+            {
+                numberOfPages = Integer.parseInt(value);
+            }
+            String jobId = response.getHeader("selectpdf-api-jobid");
 
-        try {
-            // serialize parameters
-            String serializedParameters = serializeParameters();
-            byte[] byteData = serializedParameters.getBytes("UTF-8");
-        
-            URL apiUrl = new URL(apiEndpoint);
-            urlConnection = (HttpURLConnection)apiUrl.openConnection();
-
-            urlConnection.setRequestMethod("POST");
-            for (Map.Entry<String,String> header : headers.entrySet()) { 
-                urlConnection.setRequestProperty(header.getKey(), header.getValue()); // send headers
-            }
-            urlConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            urlConnection.setRequestProperty("Content-Length", String.valueOf(byteData.length));
-            urlConnection.setDoOutput(true);
-            urlConnection.setConnectTimeout(600000); //600,000ms=600s=10min
-            
-            // POST parameters
-            OutputStream connectioOutputStream = urlConnection.getOutputStream();
-            connectioOutputStream.write(byteData);
-            connectioOutputStream.flush();
-            connectioOutputStream.close();
-
-            // GET response
-            int statusCode = urlConnection.getResponseCode();
-            lastHTTPCode = statusCode;
-
-            if (statusCode == 200) {
-                // All OK - Get the response stream with the content returned by the server
-
-                String value = urlConnection.getHeaderField("selectpdf-api-pages");
-                if (value != null && !value.isBlank())
-                {
-                    numberOfPages = Integer.parseInt(value);
+            PdfResult content = null;
+            long length;
+            String contentEncoding = response.getHeader("Content-Encoding");
+            try (InputStream inStream = decodeContent(response.getBody(), contentEncoding)) {
+                if (outStream != null) {
+                    length = copyStream(inStream, outStream);
                 }
-                value = urlConnection.getHeaderField("selectpdf-api-jobid");
-                if (value != null && !value.isBlank())
-                {
-                    jobId = value;
+                else {
+                    // the length on the wire is the decoded length only for uncompressed responses
+                    long expectedLength = contentEncoding == null ? parseContentLength(response.getHeader("Content-Length")) : -1;
+                    ResultBuffer output = new ResultBuffer(resultMemoryThreshold, expectedLength);
+                    try {
+                        length = copyStream(inStream, output);
+                        content = output.toResult();
+                    }
+                    catch (IOException | RuntimeException ex) {
+                        output.discard();
+                        throw ex;
+                    }
                 }
+            }
 
-                InputStream inStream = urlConnection.getInputStream();
+            return new ApiResult(statusCode, numberOfPages, jobId, content, length, -1, startTime, responseTime, System.nanoTime(), null);
+        }
+        else if (statusCode == 202) {
+            // request accepted (for asynchronous jobs)
 
-                if (outStream != null) {
-                    copyStream(inStream, outStream);
-                    inStream.close();
-                    urlConnection.disconnect();
-                    return null;
+            return new ApiResult(statusCode, 0, response.getHeader("selectpdf-api-jobid"), null, 0, parseRetryAfter(response.getHeader("Retry-After")),
+                startTime, responseTime, System.nanoTime(), null);
+        }
+        else {
+            // error
+
+            String error = null;
+            InputStream errorStream = response.getBody();
+            if (errorStream != null) {
+                try (InputStream decodedStream = decodeContent(errorStream, response.getHeader("Content-Encoding"))) {
+                    ByteArrayOutputStream errOutput = new ByteArrayOutputStream();
+                    copyStream(decodedStream, errOutput);
+                    error = errOutput.toString();
                 }
+            }
+            if (error == null || error.isEmpty()) {
+                error = response.getReasonPhrase();
+            }
+            String jobId = response.getHeader("selectpdf-api-jobid");
+            if (jobId == null || jobId.isBlank()) {
+                jobId = request.getParameter("job_id");
+            }
+            throw ApiException.forResponse(statusCode, request.getEndpoint(), jobId, error, parseRetryAfter(response.getHeader("Retry-After")), errorStackTraces);
+
+        }
+    }
 
-                ByteArrayOutputStream output = new ByteArrayOutputStream();
-                copyStream(inStream, output);
-                inStream.close();
-                urlConnection.disconnect();
-                return output.toByteArray();
+    /**
+     * Encode the parameters of the request as the body of a regular (application/x-www-form-urlencoded) POST request.
+     * @param request Request to encode.
+     * @return Encoded data.
+     */
+    protected RequestBody encodeRequestBody(ApiRequest request) {
+        return new FormUrlEncodedBody(request.getParameters());
+    }
 
-            }
-            else if (statusCode == 202) {
-                // request accepted (for asynchronous jobs)
-                
-                String value = urlConnection.getHeaderField("selectpdf-api-jobid");
-                if (value != null && !value.isBlank())
-                {
-                    jobId = value;
-                }
+    /**
+     * Encode all parameters, files and raw data of the request as a streaming multipart body.
+     * File contents are not read here, only their sizes, so the content length is known in advance.
+     * @param request Request to encode.
+     * @return Encoded data.
+     */
+    protected RequestBody encodeMultipartFormData(ApiRequest request) {
+        try {
+            MultipartFormDataBody data = new MultipartFormDataBody(MULTIPART_FORM_DATA_BOUNDARY);
 
-                urlConnection.disconnect();
-                return null;
+            // encode regular parameters
+            for(Map.Entry<String, String> parameter: request.getParameters().entrySet()) {
+                data.addField(parameter.getKey(), parameter.getValue());
             }
-            else {
-                // error
 
-                String error;
-                if (urlConnection.getErrorStream() != null) {
-                    ByteArrayOutputStream errOutput = new ByteArrayOutputStream();
-                    copyStream(urlConnection.getErrorStream(), errOutput);
-                    error = errOutput.toString();
-                }
-                else {
-                    error = urlConnection.getResponseMessage();
-                }
-                urlConnection.disconnect();
-                throw new ApiException(String.format("(%d) %s", statusCode, error));
+            // encode files
+            for(Map.Entry<String, String> fileDataEntry: request.getFiles().entrySet()) {
+                data.addFile(fileDataEntry.getKey(), fileDataEntry.getValue());
+            }
 
+            // encode additional binary data
+            for(Map.Entry<String, byte[]> binaryDataEntry: request.getBinaryData().entrySet()) {
+                data.addData(binaryDataEntry.getKey(), binaryDataEntry.getValue());
             }
+
+            return data;
         }
-        catch (IOException ex) {
+        catch(IOException ex) {
             throw new ApiException(ex);
         }
     }
 
     /**
-     * Create a multipart/form-data POST request (that can handle file uploads).
-     * @param outStream Output response to this stream, if specified.
-     * @return If output stream is not specified, return response as byte array.
+     * Start an asynchronous job.
+     * @return Asynchronous job ID.
      */
-    protected byte[] performPostAsMultipartFormData(OutputStream outStream)
-    {
-        headers.put("selectpdf-api-client", String.format("java-%s-%s", System.getProperty("java.version"), CLIENT_VERSION));
+    public String startAsyncJob() {
+        return startAsyncJob(newRequest());
+    }
 
-        // reset results
-        numberOfPages = 0;
-        jobId = "";
-        lastHTTPCode = 0;
+    /**
+     * Start an asynchronous job that requires multipart forma data.
+     * @return Asynchronous job ID.
+     */
+    public String startAsyncJobMultipartFormData() {
+        return startAsyncJobMultipartFormData(newRequest());
+    }
 
-        HttpURLConnection urlConnection = null;
+    /**
+     * Start an asynchronous job for the specified request.
+     * @param request Request to send.
+     * @return Asynchronous job ID.
+     */
+    protected String startAsyncJob(ApiRequest request) {
+        return performPost(request.withParameter("async", "True"), null).getJobId();
+    }
 
-        try {
-            // serialize parameters
-            byte[] byteData = encodeMultipartFormData();
-        
-            URL apiUrl = new URL(apiEndpoint);
-            urlConnection = (HttpURLConnection)apiUrl.openConnection();
-
-            urlConnection.setRequestMethod("POST");
-            for (Map.Entry<String,String> header : headers.entrySet()) { 
-                urlConnection.setRequestProperty(header.getKey(), header.getValue()); // send headers
-            }
-            urlConnection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + MULTIPART_FORM_DATA_BOUNDARY);
-            urlConnection.setRequestProperty("Content-Length", String.valueOf(byteData.length));
-            urlConnection.setDoOutput(true);
-            urlConnection.setConnectTimeout(600000); //600,000ms=600s=10min
-            
-            // POST parameters
-            OutputStream connectioOutputStream = urlConnection.getOutputStream();
-            connectioOutputStream.write(byteData);
-            connectioOutputStream.flush();
-            connectioOutputStream.close();
-
-            // GET response
-            int statusCode = urlConnection.getResponseCode();
-            lastHTTPCode = statusCode;
-            
-            if (statusCode == 200) {
-                // All OK - Get the response stream with the content returned by the server
-
-                String value = urlConnection.getHeaderField("selectpdf-api-pages");
-                if (value != null && !value.isBlank())
-                {
-                    numberOfPages = Integer.parseInt(value);
-                }
-                value = urlConnection.getHeaderField("selectpdf-api-jobid");
-                if (value != null && !value.isBlank())
-                {
-                    jobId = value;
-                }
+    /**
+     * Start an asynchronous job for the specified request, sent as multipart form data.
+     * @param request Request to send.
+     * @return Asynchronous job ID.
+     */
+    protected String startAsyncJobMultipartFormData(ApiRequest request) {
+        return performPostAsMultipartFormData(request.withParameter("async", "True"), null).getJobId();
+    }
 
-                InputStream inStream = urlConnection.getInputStream();
+    /**
+     * Start an asynchronous job and wait for it to finish. The job is pinged by the asynchronous job poller, as decided by the asynchronous polling policy.
+     * @param request Request to send.
+     * @param multipartFormData Send the request as multipart form data.
+     * @return Result of the finished job.
+     */
+    protected ApiResult runAsyncJob(ApiRequest request, boolean multipartFormData) {
+        return runAsyncJob(request, multipartFormData, null);
+    }
 
-                if (outStream != null) {
-                    copyStream(inStream, outStream);
-                    inStream.close();
-                    urlConnection.disconnect();
-                    return null;
-                }
+    /**
+     * Start an asynchronous job, wait for it to finish and write its result to the specified stream.
+     * The final response is copied to the stream as it is received, on the executor of the client (see {@link #setExecutor(Executor)}); the result is never held in memory.
+     * @param request Request to send.
+     * @param multipartFormData Send the request as multipart form data.
+     * @param outStream Output the result to this stream. If null, the result contains the content.
+     * @return Result of the finished job.
+     */
+    protected ApiResult runAsyncJob(ApiRequest request, boolean multipartFormData, OutputStream outStream) {
+        long startTime = System.nanoTime();
+        ApiRequest asyncRequest = request.withParameter("async", "True");
+        ApiResult started = multipartFormData ? performPostAsMultipartFormData(asyncRequest, null) : performPost(asyncRequest, null);
 
-                ByteArrayOutputStream output = new ByteArrayOutputStream();
-                copyStream(inStream, output);
-                inStream.close();
-                urlConnection.disconnect();
-                return output.toByteArray();
+        if (started.getJobId().isBlank()) {
+            throw new ApiException("An error occurred launching the asynchronous call.");
+        }
 
-            }
-            else if (statusCode == 202) {
-                // request accepted (for asynchronous jobs)
-                
-                String value = urlConnection.getHeaderField("selectpdf-api-jobid");
-                if (value != null && !value.isBlank())
-                {
-                    jobId = value;
-                }
+        CompletableFuture<ApiResult> job = pollAsyncJob(request, started, outStream);
+        try {
+            ApiResult finished = request.hasDeadline() ? job.get(request.getRemainingTime(), TimeUnit.MILLISECONDS) : job.get();
+            ApiResult result = completeResult(request, finished.forJob(started.getJobId(), startTime));
+            setLastResult(result);
+            return result;
+        }
+        catch (InterruptedException ex) {
+            // stop the pings and close the connection of a ping in progress
+            job.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ApiException(ex);
+        }
+        catch (TimeoutException ex) {
+            job.cancel(true);
+            throw timeoutException(request, ex);
+        }
+        catch (ExecutionException ex) {
+            throw toApiException(ex.getCause());
+        }
+    }
 
-                urlConnection.disconnect();
-                return null;
+    /**
+     * Start an asynchronous job and complete the returned future when it finishes. 
+     * The job is pinged by the asynchronous job poller, as decided by the asynchronous polling policy; no thread waits between pings.
+     * @param request Request to send.
+     * @param multipartFormData Send the request as multipart form data.
+     * @param executor Executor that completes the future.
+     * @return Future result of the finished job. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    protected CompletableFuture<ApiResult> runAsyncJobFuture(ApiRequest request, boolean multipartFormData, final Executor executor) {
+        final long startTime = System.nanoTime();
+        final CompletableFuture<ApiResult> result = new CompletableFuture<ApiResult>();
+        final AtomicReference<CompletableFuture<ApiResult>> pending = new AtomicReference<CompletableFuture<ApiResult>>();
+        result.whenComplete((value, ex) -> {
+            CompletableFuture<ApiResult> call = pending.get();
+            if (ex != null && call != null) call.cancel(true);
+        });
+        failAtDeadline(request, result);
+
+        CompletableFuture<ApiResult> start = performPostFuture(request.withParameter("async", "True"), null, multipartFormData, executor);
+        pending.set(start);
+        start.whenComplete((started, ex) -> {
+            if (ex != null) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            if (started.getJobId().isBlank()) {
+                result.completeExceptionally(new ApiException("An error occurred launching the asynchronous call."));
+                return;
             }
-            else {
-                // error
 
-                String error;
-                if (urlConnection.getErrorStream() != null) {
-                    ByteArrayOutputStream errOutput = new ByteArrayOutputStream();
-                    copyStream(urlConnection.getErrorStream(), errOutput);
-                    error = errOutput.toString();
+            CompletableFuture<ApiResult> job = pollAsyncJob(request, started, null);
+            pending.set(job);
+            if (result.isDone()) job.cancel(true);
+
+            // complete on the caller executor, poller threads only send pings
+            job.whenComplete((value, jobException) -> {
+                Runnable completion = () -> {
+                    if (jobException != null) result.completeExceptionally(jobException);
+                    else result.complete(completeResult(request, value.forJob(started.getJobId(), startTime)));
+                };
+                try {
+                    executor.execute(completion);
                 }
-                else {
-                    error = urlConnection.getResponseMessage();
+                catch (RejectedExecutionException rejected) {
+                    completion.run();
                 }
-                urlConnection.disconnect();
-                throw new ApiException(String.format("(%d) %s", statusCode, error));
+            });
+        });
 
-            }
+        return result;
+    }
+
+    /**
+     * Hand a started asynchronous job to the poller.
+     * @param request Request that started the job.
+     * @param started Response of the server to the request (job ID and the delay suggested before the first ping).
+     * @param outStream Output the result to this stream, if specified.
+     * @return Future result of the job.
+     */
+    private CompletableFuture<ApiResult> pollAsyncJob(ApiRequest request, ApiResult started, OutputStream outStream) {
+        AsyncJobStatus status = new AsyncJobStatus(started.getJobId(), request.getEndpoint(), estimateInputSize(request), started.getRetryAfter());
+        return getAsyncJobPoller().poll(newAsyncJobClient(request.getParameter("key"), started.getJobId()), getAsyncPollingPolicy(), status, outStream);
+    }
+
+    /**
+     * Estimate the size of the input of a request (html, files and binary data), used to predict how long an asynchronous job takes.
+     * @param request Request.
+     * @return Input size in bytes.
+     */
+    protected long estimateInputSize(ApiRequest request) {
+        long size = 0;
+        String html = request.getParameter("html");
+        if (html != null) {
+            size += html.length();
         }
-        catch (IOException ex) {
-            throw new ApiException(ex);
+        for (String filePath: request.getFiles().values()) {
+            size += new File(filePath).length();
+        }
+        for (byte[] data: request.getBinaryData().values()) {
+            if (data != null) size += data.length;
+        }
+        return size;
+    }
+
+    private static long parseContentLength(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException ex) {
+            return -1;
         }
     }
 
     /**
-     * Encode all parameters, files and raw data.
-     * @return Encoded data.
+     * Parse the value of a Retry-After header: a number of seconds or an HTTP date.
+     * @param value Header value.
+     * @return Delay in milliseconds or -1 if the header is missing or invalid.
      */
-    private byte[] encodeMultipartFormData() {
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        value = value.trim();
         try {
-            ByteArrayOutputStream data = new ByteArrayOutputStream();
-
-            // encode regular parameters
-            String sParameters = "";
-
-            for(Map.Entry<String, String> parameter: parameters.entrySet()) {
-                sParameters += "--" + MULTIPART_FORM_DATA_BOUNDARY + NEW_LINE;
-                sParameters += String.format("Content-Disposition: form-data; name=\"%s\"", parameter.getKey()) + NEW_LINE;
-                sParameters += NEW_LINE;
-                sParameters += parameter.getValue() + NEW_LINE;
+            return Math.max(0, Long.parseLong(value) * 1000);
+        }
+        catch (NumberFormatException ex) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
             }
+            catch (DateTimeParseException dateEx) {
+                return -1;
+            }
+        }
+    }
 
-            data.write(sParameters.getBytes("UTF-8"));
-
-            // encode files
-            for(Map.Entry<String, String> fileDataEntry: files.entrySet()) {
-                String sFileEncoding = "--" + MULTIPART_FORM_DATA_BOUNDARY + NEW_LINE;
-                sFileEncoding += String.format("Content-Disposition: form-data; name=\"%s\"; filename=\"%s\"", fileDataEntry.getKey(), fileDataEntry.getValue()) + NEW_LINE;
-                sFileEncoding += "Content-Type: application/octet-stream" + NEW_LINE;
-                sFileEncoding += NEW_LINE;
-                data.write(sFileEncoding.getBytes("UTF-8"));
+    /**
+     * Create the client that pings an asynchronous job started by this client.
+     * @param apiKey API key.
+     * @param jobId Job ID.
+     * @return Asynchronous job client.
+     */
+    protected AsyncJobClient newAsyncJobClient(String apiKey, String jobId) {
+        AsyncJobClient asyncJobClient = new AsyncJobClient(apiKey, jobId);
+        asyncJobClient.setApiEndpoint(apiAsyncEndpoint);
+        asyncJobClient.setTransport(transport);
+        asyncJobClient.setResponseCompression(responseCompression);
+        asyncJobClient.setCallTimeout(callTimeout);
+        asyncJobClient.setRetryPolicy(getPingRetryPolicy());
+        asyncJobClient.setErrorStackTraces(errorStackTraces);
+        asyncJobClient.setCircuitBreaker(circuitBreaker);
+        asyncJobClient.setExecutor(executor);
+        asyncJobClient.setRateLimiter(RateLimiter.unlimited());
+        asyncJobClient.setConcurrencyLimiter(ConcurrencyLimiter.disabled());
+        return asyncJobClient;
+    }
 
-                // file content
-                copyStream(new FileInputStream(fileDataEntry.getValue()), data);
+    private static ApiException toApiException(Throwable ex) {
+        Throwable cause = ex;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof ApiException ? (ApiException)cause : new ApiException(cause);
+    }
 
-                data.write(NEW_LINE.getBytes("UTF-8"));
-            }
+    /**
+     * Convert a failure of a request to an ApiException. Failures caused by aborting the request at its deadline become deadline errors.
+     * @param request Request that failed.
+     * @param ex Failure.
+     * @return Exception to throw.
+     */
+    private static ApiException toApiException(ApiRequest request, Throwable ex) {
+        Throwable cause = ex;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof ApiException) {
+            return (ApiException)cause;
+        }
+        if (cause instanceof IOException && request.hasDeadline() && request.getRemainingTime() == 0) {
+            return timeoutException(request, cause);
+        }
+        if (cause instanceof SocketTimeoutException || cause instanceof java.net.http.HttpTimeoutException) {
+            // read timeout: the connection stalled
+            return new ApiTimeoutException("The call to " + request.getEndpoint() + " timed out. " + cause.getMessage(), cause,
+                request.getEndpoint(), request.getParameter("job_id"), false);
+        }
+        return new ApiException(cause.toString(), cause, 0, request.getEndpoint(), request.getParameter("job_id"), null, -1,
+            RetryPolicy.isTransient(RetryPolicy.classify(cause)), true);
+    }
 
-            // encode additional binary data
-            for(Map.Entry<String, byte[]> binaryDataEntry: binaryData.entrySet()) {
-                String sFileEncoding = "--" + MULTIPART_FORM_DATA_BOUNDARY + NEW_LINE;
-                sFileEncoding += String.format("Content-Disposition: form-data; name=\"%s\"; filename=\"%s\"", binaryDataEntry.getKey(), binaryDataEntry.getKey()) + NEW_LINE;
-                sFileEncoding += "Content-Type: application/octet-stream" + NEW_LINE;
-                sFileEncoding += NEW_LINE;
-                data.write(sFileEncoding.getBytes("UTF-8"));
+    private static ApiException timeoutException(ApiRequest request, Throwable cause) {
+        return new ApiTimeoutException("The call to " + request.getEndpoint() + " did not finish before its deadline.",
+            cause != null ? cause : new TimeoutException(), request.getEndpoint(), request.getParameter("job_id"), true);
+    }
 
-                // binary content
-                data.write(binaryDataEntry.getValue());
+    /**
+     * Fail a future call when the deadline of its request passes. Failing the future aborts the call.
+     * @param request Request of the call.
+     * @param result Future result of the call.
+     */
+    private static void failAtDeadline(ApiRequest request, CompletableFuture<ApiResult> result) {
+        if (!request.hasDeadline() || result.isDone()) return;
+        TimingWheel.Timeout deadline = DeadlineTimer.schedule(() -> result.completeExceptionally(timeoutException(request, null)), request.getRemainingTime());
+        result.whenComplete((value, ex) -> deadline.cancel());
+    }
 
-                data.write(NEW_LINE.getBytes("UTF-8"));
-            }
+    private static void abortQuietly(TransportResponse response) {
+        try {
+            response.abort();
+        }
+        catch (IOException ignored) {}
+    }
 
-            // final boundary
-            sParameters = "--" + MULTIPART_FORM_DATA_BOUNDARY + "--" + NEW_LINE;
-            sParameters += NEW_LINE;
+    /**
+     * Output stream that remembers if anything was written to it, so a call is not retried once the caller received part of a result.
+     */
+    private static final class TrackedOutputStream extends FilterOutputStream {
+        private volatile boolean written = false;
 
-            data.write(sParameters.getBytes("UTF-8"));
-            data.flush();
+        TrackedOutputStream(OutputStream output) {
+            super(output);
+        }
 
-            return data.toByteArray();
+        boolean isWritten() {
+            return written;
         }
-        catch(UnsupportedEncodingException ex) {
-            throw new ApiException(ex);
+
+        @Override
+        public void write(int b) throws IOException {
+            written = true;
+            out.write(b);
         }
-        catch(IOException ex) {
-            throw new ApiException(ex);
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            written = true;
+            out.write(b, off, len);
         }
-}
+    }
 
     /**
-     * Start an asynchronous job.
-     * @return Asynchronous job ID.
+     * Writer of a result to an output stream.
      */
-    public String startAsyncJob() {
-        parameters.put("async", "True");
-        performPost(null);
-        return jobId;
+    @FunctionalInterface
+    protected interface ResultWriter {
+        /**
+         * Write the result to the specified stream.
+         * @param stream Output stream.
+         * @throws IOException
+         */
+        void write(OutputStream stream) throws IOException;
     }
 
     /**
-     * Start an asynchronous job that requires multipart forma data.
-     * @return Asynchronous job ID.
+     * Write a result to a local file. The result is streamed to a temporary file in the same folder, that is renamed to the target file when complete,
+     * so readers never see a partial file. If the call fails, the temporary file is deleted and an existing target file is left unchanged.
+     * @param filePath Local file including path if necessary.
+     * @param writer Writer of the result.
+     * @throws IOException
      */
-    public String startAsyncJobMultipartFormData() {
-        parameters.put("async", "True");
-        performPostAsMultipartFormData(null);
-        return jobId;
+    protected static void writeToFile(String filePath, ResultWriter writer) throws IOException {
+        Path target = Paths.get(filePath).toAbsolutePath();
+        Path temp = target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+
+        try {
+            try (OutputStream outputFile = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                writer.write(outputFile);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            try {
+                Files.deleteIfExists(temp);
+            }
+            catch (IOException deleteException) {
+                ex.addSuppressed(deleteException);
+            }
+            throw ex;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (IOException ignored) {}
+    }
+
+    /**
+     * Decode a compressed response body on the fly.
+     * @param input Response body as received from the server.
+     * @param contentEncoding Content encoding of the response.
+     * @return Stream with the decoded content.
+     * @throws IOException
+     */
+    private static InputStream decodeContent(InputStream input, String contentEncoding) throws IOException {
+        if (contentEncoding == null) return input;
+
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(input, 8192);
+        }
+        if (encoding.equals("deflate")) {
+            // "deflate" should be zlib wrapped, but some servers send raw deflate data
+            BufferedInputStream buffered = new BufferedInputStream(input, 8192);
+            buffered.mark(2);
+            int b0 = buffered.read();
+            int b1 = buffered.read();
+            buffered.reset();
+            boolean zlibWrapped = b0 != -1 && b1 != -1 && (b0 & 0x0F) == Deflater.DEFLATED && ((b0 << 8) | b1) % 31 == 0;
+            final Inflater inflater = new Inflater(!zlibWrapped);
+            return new InflaterInputStream(buffered, inflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    }
+                    finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+        return input;
     }
 
     /**
      * Copy from one stream into another.
      * @param input Input stream.
      * @param output Output stream.
+     * @return Number of bytes copied.
      * @throws IOException
      */
-    private void copyStream(InputStream input, OutputStream output) throws IOException {
-        byte[] bytes = new byte[8192];
-        while (true) {
-            int bytesNumber = input.read(bytes, 0, 8192);
-            if (bytesNumber == -1) break;
-            output.write(bytes, 0, bytesNumber);
+    private long copyStream(InputStream input, OutputStream output) throws IOException {
+        BufferPool pool = BufferPool.shared();
+        byte[] bytes = pool.acquire();
+        try {
+            long total = 0;
+            while (true) {
+                int bytesNumber = input.read(bytes, 0, bytes.length);
+                if (bytesNumber == -1) break;
+                output.write(bytes, 0, bytesNumber);
+                total += bytesNumber;
+            }
+            return total;
+        }
+        finally {
+            pool.release(bytes);
         }
     }
 
@@ -2,26 +2,156 @@ package com.selectpdf;
 
 /**
  * Exception thrown by SelectPdf API Client.
+ *
+ * Besides the message, the exception describes the failed call: HTTP status code, endpoint, job ID, error body returned by the server,
+ * delay asked by the server before retrying and whether retrying the call may succeed. Typical failures have their own subclasses
+ * ({@link RateLimitException}, {@link ApiTimeoutException}, {@link AuthenticationException}, {@link ValidationException}).
+ *
+ * Exceptions for error responses of the API are expected failures and are created without a stack trace by default (see {@link ApiClient#setErrorStackTraces(boolean)}),
+ * so a burst of failing calls does not spend its time filling stack traces.
  */
 public class ApiException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String endpoint;
+    private final String jobId;
+    private final String errorBody;
+    private final long retryAfter;
+    private final boolean retryable;
+
     /**
      * Constructor for ApiException.
      */
-    public ApiException() {}
-    
+    public ApiException() {
+        this(null, null, 0, null, null, null, -1, false, true);
+    }
+
     /**
-     * 
+     *
      * @param message The exception message.
      */
     public ApiException(String message) {
-        super(message);
+        this(message, null, 0, null, null, null, -1, false, true);
+    }
+
+    /**
+     * Constructor for ApiException.
+     * @param throwable Inner exception.
+     */
+    public ApiException(Throwable throwable) {
+        this(throwable != null ? throwable.toString() : null, throwable, 0, null, null, null, -1, isTransient(throwable), true);
     }
 
     /**
      * Constructor for ApiException.
+     * @param message The exception message.
      * @param throwable Inner exception.
      */
-    public ApiException(Throwable throwable) { 
-        super(throwable); 
+    public ApiException(String message, Throwable throwable) {
+        this(message, throwable, 0, null, null, null, -1, isTransient(throwable), true);
+    }
+
+    /**
+     * Constructor for a failed call.
+     * @param message The exception message.
+     * @param throwable Inner exception or null.
+     * @param statusCode HTTP status code of the error response or 0 if the call failed without a response.
+     * @param endpoint Endpoint of the call or null.
+     * @param jobId Job ID of the call or null.
+     * @param errorBody Error message returned by the server or null.
+     * @param retryAfter Delay (in milliseconds) asked by the server before retrying (Retry-After header) or -1.
+     * @param retryable True if retrying the call may succeed.
+     * @param stackTrace False to create the exception without a stack trace (for expected failures).
+     */
+    ApiException(String message, Throwable throwable, int statusCode, String endpoint, String jobId, String errorBody,
+            long retryAfter, boolean retryable, boolean stackTrace) {
+        super(message, throwable, true, stackTrace);
+        this.statusCode = statusCode;
+        this.endpoint = endpoint;
+        this.jobId = jobId;
+        this.errorBody = errorBody;
+        this.retryAfter = retryAfter;
+        this.retryable = retryable;
+    }
+
+    /**
+     * Create the exception for an error response of the API.
+     * @param statusCode HTTP status code of the response.
+     * @param endpoint Endpoint of the call.
+     * @param jobId Job ID of the call or null.
+     * @param errorBody Error message returned by the server.
+     * @param retryAfter Delay (in milliseconds) asked by the server before retrying (Retry-After header) or -1.
+     * @param stackTrace False to create the exception without a stack trace.
+     * @return Exception of the subclass matching the status code.
+     */
+    static ApiException forResponse(int statusCode, String endpoint, String jobId, String errorBody, long retryAfter, boolean stackTrace) {
+        String message = String.format("(%d) %s", statusCode, errorBody);
+        switch (statusCode) {
+            case 429:
+                return new RateLimitException(message, statusCode, endpoint, jobId, errorBody, retryAfter, stackTrace);
+            case 401:
+            case 403:
+                return new AuthenticationException(message, statusCode, endpoint, jobId, errorBody, stackTrace);
+            case 400:
+            case 422:
+                return new ValidationException(message, statusCode, endpoint, jobId, errorBody, stackTrace);
+            default:
+                boolean retryable = statusCode == 502 || statusCode == 503 || statusCode == 504;
+                return new ApiException(message, null, statusCode, endpoint, jobId, errorBody, retryAfter, retryable, stackTrace);
+        }
+    }
+
+    private static boolean isTransient(Throwable throwable) {
+        return throwable != null && RetryPolicy.isTransient(RetryPolicy.classify(throwable));
+    }
+
+    /**
+     * Get the HTTP status code of the error response.
+     * @return HTTP status code or 0 if the call failed without a response from the API.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Get the endpoint of the failed call.
+     * @return Endpoint or null if not known.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Get the job ID of the failed call, for calls that started an asynchronous job or pinged one.
+     * @return Job ID or null if not known.
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Get the error message returned by the server, without the status code.
+     * @return Error body or null if the call failed without a response from the API.
+     */
+    public String getErrorBody() {
+        return errorBody;
+    }
+
+    /**
+     * Get the delay asked by the server before retrying (Retry-After header).
+     * @return Delay in milliseconds or -1 if not specified.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Check if retrying the call may succeed: the API key was rate limited, the service was temporarily unavailable, the connection failed or timed out.
+     * Invalid parameters, invalid API keys and conversion errors are not retryable.
+     * @return True if the failure is transient.
+     */
+    public boolean isRetryable() {
+        return retryable;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,218 @@
+package com.selectpdf;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of an API request: endpoint, parameters, HTTP headers, files, binary data and deadline.
+ *
+ * Clients take a snapshot of their options when a call starts and add the per-call values (url, html, input files, etc) to the snapshot,
+ * so the options of the client are never changed by a call and one client can run many calls in parallel.
+ * The with/without methods return a new request and leave the current one unchanged. Binary data arrays are not copied.
+ */
+public final class ApiRequest {
+    private final String endpoint;
+    private final Map<String, String> parameters;
+    private final Map<String, String> headers;
+    private final Map<String, String> files;
+    private final Map<String, byte[]> binaryData;
+    private final boolean hasDeadline;
+    private final long deadline;
+
+    /**
+     * Construct a request. The maps are copied.
+     * @param endpoint API endpoint.
+     * @param parameters Parameters that will be sent to the API.
+     * @param headers HTTP Headers that will be sent to the API.
+     * @param files Files that will be sent to the API (field name and path to a local file).
+     * @param binaryData Binary data that will be sent to the API.
+     */
+    public ApiRequest(String endpoint, Map<String, String> parameters, Map<String, String> headers, Map<String, String> files, Map<String, byte[]> binaryData) {
+        this(endpoint, parameters, headers, files, binaryData, false, 0);
+    }
+
+    private ApiRequest(String endpoint, Map<String, String> parameters, Map<String, String> headers, Map<String, String> files, Map<String, byte[]> binaryData,
+            boolean hasDeadline, long deadline) {
+        this.endpoint = endpoint;
+        this.parameters = copy(parameters);
+        this.headers = copy(headers);
+        this.files = copy(files);
+        this.binaryData = copy(binaryData);
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    private static <V> Map<String, V> copy(Map<String, V> map) {
+        if (map == null || map.isEmpty()) return Collections.emptyMap();
+        return Collections.unmodifiableMap(new LinkedHashMap<String, V>(map));
+    }
+
+    /**
+     * Get the API endpoint.
+     * @return API endpoint.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Get the parameters that will be sent to the API.
+     * @return Read-only parameters.
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Get the value of a parameter.
+     * @param name Parameter name.
+     * @return Parameter value or null if the parameter is not set.
+     */
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Get the HTTP headers that will be sent to the API.
+     * @return Read-only HTTP headers.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Get the files that will be sent to the API.
+     * @return Read-only map of field names and local file paths.
+     */
+    public Map<String, String> getFiles() {
+        return files;
+    }
+
+    /**
+     * Get the binary data that will be sent to the API.
+     * @return Read-only map of field names and contents.
+     */
+    public Map<String, byte[]> getBinaryData() {
+        return binaryData;
+    }
+
+    /**
+     * Check if the request has a deadline.
+     * @return True if the request must finish before a deadline.
+     */
+    public boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /**
+     * Get the time left until the deadline of the request. The deadline covers the whole call: waiting for a connection, connecting,
+     * uploading, the processing on the server (including the pings of an asynchronous job) and downloading the result.
+     * @return Remaining time in milliseconds (0 if the deadline passed) or -1 if the request has no deadline.
+     */
+    public long getRemainingTime() {
+        if (!hasDeadline) return -1;
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * Check if the request has files or binary data and must be sent as multipart/form-data.
+     * @return True if the request has attachments.
+     */
+    public boolean hasAttachments() {
+        return !files.isEmpty() || !binaryData.isEmpty();
+    }
+
+    /**
+     * Get a copy of this request sent to another endpoint.
+     * @param endpoint API endpoint.
+     * @return New request.
+     */
+    public ApiRequest withEndpoint(String endpoint) {
+        return new ApiRequest(endpoint, parameters, headers, files, binaryData, hasDeadline, deadline);
+    }
+
+    /**
+     * Get a copy of this request with a parameter set.
+     * @param name Parameter name.
+     * @param value Parameter value.
+     * @return New request.
+     */
+    public ApiRequest withParameter(String name, String value) {
+        return new ApiRequest(endpoint, with(parameters, name, value), headers, files, binaryData, hasDeadline, deadline);
+    }
+
+    /**
+     * Get a copy of this request without the specified parameter.
+     * @param name Parameter name.
+     * @return New request.
+     */
+    public ApiRequest withoutParameter(String name) {
+        if (!parameters.containsKey(name)) return this;
+        return new ApiRequest(endpoint, without(parameters, name), headers, files, binaryData, hasDeadline, deadline);
+    }
+
+    /**
+     * Get a copy of this request with an HTTP header set.
+     * @param name Header name.
+     * @param value Header value.
+     * @return New request.
+     */
+    public ApiRequest withHeader(String name, String value) {
+        return new ApiRequest(endpoint, parameters, with(headers, name, value), files, binaryData, hasDeadline, deadline);
+    }
+
+    /**
+     * Get a copy of this request without the specified HTTP header.
+     * @param name Header name.
+     * @return New request.
+     */
+    public ApiRequest withoutHeader(String name) {
+        if (!headers.containsKey(name)) return this;
+        return new ApiRequest(endpoint, parameters, without(headers, name), files, binaryData, hasDeadline, deadline);
+    }
+
+    /**
+     * Get a copy of this request with a file attached.
+     * @param name Field name.
+     * @param filePath Path to a local file.
+     * @return New request.
+     */
+    public ApiRequest withFile(String name, String filePath) {
+        return new ApiRequest(endpoint, parameters, headers, with(files, name, filePath), binaryData, hasDeadline, deadline);
+    }
+
+    /**
+     * Get a copy of this request with binary data attached.
+     * @param name Field name.
+     * @param data Binary content. The array is not copied.
+     * @return New request.
+     */
+    public ApiRequest withBinaryData(String name, byte[] data) {
+        return new ApiRequest(endpoint, parameters, headers, files, with(binaryData, name, data), hasDeadline, deadline);
+    }
+
+    /**
+     * Get a copy of this request that must finish within the specified time, starting now. 
+     * An existing deadline is kept if it is earlier.
+     * @param timeout Timeout in milliseconds. Zero or negative means no timeout (the existing deadline, if any, is kept).
+     * @return New request.
+     */
+    public ApiRequest withTimeout(long timeout) {
+        if (timeout <= 0) return this;
+        long newDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (hasDeadline && deadline - newDeadline <= 0) return this;
+        return new ApiRequest(endpoint, parameters, headers, files, binaryData, true, newDeadline);
+    }
+
+    private static <V> Map<String, V> with(Map<String, V> map, String name, V value) {
+        Map<String, V> result = new LinkedHashMap<String, V>(map);
+        result.put(name, value);
+        return result;
+    }
+
+    private static <V> Map<String, V> without(Map<String, V> map, String name) {
+        Map<String, V> result = new LinkedHashMap<String, V>(map);
+        result.remove(name);
+        return result;
+    }
+}
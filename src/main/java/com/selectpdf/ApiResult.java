@@ -0,0 +1,262 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Result of an API call: HTTP status code, number of pages, job ID, length, timings and the returned content.
+ * Each call gets its own result, so results of calls running in parallel on the same client do not mix.
+ * Results are immutable (the content is read lazily) and can be passed freely between threads.
+ * Close the result to delete the temporary file of a large content (see {@link PdfResult}).
+ */
+public final class ApiResult implements Closeable {
+    private final int statusCode;
+    private final int numberOfPages;
+    private final String jobId;
+    private final PdfResult content;
+    private final long length;
+    private final long retryAfter;
+    private final long startTime;
+    private final long responseTime;
+    private final long endTime;
+    private final Supplier<String> webElementsLoader;
+    private volatile String webElements = null;
+
+    /**
+     * Construct a result.
+     * @param statusCode HTTP status code.
+     * @param numberOfPages Number of pages of the resulted document.
+     * @param jobId Job ID for asynchronous calls or for calls that require a second request.
+     * @param content Returned content or null if the content was written to an output stream or the job is still running.
+     */
+    public ApiResult(int statusCode, int numberOfPages, String jobId, byte[] content) {
+        this(statusCode, numberOfPages, jobId, content, -1);
+    }
+
+    /**
+     * Construct a result.
+     * @param statusCode HTTP status code.
+     * @param numberOfPages Number of pages of the resulted document.
+     * @param jobId Job ID for asynchronous calls or for calls that require a second request.
+     * @param content Returned content or null if the content was written to an output stream or the job is still running.
+     * @param retryAfter Delay (in milliseconds) suggested by the server before the next request or -1 if not specified.
+     */
+    public ApiResult(int statusCode, int numberOfPages, String jobId, byte[] content, long retryAfter) {
+        this(statusCode, numberOfPages, jobId, content != null ? new PdfResult(content) : null, retryAfter);
+    }
+
+    /**
+     * Construct a result.
+     * @param statusCode HTTP status code.
+     * @param numberOfPages Number of pages of the resulted document.
+     * @param jobId Job ID for asynchronous calls or for calls that require a second request.
+     * @param content Returned content (in memory or in a temporary file) or null if the content was written to an output stream or the job is still running.
+     * @param retryAfter Delay (in milliseconds) suggested by the server before the next request or -1 if not specified.
+     */
+    public ApiResult(int statusCode, int numberOfPages, String jobId, PdfResult content, long retryAfter) {
+        this(statusCode, numberOfPages, jobId, content, content != null ? content.getLength() : 0, retryAfter, 0, 0, 0, null);
+    }
+
+    ApiResult(int statusCode, int numberOfPages, String jobId, PdfResult content, long length, long retryAfter,
+            long startTime, long responseTime, long endTime, Supplier<String> webElementsLoader) {
+        this.statusCode = statusCode;
+        this.numberOfPages = numberOfPages;
+        this.jobId = jobId != null ? jobId : "";
+        this.content = content;
+        this.length = length;
+        this.retryAfter = retryAfter;
+        this.startTime = startTime;
+        this.responseTime = responseTime;
+        this.endTime = endTime;
+        this.webElementsLoader = webElementsLoader;
+    }
+
+    /**
+     * Get a copy of this result (the final ping of an asynchronous job) as the result of the whole job.
+     * @param jobId Job ID returned when the job was started.
+     * @param startTime Time when the job was started, as returned by System.nanoTime().
+     * @return New result.
+     */
+    ApiResult forJob(String jobId, long startTime) {
+        return new ApiResult(statusCode, numberOfPages, this.jobId.isEmpty() ? jobId : this.jobId, content, length, retryAfter, startTime, responseTime, endTime, webElementsLoader);
+    }
+
+    /**
+     * Get a copy of this result that loads the web elements of the conversion on demand.
+     * @param webElementsLoader Loader of the web elements.
+     * @return New result.
+     */
+    ApiResult withWebElements(Supplier<String> webElementsLoader) {
+        return new ApiResult(statusCode, numberOfPages, jobId, content, length, retryAfter, startTime, responseTime, endTime, webElementsLoader);
+    }
+
+    /**
+     * Get a copy of this result without the content, to be kept after the call: the content (in memory or in a temporary file) stays with the caller.
+     * @return Result without content.
+     */
+    ApiResult withoutContent() {
+        if (content == null) return this;
+        return new ApiResult(statusCode, numberOfPages, jobId, null, length, retryAfter, startTime, responseTime, endTime, webElementsLoader);
+    }
+
+    /**
+     * Get the HTTP status code of the response.
+     * @return HTTP status code.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Get the number of pages of the pdf document resulted from the conversion (or processed from the input PDF).
+     * @return Number of pages.
+     */
+    public int getNumberOfPages() {
+        return numberOfPages;
+    }
+
+    /**
+     * Get the job ID for asynchronous calls or for calls that require a second request (like retrieving web elements).
+     * @return Job ID or empty string.
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Get the length of the returned content, also when the content was written to an output stream or a file.
+     * @return Length in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Get the time elapsed from the start of the call until the response was completely read.
+     * For asynchronous calls, this includes the time the job waited for the server and the pings.
+     * @return Elapsed time in milliseconds.
+     */
+    public long getElapsedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
+    }
+
+    /**
+     * Get the time elapsed from the start of the call until the response status and headers were received (time to first byte).
+     * @return Response time in milliseconds.
+     */
+    public long getResponseTime() {
+        return TimeUnit.NANOSECONDS.toMillis(responseTime - startTime);
+    }
+
+    /**
+     * Get the time spent reading the response body (downloading and decoding the content).
+     * @return Transfer time in milliseconds.
+     */
+    public long getTransferTime() {
+        return TimeUnit.NANOSECONDS.toMillis(endTime - responseTime);
+    }
+
+    /**
+     * Get the returned content. A large content kept in a temporary file is loaded in memory, use getPdfResult() to avoid that.
+     * @return Content or null if the content was written to an output stream or the job is still running.
+     */
+    public byte[] getContent() {
+        if (content == null) return null;
+        try {
+            return content.getBytes();
+        }
+        catch (IOException ex) {
+            throw new ApiException(ex);
+        }
+    }
+
+    /**
+     * Get the returned content as UTF-8 text (for Pdf To Text results).
+     * @return Text content or null if there is no content.
+     */
+    public String getText() {
+        byte[] bytes = getContent();
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Get the returned content, kept in memory or (for large results) in a temporary file.
+     * Read it as a stream or a memory-mapped buffer, or move it to its final location, without loading it on heap.
+     * @return Content or null if the content was written to an output stream or the job is still running.
+     */
+    public PdfResult getPdfResult() {
+        return content;
+    }
+
+    /**
+     * Get a stream that reads the returned content.
+     * @return Input stream.
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        return checkContent().getInputStream();
+    }
+
+    /**
+     * Save the returned content to a local file. A content kept in a temporary file is moved, not copied. The file appears complete or not at all.
+     * @param filePath Local file including path if necessary.
+     * @throws IOException
+     */
+    public void saveToFile(String filePath) throws IOException {
+        checkContent().moveTo(Paths.get(filePath));
+    }
+
+    private PdfResult checkContent() {
+        if (content == null) {
+            throw new ApiException("The result has no content. The content was written to an output stream or the job is not finished.");
+        }
+        return content;
+    }
+
+    /**
+     * Get the locations of certain web elements for a conversion with pdf_web_elements_selectors set. They are retrieved from the API on the first call.
+     * @return List of web elements locations or null if the result is not a conversion result.
+     */
+    public String getWebElements() {
+        String result = webElements;
+        if (result == null && webElementsLoader != null) {
+            // concurrent callers wait for the first one instead of calling the API again
+            synchronized (this) {
+                result = webElements;
+                if (result == null) {
+                    result = webElements = webElementsLoader.get();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if the call is finished. An asynchronous job that is still running returns 202 Accepted.
+     * @return True if the call is finished.
+     */
+    public boolean isFinished() {
+        return statusCode != 202;
+    }
+
+    /**
+     * Get the delay suggested by the server before the next request (Retry-After header), for example before pinging a running job again.
+     * @return Delay in milliseconds or -1 if the server did not suggest one.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Delete the temporary file of the content, if any.
+     */
+    @Override
+    public void close() {
+        if (content != null) {
+            content.close();
+        }
+    }
+}
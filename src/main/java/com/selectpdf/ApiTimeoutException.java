@@ -0,0 +1,26 @@
+package com.selectpdf;
+
+/**
+ * Exception thrown when a call times out: the deadline of the call passed (see {@link ApiClient#setCallTimeout(long)}),
+ * the connection stalled longer than the read timeout (see {@link ApiClient#setReadTimeoutMargin(int)})
+ * or an asynchronous job did not finish within the pings allowed by the polling policy.
+ */
+public class ApiTimeoutException extends ApiException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean deadlineExpired;
+
+    ApiTimeoutException(String message, Throwable throwable, String endpoint, String jobId, boolean deadlineExpired) {
+        super(message, throwable, 0, endpoint, jobId, null, -1, true, true);
+        this.deadlineExpired = deadlineExpired;
+    }
+
+    /**
+     * Check if the call was stopped by a limit of the caller (the deadline of the call or the pings allowed by the polling policy),
+     * not because the connection stalled. Such a timeout says nothing about the health of the endpoint.
+     * @return True if the deadline of the call or the polling limit passed.
+     */
+    public boolean isDeadlineExpired() {
+        return deadlineExpired;
+    }
+}
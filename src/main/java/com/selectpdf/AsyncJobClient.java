@@ -1,5 +1,8 @@
 package com.selectpdf;
 
+import java.io.*;
+import java.util.concurrent.*;
+
 /**
  * Get the result of an asynchronous call.
  */
@@ -22,18 +25,50 @@ public class AsyncJobClient extends ApiClient {
      */
     public byte[] getResult()
     {
-        byte[] result = performPost(null);
+        ApiResult result = performPost(newRequest(), null);
 
-        if (jobId != null && !jobId.isBlank()) {
+        if (!result.getJobId().isBlank()) {
             return null;
         }
         else {
-            return result;
+            return result.getContent();
         }
     }
 
     /**
-     * Check if asynchronous job is finished.
+     * Get result of the asynchronous job and write it to the specified stream, if the job is finished. 
+     * The result is copied to the stream as it is received, without being held in memory.
+     * @param stream The output stream where the resulted file will be written.
+     * @return True if the job is finished and the result was written. False if the job is still running. Throws an exception if an error occurred.
+     */
+    public boolean getResultToStream(OutputStream stream)
+    {
+        return performPost(newRequest(), stream).isFinished();
+    }
+
+    /**
+     * Get result of the asynchronous job without blocking the calling thread.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future result. Use isFinished() to check if the job is finished. Completes exceptionally if an error occurred.
+     */
+    public CompletableFuture<ApiResult> getResultFuture(Executor executor)
+    {
+        return getResultFuture(null, executor);
+    }
+
+    /**
+     * Get result of the asynchronous job without blocking the calling thread. If the job is finished, the result is written to the specified stream as it is received.
+     * @param stream The output stream where the resulted file will be written. If null, the result is returned in the content of the future result.
+     * @param executor Executor that reads the response, writes it to the stream and completes the future.
+     * @return Future result. Use isFinished() to check if the job is finished. Completes exceptionally if an error occurred.
+     */
+    public CompletableFuture<ApiResult> getResultFuture(OutputStream stream, Executor executor)
+    {
+        return performPostFuture(newRequest(), stream, false, executor);
+    }
+
+    /**
+     * Check if asynchronous job is finished, after the last call to getResult made from the current thread.
      * @return True if job finished.
      */
     public Boolean finished()
@@ -41,7 +76,8 @@ public class AsyncJobClient extends ApiClient {
         // 200 OK - the job is finished (successfully). 
         // 202 Accepted - the job is still running. 
         // 499 (or some other error code) - error - job is finished (with error).
-        return this.lastHTTPCode != 202;
+        ApiResult result = getLastResult();
+        return result == null || result.isFinished();
     }
 
 }
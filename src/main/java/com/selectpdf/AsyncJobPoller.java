@@ -0,0 +1,214 @@
+package com.selectpdf;
+
+import java.io.OutputStream;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls the outstanding asynchronous jobs of all clients until they finish.
+ *
+ * The next ping of every job is scheduled in a hashed timing wheel, so no thread waits between pings. The delays between pings are decided by an {@link AsyncPollingPolicy}.
+ * Pings are handed from a small fixed pool of daemon threads to the executor of the job client (see {@link ApiClient#setExecutor(Executor)}), which sends them, reads the responses and downloads the result,
+ * so a slow download or a blocking transport never holds up the pings of the other jobs.
+ * Each job keeps a single {@link AsyncJobClient} for all its pings. A single poller (see {@link #getDefault()}) can track tens of thousands of jobs.
+ */
+public class AsyncJobPoller {
+    private static volatile AsyncJobPoller defaultPoller = null;
+
+    private final ExecutorService executor;
+    private final TimingWheel wheel;
+    private final AtomicInteger outstandingJobs = new AtomicInteger();
+
+    /**
+     * Construct a poller with the default settings: 4 threads and a wheel of 512 ticks of 50 milliseconds.
+     */
+    public AsyncJobPoller() {
+        this(4, 50, 512);
+    }
+
+    /**
+     * Construct a poller.
+     * @param threads Number of threads that send the pings.
+     * @param tickMillis Duration (in milliseconds) of a tick of the timing wheel. This is the precision of the ping intervals.
+     * @param ticksPerWheel Number of buckets of the timing wheel.
+     */
+    public AsyncJobPoller(int threads, long tickMillis, int ticksPerWheel) {
+        if (threads <= 0) {
+            throw new ApiException("Number of poller threads must be positive.");
+        }
+
+        final AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "selectpdf-async-poller-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        wheel = new TimingWheel(tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel, executor, "selectpdf-async-poller-timer");
+    }
+
+    /**
+     * Get the poller shared by all clients that do not have their own poller set.
+     * @return Default poller.
+     */
+    public static AsyncJobPoller getDefault() {
+        AsyncJobPoller result = defaultPoller;
+        if (result == null) {
+            synchronized (AsyncJobPoller.class) {
+                result = defaultPoller;
+                if (result == null) {
+                    result = defaultPoller = new AsyncJobPoller();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set the poller shared by all clients that do not have their own poller set.
+     * @param poller Default poller.
+     */
+    public static void setDefault(AsyncJobPoller poller) {
+        defaultPoller = poller;
+    }
+
+    /**
+     * Get the number of jobs that did not finish yet.
+     * @return Number of outstanding jobs.
+     */
+    public int getOutstandingJobs() {
+        return outstandingJobs.get();
+    }
+
+    /**
+     * Poll an asynchronous job until it finishes, at a fixed interval.
+     * @param client Client for the job (endpoint, transport and job ID already set).
+     * @param pingInterval Number of seconds between pings. The first ping is sent after one interval.
+     * @param maxPings Maximum number of pings, after which the job fails.
+     * @return Future result of the job, completed on the executor of the client. Cancelling the future stops the pings.
+     */
+    public CompletableFuture<ApiResult> poll(AsyncJobClient client, int pingInterval, int maxPings) {
+        return poll(client, new FixedPollingPolicy(pingInterval, maxPings), new AsyncJobStatus(client.parameters.get("job_id"), null, 0, -1));
+    }
+
+    /**
+     * Poll an asynchronous job until it finishes.
+     * @param client Client for the job (endpoint, transport and job ID already set).
+     * @param policy Policy that decides when the job is pinged and when to give up.
+     * @param status Status of the job, as known when it was started.
+     * @return Future result of the job, completed on the executor of the client. Cancelling the future stops the pings.
+     */
+    public CompletableFuture<ApiResult> poll(AsyncJobClient client, AsyncPollingPolicy policy, AsyncJobStatus status) {
+        return poll(client, policy, status, null);
+    }
+
+    /**
+     * Poll an asynchronous job until it finishes and write its result to the specified stream.
+     * The result is copied to the stream as it is received (with a bounded buffer), so large results are never held in memory.
+     * @param client Client for the job (endpoint, transport and job ID already set).
+     * @param policy Policy that decides when the job is pinged and when to give up.
+     * @param status Status of the job, as known when it was started.
+     * @param stream The output stream where the result will be written. If null, the result is returned in the content of the future result.
+     * The result is written on the executor of the client (see {@link ApiClient#setExecutor(Executor)}), never on a poller thread, so a slow stream does not delay the pings of the other jobs.
+     * @return Future result of the job, completed on the executor of the client, after the result was written. Cancelling the future stops the pings.
+     */
+    public CompletableFuture<ApiResult> poll(AsyncJobClient client, AsyncPollingPolicy policy, AsyncJobStatus status, OutputStream stream) {
+        Job job = new Job(client, policy, status, stream);
+        outstandingJobs.incrementAndGet();
+        job.result.whenComplete((value, ex) -> {
+            outstandingJobs.decrementAndGet();
+            job.stop();
+        });
+        job.scheduleNext();
+        return job.result;
+    }
+
+    /**
+     * Stop the poller. Outstanding jobs are not pinged anymore and their futures never complete.
+     */
+    public void shutdown() {
+        wheel.stop();
+        executor.shutdown();
+    }
+
+    /**
+     * An outstanding job.
+     */
+    private final class Job {
+        final CompletableFuture<ApiResult> result = new CompletableFuture<ApiResult>();
+        private final AsyncJobClient client;
+        private final AsyncPollingPolicy policy;
+        private final AsyncJobStatus status;
+        private final OutputStream stream;
+        private volatile TimingWheel.Timeout timeout = null;
+        private volatile CompletableFuture<ApiResult> ping = null;
+
+        Job(AsyncJobClient client, AsyncPollingPolicy policy, AsyncJobStatus status, OutputStream stream) {
+            this.client = client;
+            this.policy = policy;
+            this.status = status;
+            this.stream = stream;
+        }
+
+        void scheduleNext() {
+            if (result.isDone()) return;
+
+            long delay;
+            try {
+                delay = policy.nextPingDelay(status);
+            }
+            catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            if (delay < 0) {
+                result.completeExceptionally(new ApiTimeoutException("Asynchronous call did not finish in expected timeframe.", null, status.getEndpoint(), status.getJobId(), true));
+                return;
+            }
+
+            try {
+                timeout = wheel.schedule(this::ping, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException ex) {
+                result.completeExceptionally(new ApiException(ex));
+            }
+        }
+
+        private void ping() {
+            if (result.isDone()) return;
+
+            // only the final (200) response has a body, so the stream receives nothing while the job runs;
+            // the response is read on the client executor, so the poller threads never download a result
+            CompletableFuture<ApiResult> call = client.getResultFuture(stream, client.getExecutor());
+            ping = call;
+            if (result.isDone()) call.cancel(true);
+
+            call.whenComplete((value, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                    return;
+                }
+
+                status.pinged(value);
+                if (value.isFinished()) {
+                    try {
+                        policy.jobFinished(status, value);
+                    }
+                    catch (RuntimeException ignored) {
+                        // learning is best effort, the job is done anyway
+                    }
+                    result.complete(value);
+                }
+                else {
+                    scheduleNext();
+                }
+            });
+        }
+
+        void stop() {
+            TimingWheel.Timeout currentTimeout = timeout;
+            if (currentTimeout != null) currentTimeout.cancel();
+            CompletableFuture<ApiResult> currentPing = ping;
+            if (currentPing != null) currentPing.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.selectpdf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Status of an asynchronous job that is being polled, as seen by an {@link AsyncPollingPolicy}.
+ */
+public final class AsyncJobStatus {
+    private final String jobId;
+    private final String endpoint;
+    private final long inputSize;
+    private final long startTime;
+    private volatile int numberOfPings = 0;
+    private volatile long retryAfter;
+
+    /**
+     * Construct the status of a job that was just started.
+     * @param jobId Job ID.
+     * @param endpoint API endpoint that started the job.
+     * @param inputSize Estimated size (in bytes) of the input sent to the API (html, files, binary data) or 0 if unknown.
+     * @param retryAfter Delay (in milliseconds) suggested by the server before the first ping or -1 if not specified.
+     */
+    public AsyncJobStatus(String jobId, String endpoint, long inputSize, long retryAfter) {
+        this.jobId = jobId;
+        this.endpoint = endpoint;
+        this.inputSize = inputSize;
+        this.retryAfter = retryAfter;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Get the job ID.
+     * @return Job ID.
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Get the API endpoint that started the job. Jobs of different endpoints (conversions, merges, text extractions) take different times.
+     * @return API endpoint or null if unknown.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Get the estimated size of the input sent to the API (html, files, binary data).
+     * @return Input size in bytes or 0 if unknown.
+     */
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * Get the number of pings sent so far.
+     * @return Number of pings.
+     */
+    public int getNumberOfPings() {
+        return numberOfPings;
+    }
+
+    /**
+     * Get the time elapsed since the job was started.
+     * @return Elapsed time in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Get the delay suggested by the server in the last response (Retry-After header).
+     * @return Delay in milliseconds or -1 if the server did not suggest one.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    void pinged(ApiResult result) {
+        numberOfPings++;
+        retryAfter = result != null ? result.getRetryAfter() : -1;
+    }
+}
@@ -0,0 +1,25 @@
+package com.selectpdf;
+
+/**
+ * Decides when the next ping of an asynchronous job is sent and when the client gives up waiting.
+ *
+ * Implementations must be thread-safe: a single policy is shared by all jobs of a client (or of all clients, for the default policy).
+ * See {@link AdaptivePollingPolicy} (the default) and {@link FixedPollingPolicy}.
+ */
+public interface AsyncPollingPolicy {
+
+    /**
+     * Get the delay before the next ping of a job that is still running.
+     * @param status Status of the job: pings sent so far, elapsed time, server hints, input size.
+     * @return Delay in milliseconds or a negative value to give up waiting for the job.
+     */
+    long nextPingDelay(AsyncJobStatus status);
+
+    /**
+     * Called when a job finishes, so the policy can learn how long jobs take. The default implementation does nothing.
+     * @param status Final status of the job.
+     * @param result Result of the job (number of pages, content).
+     */
+    default void jobFinished(AsyncJobStatus status, ApiResult result) {
+    }
+}
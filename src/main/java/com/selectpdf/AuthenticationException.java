@@ -0,0 +1,12 @@
+package com.selectpdf;
+
+/**
+ * Exception thrown when the API rejects the API key (401 Unauthorized, 403 Forbidden). Retrying does not help.
+ */
+public class AuthenticationException extends ApiException {
+    private static final long serialVersionUID = 1L;
+
+    AuthenticationException(String message, int statusCode, String endpoint, String jobId, String errorBody, boolean stackTrace) {
+        super(message, null, statusCode, endpoint, jobId, errorBody, -1, false, stackTrace);
+    }
+}
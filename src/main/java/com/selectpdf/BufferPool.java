@@ -0,0 +1,61 @@
+package com.selectpdf;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of the byte arrays used to copy request and response bodies.
+ *
+ * A call borrows a buffer for the duration of a copy and returns it afterwards, so the hot path does not allocate a new buffer per call.
+ * At most a fixed number of idle buffers are retained; when the pool is empty a new buffer is allocated, and buffers returned to a full pool are dropped.
+ * Buffers handed over to a transport (see {@link RequestBody#openBuffers()}) leave the caller's control and must never come from the pool.
+ */
+final class BufferPool {
+    /**
+     * Size of the pooled buffers.
+     */
+    static final int BUFFER_SIZE = 16384;
+
+    /**
+     * Maximum number of idle buffers retained by the shared pool (1 MB).
+     */
+    private static final int MAX_IDLE_BUFFERS = 64;
+
+    private static final BufferPool SHARED = new BufferPool(MAX_IDLE_BUFFERS);
+
+    private final ArrayBlockingQueue<byte[]> idle;
+
+    /**
+     * Construct a pool.
+     * @param maxIdleBuffers Maximum number of idle buffers retained.
+     */
+    BufferPool(int maxIdleBuffers) {
+        this.idle = new ArrayBlockingQueue<byte[]>(maxIdleBuffers);
+    }
+
+    /**
+     * Get the pool shared by all clients.
+     * @return Shared pool.
+     */
+    static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Borrow a buffer of {@link #BUFFER_SIZE} bytes. Its content is undefined.
+     * @return Buffer.
+     */
+    byte[] acquire() {
+        byte[] buffer = idle.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Return a buffer to the pool. The buffer must not be used afterwards.
+     * @param buffer Buffer obtained from {@link #acquire()}.
+     */
+    void release(byte[] buffer) {
+        if (buffer != null && buffer.length == BUFFER_SIZE) {
+            idle.offer(buffer);
+        }
+    }
+}
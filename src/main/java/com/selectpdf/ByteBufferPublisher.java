@@ -0,0 +1,169 @@
+package com.selectpdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Publishes the buffers of a request body to java.net.http.HttpClient, honoring the subscriber demand.
+ * Buffers are pulled from the body only when requested, so large bodies are never fully loaded in memory.
+ */
+final class ByteBufferPublisher implements Flow.Publisher<ByteBuffer> {
+    private final RequestBody body;
+    private final Runnable progress;
+    private final AtomicReference<BufferSubscription> subscription = new AtomicReference<BufferSubscription>();
+    private volatile Throwable abortCause = null;
+
+    ByteBufferPublisher(RequestBody body) {
+        this(body, null);
+    }
+
+    /**
+     * Construct a publisher.
+     * @param body Request body.
+     * @param progress Called each time a buffer is handed to the connection. Can be null.
+     */
+    ByteBufferPublisher(RequestBody body, Runnable progress) {
+        this.body = body;
+        this.progress = progress;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (abortCause != null) {
+            reject(subscriber, abortCause);
+            return;
+        }
+        RequestBody.BufferSource source;
+        try {
+            source = body.openBuffers();
+        }
+        catch (IOException | RuntimeException ex) {
+            reject(subscriber, ex);
+            return;
+        }
+        BufferSubscription current = new BufferSubscription(subscriber, source, progress);
+        subscription.set(current);
+        subscriber.onSubscribe(current);
+        if (abortCause != null) current.abort(abortCause);
+    }
+
+    /**
+     * Abort the upload: the subscriber receives the error instead of the next buffer, which fails the exchange.
+     * Does nothing if the body was already fully sent.
+     * @param cause Error passed to the subscriber.
+     */
+    void abort(Throwable cause) {
+        abortCause = cause;
+        BufferSubscription current = subscription.get();
+        if (current != null) current.abort(cause);
+    }
+
+    private static void reject(Flow.Subscriber<? super ByteBuffer> subscriber, Throwable ex) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {}
+
+            @Override
+            public void cancel() {}
+        });
+        subscriber.onError(ex);
+    }
+
+    /**
+     * Subscription that emits buffers while there is outstanding demand.
+     */
+    private static final class BufferSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final RequestBody.BufferSource source;
+        private final Runnable progress;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean done = false;
+        private volatile Throwable aborted = null;
+
+        BufferSubscription(Flow.Subscriber<? super ByteBuffer> subscriber, RequestBody.BufferSource source, Runnable progress) {
+            this.subscriber = subscriber;
+            this.source = source;
+            this.progress = progress;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " buffers."));
+                return;
+            }
+            long current;
+            do {
+                current = demand.get();
+                if (current == Long.MAX_VALUE) break;
+            } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!done) {
+                done = true;
+                closeSource();
+            }
+        }
+
+        void abort(Throwable cause) {
+            aborted = cause;
+            drain();
+        }
+
+        private void drain() {
+            // only one thread emits at a time, reentrant calls just register more demand
+            if (wip.getAndIncrement() != 0) return;
+            int missed = 1;
+            while (true) {
+                if (!done && aborted != null) {
+                    fail(aborted);
+                    return;
+                }
+                while (!done && demand.get() > 0) {
+                    ByteBuffer buffer;
+                    try {
+                        buffer = source.next();
+                    }
+                    catch (IOException | RuntimeException ex) {
+                        fail(ex);
+                        return;
+                    }
+                    if (buffer == null) {
+                        done = true;
+                        closeSource();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    if (progress != null) progress.run();
+                    subscriber.onNext(buffer);
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+
+        private void fail(Throwable ex) {
+            if (!done) {
+                done = true;
+                closeSource();
+                subscriber.onError(ex);
+            }
+        }
+
+        private void closeSource() {
+            try {
+                source.close();
+            }
+            catch (IOException ex) {
+                // nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.selectpdf;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending calls to an endpoint that fails, so a degraded endpoint cannot hold up the threads of the whole application.
+ *
+ * Each endpoint has its own circuit. The outcomes of the recent calls (within a sliding time window) are recorded; when enough calls were made
+ * and too many of them failed or were slow, the circuit opens and the calls to the endpoint fail immediately with a {@link CircuitOpenException}.
+ * After a while the circuit lets a few probe calls through (half-open): if they succeed the circuit closes, otherwise it opens again.
+ *
+ * Only failures that point to the endpoint count: server errors, unavailable responses, network errors and stalled connections (read timeouts).
+ * Rejected parameters, invalid API keys, conversion errors and rate limiting are answers of a healthy endpoint. A call stopped by its own deadline
+ * (see {@link ApiClient#setCallTimeout(long)}) does not count as a failure, otherwise a caller with short deadlines could open the circuit for all the clients;
+ * it counts as a slow call if it ran longer than the slow call duration.
+ *
+ * Set the same circuit breaker on all clients (or set it as the default circuit breaker) so all the clients share the circuits of the endpoints.
+ * By default, circuits never open.
+ * The latency of a call is the time until the response headers are received, so downloading a large result does not make a call slow.
+ */
+public final class CircuitBreaker {
+    /**
+     * Number of buckets of the sliding window.
+     */
+    private static final int BUCKETS = 10;
+
+    private static final CircuitBreaker DISABLED = new CircuitBreaker(false, 1, 0, 1, 1, BUCKETS, 1, 1);
+    private static volatile CircuitBreaker defaultBreaker = null;
+
+    /**
+     * State of the circuit of an endpoint.
+     */
+    public enum State {
+        /**
+         * Calls are sent normally.
+         */
+        CLOSED,
+        /**
+         * Calls fail immediately.
+         */
+        OPEN,
+        /**
+         * A few probe calls are sent to check if the endpoint recovered, the other calls fail immediately.
+         */
+        HALF_OPEN
+    }
+
+    private final boolean enabled;
+    private final double failureRateThreshold;
+    private final long slowCallDuration;
+    private final double slowCallRateThreshold;
+    private final int minimumCalls;
+    private final long bucketNanos;
+    private final long openDuration;
+    private final int halfOpenCalls;
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+    /**
+     * Construct a circuit breaker with the default settings: the circuit opens when at least 10 calls were made in the last 30 seconds and
+     * half of them failed or 80% of them took longer than 45 seconds; it stays open for 15 seconds, then 3 successful probe calls close it.
+     */
+    public CircuitBreaker() {
+        this(0.5, 45000, 0.8, 10, 30000, 15000, 3);
+    }
+
+    /**
+     * Construct a circuit breaker.
+     * @param failureRateThreshold Fraction of failed calls (between 0 and 1) that opens the circuit.
+     * @param slowCallDuration Duration (in milliseconds) from which a call is slow. Set 0 to ignore the latency.
+     * @param slowCallRateThreshold Fraction of slow calls (between 0 and 1) that opens the circuit.
+     * @param minimumCalls Minimum number of calls in the window before the circuit can open.
+     * @param window Duration (in milliseconds) of the sliding window of recorded calls.
+     * @param openDuration Time (in milliseconds) the circuit stays open before probe calls are let through.
+     * @param halfOpenCalls Number of probe calls that must succeed to close the circuit.
+     */
+    public CircuitBreaker(double failureRateThreshold, long slowCallDuration, double slowCallRateThreshold, int minimumCalls, long window, long openDuration, int halfOpenCalls) {
+        this(true, failureRateThreshold, slowCallDuration, slowCallRateThreshold, minimumCalls, window, openDuration, halfOpenCalls);
+    }
+
+    private CircuitBreaker(boolean enabled, double failureRateThreshold, long slowCallDuration, double slowCallRateThreshold, int minimumCalls, long window, long openDuration, int halfOpenCalls) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1 || slowCallDuration < 0 || slowCallRateThreshold <= 0 || slowCallRateThreshold > 1
+                || minimumCalls < 1 || window < BUCKETS || openDuration <= 0 || halfOpenCalls < 1) {
+            throw new ApiException("Invalid circuit breaker settings.");
+        }
+        this.enabled = enabled;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.bucketNanos = TimeUnit.MILLISECONDS.toNanos(window) / BUCKETS;
+        this.openDuration = openDuration;
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * Get a circuit breaker that never opens.
+     * @return Disabled circuit breaker.
+     */
+    public static CircuitBreaker disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Get the circuit breaker shared by all clients that do not have their own circuit breaker set. By default, circuits never open.
+     * @return Default circuit breaker.
+     */
+    public static CircuitBreaker getDefault() {
+        CircuitBreaker result = defaultBreaker;
+        return result != null ? result : DISABLED;
+    }
+
+    /**
+     * Set the circuit breaker shared by all clients that do not have their own circuit breaker set.
+     * @param breaker Default circuit breaker (for example new CircuitBreaker()). Set null to stop using a circuit breaker.
+     */
+    public static void setDefault(CircuitBreaker breaker) {
+        defaultBreaker = breaker;
+    }
+
+    /**
+     * Get the state of the circuit of an endpoint.
+     * @param endpoint Endpoint.
+     * @return State of the circuit.
+     */
+    public State getState(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        return circuit != null ? circuit.getState(System.nanoTime()) : State.CLOSED;
+    }
+
+    /**
+     * Ask the permission to send a call to an endpoint.
+     * @param endpoint Endpoint.
+     * @return Handle that records the outcome of the call. It must be finished exactly once.
+     * @throws CircuitOpenException if the circuit is open.
+     */
+    Call acquire(String endpoint) {
+        if (!enabled) return new Call(null, false, 0);
+        Circuit circuit = circuits.computeIfAbsent(endpoint, key -> new Circuit(key));
+        long now = System.nanoTime();
+        return new Call(circuit, circuit.acquire(now), now);
+    }
+
+    /**
+     * Permission to send a call, that records the outcome of the call.
+     */
+    final class Call {
+        private final Circuit circuit;
+        private final boolean probe;
+        private final long startTime;
+
+        Call(Circuit circuit, boolean probe, long startTime) {
+            this.circuit = circuit;
+            this.probe = probe;
+            this.startTime = startTime;
+        }
+
+        /**
+         * Record a successful call.
+         * @param latency Time (in milliseconds) until the response headers were received.
+         */
+        void succeeded(long latency) {
+            if (circuit == null) return;
+            circuit.record(System.nanoTime(), probe, false, slowCallDuration > 0 && latency >= slowCallDuration, false);
+        }
+
+        /**
+         * Record a failed call.
+         * @param failure Exception thrown by the call.
+         */
+        void failed(Throwable failure) {
+            if (circuit == null) return;
+            long now = System.nanoTime();
+            RetryPolicy.FailureKind kind = RetryPolicy.classify(failure);
+            boolean slow = slowCallDuration > 0 && TimeUnit.NANOSECONDS.toMillis(now - startTime) >= slowCallDuration;
+            if (kind == null) {
+                // cancelled or interrupted, the endpoint did not answer for itself
+                circuit.record(now, probe, false, false, true);
+            }
+            else if (isDeadlineExpired(failure)) {
+                // the caller gave up: only the time the endpoint took counts
+                circuit.record(now, probe, false, slow, !slow);
+            }
+            else {
+                boolean endpointFailure = kind != RetryPolicy.FailureKind.CLIENT_ERROR && kind != RetryPolicy.FailureKind.RATE_LIMITED;
+                circuit.record(now, probe, endpointFailure, slow, false);
+            }
+        }
+    }
+
+    private static boolean isDeadlineExpired(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof ApiTimeoutException && ((ApiTimeoutException)cause).isDeadlineExpired();
+    }
+
+    /**
+     * Circuit of an endpoint: state and calls recorded in the sliding window.
+     */
+    private final class Circuit {
+        private final String endpoint;
+        private final long[] epochs = new long[BUCKETS];
+        private final int[] calls = new int[BUCKETS];
+        private final int[] failures = new int[BUCKETS];
+        private final int[] slowCalls = new int[BUCKETS];
+        private State state = State.CLOSED;
+        private long openedAt = 0;
+        private int probes = 0;
+        private int probeSuccesses = 0;
+
+        Circuit(String endpoint) {
+            this.endpoint = endpoint;
+            Arrays.fill(epochs, Long.MIN_VALUE);
+        }
+
+        synchronized State getState(long now) {
+            if (state == State.OPEN && now - openedAt >= TimeUnit.MILLISECONDS.toNanos(openDuration)) {
+                return State.HALF_OPEN;
+            }
+            return state;
+        }
+
+        /**
+         * Let a call through or reject it.
+         * @return True if the call is a probe call of a half-open circuit.
+         */
+        synchronized boolean acquire(long now) {
+            if (state == State.OPEN) {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(openDuration) - (now - openedAt);
+                if (remaining > 0) {
+                    throw new CircuitOpenException(endpoint, TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                }
+                state = State.HALF_OPEN;
+                probes = 0;
+                probeSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probes >= halfOpenCalls) {
+                    // wait for the probes in flight
+                    throw new CircuitOpenException(endpoint, -1);
+                }
+                probes++;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void record(long now, boolean probe, boolean failed, boolean slow, boolean ignored) {
+            if (probe && state == State.HALF_OPEN) {
+                if (ignored) {
+                    // give the probe back
+                    probes--;
+                }
+                else if (failed || slow) {
+                    open(now);
+                }
+                else if (++probeSuccesses >= halfOpenCalls) {
+                    state = State.CLOSED;
+                    Arrays.fill(epochs, Long.MIN_VALUE);
+                }
+                return;
+            }
+            if (ignored) return;
+
+            long epoch = now / bucketNanos;
+            int index = (int)Math.floorMod(epoch, (long)BUCKETS);
+            if (epochs[index] != epoch) {
+                epochs[index] = epoch;
+                calls[index] = 0;
+                failures[index] = 0;
+                slowCalls[index] = 0;
+            }
+            calls[index]++;
+            if (failed) failures[index]++;
+            if (slow) slowCalls[index]++;
+
+            if (state == State.CLOSED && (failed || slow)) {
+                int totalCalls = 0, totalFailures = 0, totalSlowCalls = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    if (epochs[i] > epoch - BUCKETS) {
+                        totalCalls += calls[i];
+                        totalFailures += failures[i];
+                        totalSlowCalls += slowCalls[i];
+                    }
+                }
+                if (totalCalls >= minimumCalls
+                        && (totalFailures >= failureRateThreshold * totalCalls || totalSlowCalls >= slowCallRateThreshold * totalCalls)) {
+                    open(now);
+                }
+            }
+        }
+
+        private void open(long now) {
+            state = State.OPEN;
+            openedAt = now;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.selectpdf;
+
+/**
+ * Exception thrown without sending the call when the circuit breaker of the endpoint is open: the endpoint failed too often recently (see {@link CircuitBreaker}).
+ * The call can be tried again after {@link #getRetryAfter()}.
+ */
+public class CircuitOpenException extends ApiException {
+    private static final long serialVersionUID = 1L;
+
+    CircuitOpenException(String endpoint, long retryAfter) {
+        super("The circuit breaker of " + endpoint + " is open: the endpoint failed too often recently. The call was not sent.",
+            null, 0, endpoint, null, null, retryAfter, true, false);
+    }
+}
@@ -0,0 +1,454 @@
+package com.selectpdf;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of calls in flight to each endpoint, adapting the limit to what the service can handle at the moment.
+ *
+ * Calls sent beyond the capacity of the service do not finish sooner: they queue inside the service and all the calls get slower.
+ * The limiter compares the recent latency of the calls with a baseline, the latency of the service without queueing.
+ * While the latency stays close to the baseline, the limit grows; when the latency rises above the baseline (calls queue inside the service)
+ * the limit shrinks in proportion, and it is reduced by 10% when calls time out or the service answers 503 Service Unavailable.
+ * The limit moves by about one step for each window of calls in flight, so it follows the service without oscillating.
+ *
+ * The baseline is measured after the first calls and then every 100 windows of calls: the limit is lowered to 4 calls in flight
+ * until the calls queued inside the service drained and 10 calls were made. In between, the baseline follows the lowest recent latency,
+ * and rises only while the calls in flight stay well below the limit, so queueing caused by the limit itself cannot raise it.
+ * Calls beyond the limit wait in the client, in order, for a call in flight to finish.
+ *
+ * Each endpoint has its own limit. The latency of a call is the time until the response headers are received, so downloading a large result does not count.
+ * It includes the time the service spends on the conversion, so the limiter works best when the calls to an endpoint convert similar documents.
+ * The limit and the latencies of each endpoint are available with {@link #getMetrics()}.
+ *
+ * Set the same limiter on all clients (or set it as the default limiter) so all the clients share the limits of the endpoints.
+ * By default, calls are not limited.
+ */
+public final class ConcurrencyLimiter {
+    private static final ConcurrencyLimiter DISABLED = new ConcurrencyLimiter(false, 1, 1, 1, 1);
+    private static volatile ConcurrencyLimiter defaultLimiter = null;
+
+    /**
+     * Weight of a sample in the recent latency (about the last 10 calls).
+     */
+    private static final double RECENT_WEIGHT = 0.1;
+
+    /**
+     * Weight of a sample in the baseline latency when it rises (about the last 100 calls sent below the limit).
+     */
+    private static final double BASELINE_WEIGHT = 0.01;
+
+    /**
+     * Calls added above the estimated capacity, so the limit keeps probing for more capacity.
+     */
+    private static final int QUEUE_SIZE = 4;
+
+    /**
+     * Calls in flight while the baseline latency is measured again.
+     */
+    private static final int PROBE_LIMIT = 4;
+
+    /**
+     * Calls averaged into the baseline latency when it is measured again.
+     */
+    private static final int PROBE_SAMPLES = 10;
+
+    /**
+     * Windows of calls (the limit of the endpoint) between two measurements of the baseline latency.
+     */
+    private static final int PROBE_INTERVAL = 100;
+
+    private final boolean enabled;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final ConcurrentHashMap<String, Limit> limits = new ConcurrentHashMap<String, Limit>();
+
+    /**
+     * Construct a limiter with the default settings: 20 calls in flight per endpoint at first, between 1 and 200 afterwards,
+     * and the limit shrinks when the recent latency is more than 1.5 times the baseline.
+     */
+    public ConcurrencyLimiter() {
+        this(20, 1, 200, 1.5);
+    }
+
+    /**
+     * Construct a limiter.
+     * @param initialLimit Number of calls in flight allowed to an endpoint before its latency is known.
+     * @param minLimit Minimum number of calls in flight allowed to an endpoint.
+     * @param maxLimit Maximum number of calls in flight allowed to an endpoint.
+     * @param tolerance Ratio of the recent latency to the baseline latency (at least 1) from which the limit shrinks.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this(true, initialLimit, minLimit, maxLimit, tolerance);
+    }
+
+    private ConcurrencyLimiter(boolean enabled, int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit || !(tolerance >= 1)) {
+            throw new ApiException("Invalid concurrency limiter settings.");
+        }
+        this.enabled = enabled;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Get a limiter that does not limit the calls in flight.
+     * @return Disabled limiter.
+     */
+    public static ConcurrencyLimiter disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Get the limiter shared by all clients that do not have their own limiter set. By default, calls are not limited.
+     * @return Default concurrency limiter.
+     */
+    public static ConcurrencyLimiter getDefault() {
+        ConcurrencyLimiter result = defaultLimiter;
+        return result != null ? result : DISABLED;
+    }
+
+    /**
+     * Set the limiter shared by all clients that do not have their own limiter set.
+     * @param limiter Default concurrency limiter (for example new ConcurrencyLimiter()). Set null to stop limiting the calls.
+     */
+    public static void setDefault(ConcurrencyLimiter limiter) {
+        defaultLimiter = limiter;
+    }
+
+    /**
+     * Get the limit and the latencies of an endpoint.
+     * @param endpoint Endpoint.
+     * @return Metrics of the endpoint.
+     */
+    public Metrics getMetrics(String endpoint) {
+        if (!enabled) return new Metrics(Integer.MAX_VALUE, 0, 0, -1, -1, 0);
+        Limit limit = limits.get(endpoint);
+        return limit != null ? limit.getMetrics() : new Metrics(initialLimit, 0, 0, -1, -1, 0);
+    }
+
+    /**
+     * Get the limits and the latencies of all the endpoints called through this limiter.
+     * @return Metrics of each endpoint, by endpoint.
+     */
+    public Map<String, Metrics> getMetrics() {
+        Map<String, Metrics> result = new TreeMap<String, Metrics>();
+        for (Map.Entry<String, Limit> entry : limits.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getMetrics());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Wait until a call to an endpoint can be sent.
+     * @param endpoint Endpoint.
+     * @param timeout Maximum wait in milliseconds, or -1 for no limit.
+     * @return Permit that records the outcome of the call. It must be finished exactly once.
+     * @throws TimeoutException if no call in flight finished within the timeout. Nothing is reserved then.
+     * @throws InterruptedException if the thread was interrupted while waiting. Nothing is reserved then.
+     */
+    Permit acquire(String endpoint, long timeout) throws InterruptedException, TimeoutException {
+        CompletableFuture<Permit> permit = acquireAsync(endpoint);
+        try {
+            return timeout >= 0 ? permit.get(timeout, TimeUnit.MILLISECONDS) : permit.get();
+        }
+        catch (InterruptedException ex) {
+            // the permit may have been granted in the meantime
+            if (!permit.cancel(false)) permit.join().release();
+            throw ex;
+        }
+        catch (TimeoutException ex) {
+            if (!permit.cancel(false)) return permit.join();
+            throw ex;
+        }
+        catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Wait without blocking until a call to an endpoint can be sent.
+     * @param endpoint Endpoint.
+     * @return Future permit. Cancelling the future gives up the place in the queue.
+     */
+    CompletableFuture<Permit> acquireAsync(String endpoint) {
+        if (!enabled) return CompletableFuture.completedFuture(new Permit(null, 0));
+        return limits.computeIfAbsent(endpoint, key -> new Limit()).acquireAsync();
+    }
+
+    /**
+     * Snapshot of the limit and the latencies of an endpoint.
+     */
+    public static final class Metrics {
+        private final int limit;
+        private final int inFlight;
+        private final int waiting;
+        private final long latency;
+        private final long baselineLatency;
+        private final long drops;
+
+        Metrics(int limit, int inFlight, int waiting, long latency, long baselineLatency, long drops) {
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.waiting = waiting;
+            this.latency = latency;
+            this.baselineLatency = baselineLatency;
+            this.drops = drops;
+        }
+
+        /**
+         * Get the number of calls allowed in flight.
+         * @return Current limit.
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * Get the number of calls in flight.
+         * @return Calls sent and not finished.
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * Get the number of calls waiting in the client for a call in flight to finish.
+         * @return Calls waiting.
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * Get the average latency of the recent calls.
+         * @return Latency in milliseconds, or -1 if no call finished yet.
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * Get the long-term average latency the recent latency is compared with.
+         * @return Latency in milliseconds, or -1 if no call finished yet.
+         */
+        public long getBaselineLatency() {
+            return baselineLatency;
+        }
+
+        /**
+         * Get the number of times the limit was reduced because calls timed out or the service was unavailable.
+         * @return Number of reductions.
+         */
+        public long getDrops() {
+            return drops;
+        }
+
+        @Override
+        public String toString() {
+            return "limit=" + limit + ", inFlight=" + inFlight + ", waiting=" + waiting + ", latency=" + latency + "ms, baselineLatency=" + baselineLatency + "ms, drops=" + drops;
+        }
+    }
+
+    /**
+     * Permission to send a call, that records the outcome of the call.
+     */
+    final class Permit {
+        private final Limit limit;
+        private final int inFlight;
+        private final long startTime = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        Permit(Limit limit, int inFlight) {
+            this.limit = limit;
+            this.inFlight = inFlight;
+        }
+
+        /**
+         * Record a successful call.
+         * @param latency Time (in milliseconds) until the response headers were received.
+         */
+        void succeeded(long latency) {
+            if (limit != null && finished.compareAndSet(false, true)) {
+                limit.release(this, latency, false);
+            }
+        }
+
+        /**
+         * Record a failed call. Timeouts and unavailable responses reduce the limit, the other failures only free the place of the call.
+         * @param failure Exception thrown by the call.
+         */
+        void failed(Throwable failure) {
+            if (limit != null && finished.compareAndSet(false, true)) {
+                RetryPolicy.FailureKind kind = RetryPolicy.classify(failure);
+                limit.release(this, -1, kind == RetryPolicy.FailureKind.TIMEOUT || kind == RetryPolicy.FailureKind.UNAVAILABLE);
+            }
+        }
+
+        /**
+         * Free the place of a call that was not sent.
+         */
+        void release() {
+            if (limit != null && finished.compareAndSet(false, true)) {
+                limit.release(this, -1, false);
+            }
+        }
+    }
+
+    /**
+     * Limit of an endpoint: calls in flight, calls waiting and latencies.
+     */
+    private final class Limit {
+        private final ArrayDeque<CompletableFuture<Permit>> waiters = new ArrayDeque<CompletableFuture<Permit>>();
+        private double limit = initialLimit;
+        private int inFlight = 0;
+        private double latency = -1;
+        private double baselineLatency = -1;
+        private long lastDrop = System.nanoTime();
+        private long drops = 0;
+        private long samples = 0;
+        private long probeAfter = initialLimit;
+        private boolean probing = false;
+        private long probeStart = 0;
+        private double probeLatency = 0;
+        private int probeSamples = 0;
+        private double restoreLimit = 0;
+
+        synchronized Metrics getMetrics() {
+            int waiting = 0;
+            for (CompletableFuture<Permit> waiter : waiters) {
+                if (!waiter.isDone()) waiting++;
+            }
+            return new Metrics((int)limit, inFlight, waiting, Math.round(latency), Math.round(baselineLatency), drops);
+        }
+
+        CompletableFuture<Permit> acquireAsync() {
+            CompletableFuture<Permit> permit = new CompletableFuture<Permit>();
+            Permit granted;
+            synchronized (this) {
+                if (inFlight >= (int)limit || !waiters.isEmpty()) {
+                    waiters.add(permit);
+                    granted = null;
+                }
+                else {
+                    granted = new Permit(this, ++inFlight);
+                }
+            }
+            if (granted != null) {
+                permit.complete(granted);
+            }
+            else {
+                // the waiters ahead may have given up
+                grant();
+            }
+            return permit;
+        }
+
+        void release(Permit permit, long sample, boolean dropped) {
+            synchronized (this) {
+                inFlight--;
+                if (dropped) {
+                    // the calls sent before the last reduction saw the old limit, they do not reduce it again
+                    if (permit.startTime - lastDrop > 0) {
+                        if (probing) {
+                            restoreLimit = Math.max(minLimit, restoreLimit * 0.9);
+                        }
+                        else {
+                            limit = Math.max(minLimit, limit * 0.9);
+                        }
+                        lastDrop = System.nanoTime();
+                        drops++;
+                    }
+                }
+                else if (sample >= 0) {
+                    update(Math.max(1, sample), permit);
+                }
+            }
+            grant();
+        }
+
+        /**
+         * Update the latencies with a sample and move the limit towards the capacity estimated from them.
+         */
+        private void update(double sample, Permit permit) {
+            if (probing) {
+                // only the calls sent after the queue drained measure the latency without queueing
+                if (permit.startTime - probeStart <= 0) return;
+                probeLatency += sample;
+                if (++probeSamples >= PROBE_SAMPLES) {
+                    latency = baselineLatency = probeLatency / probeSamples;
+                    limit = restoreLimit;
+                    probing = false;
+                    samples = 0;
+                    probeAfter = (long)(PROBE_INTERVAL * limit);
+                }
+                return;
+            }
+
+            if (latency < 0) {
+                latency = baselineLatency = sample;
+            }
+            latency += (sample - latency) * RECENT_WEIGHT;
+            boolean belowLimit = permit.inFlight < limit / 2;
+            if (latency < baselineLatency) {
+                baselineLatency = latency;
+            }
+            else if (belowLimit) {
+                // the calls did not queue behind each other, the service itself got slower
+                baselineLatency += (latency - baselineLatency) * BASELINE_WEIGHT;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1, tolerance * baselineLatency / latency));
+            double estimate = limit * gradient + QUEUE_SIZE;
+            if (belowLimit) {
+                // the limit was not reached, the latency says nothing about more calls
+                estimate = Math.min(estimate, limit);
+            }
+            // each call in flight moves the limit by a fraction of the step
+            limit = Math.max(minLimit, Math.min(maxLimit, limit + (estimate - limit) / limit));
+
+            if (++samples >= probeAfter) {
+                probing = true;
+                probeStart = System.nanoTime();
+                probeLatency = 0;
+                probeSamples = 0;
+                restoreLimit = limit;
+                limit = Math.min(limit, Math.max(minLimit, PROBE_LIMIT));
+            }
+        }
+
+        /**
+         * Hand the free places over to the waiting calls, in order (completed outside the lock).
+         */
+        private void grant() {
+            while (true) {
+                CompletableFuture<Permit> waiter;
+                Permit granted;
+                synchronized (this) {
+                    if (inFlight >= (int)limit) return;
+                    waiter = waiters.poll();
+                    if (waiter == null) return;
+                    granted = new Permit(this, ++inFlight);
+                }
+                if (!waiter.complete(granted)) {
+                    // the waiter gave up
+                    synchronized (this) {
+                        inFlight--;
+                    }
+                }
+            }
+        }
+    }
+}
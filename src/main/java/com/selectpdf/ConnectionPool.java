@@ -0,0 +1,428 @@
+package com.selectpdf;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.*;
+
+/**
+ * Connections shared by the HTTP transports: maximum connections per endpoint, idle eviction and TLS session resumption.
+ *
+ * A single pool (see {@link #getDefault()}) is shared by all clients that use the default transports, so connections opened by one client
+ * (including the pings of asynchronous jobs) are reused by the others. The pool owns the HttpClient of the transports created from it.
+ * All connections share one SSLContext, so new connections to an endpoint resume the TLS session instead of doing a full handshake.
+ *
+ * The pool limits connections, not requests. Each API endpoint (such as the conversion endpoint or the asynchronous job endpoint) has its own slots,
+ * so pings are never queued behind long conversions. An HTTP/1.1 request holds a connection until its response is closed, so it holds a slot as long.
+ * Once a host answers over HTTP/2, its requests are multiplexed over a shared connection and are not limited anymore.
+ * A transport never uses more slots than the JDK keeps alive: {@link UrlConnectionTransport} is limited by http.maxConnections
+ * (idle HttpURLConnection connections kept per host, 5 by default) and {@link JavaHttpClientTransport} by jdk.httpclient.connectionPoolSize when it is set.
+ * Raise these system properties on the command line to use more connections per endpoint.
+ *
+ * When no request used the pool for the idle timeout, its connections are evicted, before a load balancer or the server drops them silently:
+ * the HttpClient is retired (closed on JDK 21 and later, left to be collected before that) and a new one is built for the next request,
+ * and HTTPS connections of HttpURLConnection get a new socket factory, so the idle ones are not reused and are closed by the JDK keep-alive cache.
+ */
+public class ConnectionPool {
+    private static volatile ConnectionPool defaultPool = null;
+
+    private final int maxConnectionsPerEndpoint;
+    private final int idleTimeout;
+    private final SSLContext sslContext;
+    private volatile SSLSocketFactory sslSocketFactory;
+    private final ConcurrentHashMap<String, Slots> endpoints = new ConcurrentHashMap<String, Slots>();
+    private final Set<String> multiplexedHosts = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile long idleSince = System.nanoTime();
+    // guarded by this
+    private HttpClient httpClient = null;
+    private TimingWheel.Timeout evictionTimeout = null;
+
+    /**
+     * Construct a pool with the default settings: 32 connections per endpoint and 60 seconds idle timeout.
+     */
+    public ConnectionPool() {
+        this(32, 60);
+    }
+
+    /**
+     * Construct a pool with 60 seconds idle timeout.
+     * @param maxConnectionsPerEndpoint Maximum number of HTTP/1.1 connections per endpoint (scheme, host, port and path).
+     * With HTTP/1.1 each request needs its own connection; with HTTP/2 requests are multiplexed over a shared connection and are not limited.
+     */
+    public ConnectionPool(int maxConnectionsPerEndpoint) {
+        this(maxConnectionsPerEndpoint, 60);
+    }
+
+    /**
+     * Construct a connection pool.
+     * @param maxConnectionsPerEndpoint Maximum number of HTTP/1.1 connections per endpoint (scheme, host, port and path).
+     * With HTTP/1.1 each request needs its own connection; with HTTP/2 requests are multiplexed over a shared connection and are not limited.
+     * @param idleTimeout Number of seconds without requests after which the connections are evicted. Set 0 to keep them as long as the JDK does.
+     */
+    public ConnectionPool(int maxConnectionsPerEndpoint, int idleTimeout) {
+        if (maxConnectionsPerEndpoint <= 0) {
+            throw new ApiException("Maximum number of connections per endpoint must be positive.");
+        }
+        if (idleTimeout < 0) {
+            throw new ApiException("Idle timeout must not be negative.");
+        }
+        this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+        this.idleTimeout = idleTimeout;
+
+        try {
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+        }
+        catch (GeneralSecurityException ex) {
+            throw new ApiException(ex);
+        }
+
+        // keep TLS sessions for resumption
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        sessionContext.setSessionCacheSize(1000);
+        sessionContext.setSessionTimeout(24 * 3600);
+        sslSocketFactory = sslContext.getSocketFactory();
+    }
+
+    /**
+     * Get the pool shared by the default transports.
+     * @return Default connection pool.
+     */
+    public static ConnectionPool getDefault() {
+        ConnectionPool result = defaultPool;
+        if (result == null) {
+            synchronized (ConnectionPool.class) {
+                result = defaultPool;
+                if (result == null) {
+                    result = defaultPool = new ConnectionPool();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set the pool used by transports created afterwards with their default constructors.
+     * Call this at startup, before the first request is sent.
+     * @param pool Default connection pool.
+     */
+    public static void setDefault(ConnectionPool pool) {
+        defaultPool = pool;
+    }
+
+    /**
+     * Get the maximum number of HTTP/1.1 connections per endpoint.
+     * @return Maximum connections per endpoint.
+     */
+    public int getMaxConnectionsPerEndpoint() {
+        return maxConnectionsPerEndpoint;
+    }
+
+    /**
+     * Get the number of seconds without requests after which the connections are evicted.
+     * @return Idle timeout in seconds, 0 if connections are not evicted.
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Get the HttpClient owned by the pool, shared by the transports created from the pool.
+     * After the connections were evicted, a new client is built.
+     * @return HTTP/2 enabled HttpClient.
+     */
+    public synchronized HttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMinutes(10))
+                .sslContext(sslContext)
+                .build();
+        }
+        return httpClient;
+    }
+
+    /**
+     * Get the SSLContext shared by all connections.
+     * @return Shared SSLContext.
+     */
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Get the socket factory shared by all HTTPS connections. Using the same factory lets the JDK reuse the cached connections.
+     * The factory is replaced when the connections are evicted.
+     * @return Shared SSL socket factory.
+     */
+    public SSLSocketFactory getSslSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    /**
+     * Get the number of requests that can still be started to the endpoint of the specified url without waiting.
+     * @param url Url on the endpoint.
+     * @return Available connections. Integer.MAX_VALUE if the host speaks HTTP/2.
+     */
+    public int getAvailableConnections(String url) {
+        return slots(url, maxConnectionsPerEndpoint).available();
+    }
+
+    /**
+     * Get the number of connections per endpoint a transport can use, so that all of them are kept alive by the JDK connection cache.
+     * @param keepAliveCapacity Number of idle connections the JDK cache keeps, or 0 if it is not limited.
+     * @return Connections per endpoint.
+     */
+    int connectionsPerEndpoint(int keepAliveCapacity) {
+        return keepAliveCapacity > 0 ? Math.min(maxConnectionsPerEndpoint, keepAliveCapacity) : maxConnectionsPerEndpoint;
+    }
+
+    /**
+     * Wait for a free connection slot to the endpoint of the specified url, at most the specified time.
+     * @param url Request url.
+     * @param maxConnections Number of connections per endpoint of the transport (see {@link #connectionsPerEndpoint(int)}).
+     * @param timeout Maximum wait in milliseconds or 0 to wait without limit.
+     * @return The slot, that must be released when the response is closed.
+     * @throws HttpConnectTimeoutException If no slot was freed in time (the request was not sent, like when the connect times out).
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    Lease acquire(String url, int maxConnections, long timeout) throws IOException {
+        CompletableFuture<Lease> lease = acquireAsync(url, maxConnections);
+        try {
+            return timeout > 0 ? lease.get(timeout, TimeUnit.MILLISECONDS) : lease.get();
+        }
+        catch (InterruptedException ex) {
+            // the slot may have been granted in the meantime
+            if (!lease.cancel(false)) lease.join().release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + url + ".");
+        }
+        catch (TimeoutException ex) {
+            if (!lease.cancel(false)) return lease.join();
+            throw new HttpConnectTimeoutException("Timed out waiting for a connection to " + url + ".");
+        }
+        catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Get a connection slot to the endpoint of the specified url without blocking: the future completes when a slot is released.
+     * No thread waits for the slot. Cancelling the future gives up the place in the queue.
+     * @param url Request url.
+     * @param maxConnections Number of connections per endpoint of the transport (see {@link #connectionsPerEndpoint(int)}).
+     * @return Future slot, that must be released when the response is closed.
+     */
+    CompletableFuture<Lease> acquireAsync(String url, int maxConnections) {
+        return slots(url, maxConnections).acquireAsync();
+    }
+
+    /**
+     * Record a use of the connections that takes no slot, like a warm-up, so they are not evicted meanwhile.
+     * @return Lease to release when done.
+     */
+    Lease use() {
+        return new Lease(this, null);
+    }
+
+    private void requestStarted() {
+        activeRequests.incrementAndGet();
+    }
+
+    private void requestFinished() {
+        if (activeRequests.decrementAndGet() == 0 && idleTimeout > 0) {
+            idleSince = System.nanoTime();
+            scheduleEviction(TimeUnit.SECONDS.toMillis(idleTimeout));
+        }
+    }
+
+    private synchronized void scheduleEviction(long delay) {
+        if (evictionTimeout != null) evictionTimeout.cancel();
+        evictionTimeout = DeadlineTimer.schedule(this::evictIfIdle, delay);
+    }
+
+    /**
+     * Evict the connections if no request used them for the idle timeout.
+     */
+    private void evictIfIdle() {
+        HttpClient retired;
+        synchronized (this) {
+            // a request in flight schedules the eviction again when it finishes
+            if (activeRequests.get() > 0) return;
+            long remaining = TimeUnit.SECONDS.toMillis(idleTimeout) - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idleSince);
+            if (remaining > 0) {
+                scheduleEviction(remaining);
+                return;
+            }
+            evictionTimeout = null;
+            retired = httpClient;
+            httpClient = null;
+            // the keep-alive cache of HttpURLConnection reuses a connection only with the socket factory it was opened with
+            sslSocketFactory = sslContext.getSocketFactory();
+        }
+        if (retired instanceof AutoCloseable) {
+            // JDK 21+: close the connections now; requests still reading a response finish first
+            try {
+                ((AutoCloseable)retired).close();
+            }
+            catch (Exception ignored) {}
+        }
+    }
+
+    /**
+     * Record that the host of the specified url answered over HTTP/2: its requests share a multiplexed connection, so they are not limited anymore
+     * and the requests waiting for a slot are started.
+     * @param url Request url.
+     */
+    void multiplexed(String url) {
+        String host = hostKey(URI.create(url));
+        if (multiplexedHosts.add(host)) {
+            for (Map.Entry<String, Slots> endpoint : endpoints.entrySet()) {
+                if (endpoint.getKey().startsWith(host + "/")) endpoint.getValue().multiplex();
+            }
+        }
+    }
+
+    private Slots slots(String url, int maxConnections) {
+        URI uri = URI.create(url);
+        String host = hostKey(uri);
+        Slots slots = endpoints.computeIfAbsent(host + uri.getRawPath() + "#" + maxConnections, key -> new Slots(this, maxConnections));
+        // the host may have been found to speak HTTP/2 while these slots were created
+        if (multiplexedHosts.contains(host)) slots.multiplex();
+        return slots;
+    }
+
+    private static String hostKey(URI uri) {
+        int port = uri.getPort();
+        if (port == -1) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getScheme() + "://" + uri.getHost() + ":" + port;
+    }
+
+    /**
+     * Connection slots to an endpoint, with a FIFO queue of the requests waiting for a slot.
+     * Once the host is multiplexed, slots are handed out without limit.
+     */
+    static final class Slots {
+        private final ConnectionPool pool;
+        private final ArrayDeque<CompletableFuture<Lease>> waiters = new ArrayDeque<CompletableFuture<Lease>>();
+        private int available;
+        private volatile boolean multiplexed = false;
+
+        Slots(ConnectionPool pool, int available) {
+            this.pool = pool;
+            this.available = available;
+        }
+
+        synchronized int available() {
+            return multiplexed ? Integer.MAX_VALUE : available;
+        }
+
+        void multiplex() {
+            if (multiplexed) return;
+            List<CompletableFuture<Lease>> waiting;
+            synchronized (this) {
+                multiplexed = true;
+                waiting = new ArrayList<CompletableFuture<Lease>>(waiters);
+                waiters.clear();
+            }
+            for (CompletableFuture<Lease> waiter : waiting) {
+                Lease lease = new Lease(pool, null);
+                if (!waiter.complete(lease)) lease.abandon();
+            }
+        }
+
+        CompletableFuture<Lease> acquireAsync() {
+            if (multiplexed) {
+                return CompletableFuture.completedFuture(new Lease(pool, null));
+            }
+            CompletableFuture<Lease> lease = new CompletableFuture<Lease>();
+            synchronized (this) {
+                if (multiplexed) {
+                    lease.complete(new Lease(pool, null));
+                    return lease;
+                }
+                if (available == 0) {
+                    waiters.add(lease);
+                    return lease;
+                }
+                available--;
+            }
+            lease.complete(new Lease(pool, this));
+            return lease;
+        }
+
+        void release() {
+            while (true) {
+                CompletableFuture<Lease> waiter;
+                synchronized (this) {
+                    waiter = waiters.poll();
+                    if (waiter == null) {
+                        available++;
+                        return;
+                    }
+                }
+                // hand the slot over to the first waiter still interested (completed outside the lock)
+                Lease lease = new Lease(pool, this);
+                if (waiter.complete(lease)) return;
+                lease.abandon();
+            }
+        }
+    }
+
+    /**
+     * A connection slot to an endpoint, held by a request in flight: the connections are not evicted until it is released.
+     * Releasing it more than once has no effect.
+     */
+    static final class Lease {
+        private final ConnectionPool pool;
+        private final Slots slots;
+        private final AtomicBoolean slotReleased = new AtomicBoolean(false);
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        /**
+         * @param pool Pool of the connection.
+         * @param slots Slots the lease is taken from. Null for a request on a multiplexed connection, which holds no slot.
+         */
+        Lease(ConnectionPool pool, Slots slots) {
+            this.pool = pool;
+            this.slots = slots;
+            pool.requestStarted();
+        }
+
+        /**
+         * Give the slot back while the request is still in flight, when the response arrived on a multiplexed connection.
+         */
+        void releaseSlot() {
+            if (slots != null && slotReleased.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+
+        void release() {
+            releaseSlot();
+            abandon();
+        }
+
+        /**
+         * Finish a lease that was never handed to a request: the waiter gave up, the slot goes to the next one.
+         */
+        private void abandon() {
+            if (released.compareAndSet(false, true)) {
+                pool.requestFinished();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.selectpdf;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timer that enforces the deadlines of the calls: when a deadline passes, the pending request is aborted and its connection closed.
+ *
+ * Deadlines are kept in a single hashed timing wheel with a precision of 10 milliseconds, so arming and disarming a deadline for each call is cheap.
+ * The actions (aborting requests, closing sockets) run on a separate pool of daemon threads, never on the timer thread.
+ * The retries of future calls are delayed on the same timer, so no thread waits during a backoff.
+ */
+final class DeadlineTimer {
+    private static final TimingWheel WHEEL;
+
+    static {
+        final AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "selectpdf-deadline-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        WHEEL = new TimingWheel(10, TimeUnit.MILLISECONDS, 1024, executor, "selectpdf-deadline-timer");
+    }
+
+    private DeadlineTimer() {}
+
+    /**
+     * Run an action when a deadline passes.
+     * @param action Action to run.
+     * @param delay Time left until the deadline, in milliseconds.
+     * @return Handle that disarms the deadline when the call finishes in time.
+     */
+    static TimingWheel.Timeout schedule(Runnable action, long delay) {
+        return WHEEL.schedule(action, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,24 @@
+package com.selectpdf;
+
+/**
+ * Polling policy that pings a job at a fixed interval, up to a maximum number of pings. This is how the client used to poll jobs.
+ */
+public final class FixedPollingPolicy implements AsyncPollingPolicy {
+    private final long pingInterval;
+    private final int maxPings;
+
+    /**
+     * Construct a fixed polling policy.
+     * @param pingInterval Ping interval in seconds. The first ping is sent after one interval.
+     * @param maxPings Maximum number of pings.
+     */
+    public FixedPollingPolicy(int pingInterval, int maxPings) {
+        this.pingInterval = Math.max(pingInterval, 0) * 1000L;
+        this.maxPings = maxPings;
+    }
+
+    @Override
+    public long nextPingDelay(AsyncJobStatus status) {
+        return status.getNumberOfPings() > maxPings ? -1 : pingInterval;
+    }
+}
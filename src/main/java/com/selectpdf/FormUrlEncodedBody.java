@@ -0,0 +1,193 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Streaming application/x-www-form-urlencoded request body.
+ *
+ * Parameters are percent-encoded incrementally, directly into the buffers written to the connection.
+ * Large values (like the HTML of a conversion) are never encoded as a whole, so the peak memory stays close to the size of the values.
+ * The content length is computed in advance, so the body can be sent in fixed-length mode.
+ */
+final class FormUrlEncodedBody extends RequestBody {
+    /**
+     * Size of the buffers handed over to the transport.
+     */
+    private static final int BUFFER_SIZE = BufferPool.BUFFER_SIZE;
+
+    private final List<Map.Entry<String, String>> parameters;
+    private volatile long contentLength = -1;
+
+    /**
+     * Construct the body from the specified parameters.
+     * @param parameters Parameters. The map is copied, values are not.
+     */
+    FormUrlEncodedBody(Map<String, String> parameters) {
+        this.parameters = new ArrayList<Map.Entry<String, String>>(parameters.size());
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            this.parameters.add(new AbstractMap.SimpleImmutableEntry<String, String>(parameter.getKey(), parameter.getValue()));
+        }
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/x-www-form-urlencoded";
+    }
+
+    @Override
+    public long getContentLength() {
+        if (contentLength < 0) {
+            long length = Math.max(parameters.size() - 1, 0); // '&' separators
+            for (Map.Entry<String, String> parameter : parameters) {
+                length += PercentEncoder.encodedLength(parameter.getKey()) + 1 + PercentEncoder.encodedLength(parameter.getValue());
+            }
+            contentLength = length;
+        }
+        return contentLength;
+    }
+
+    @Override
+    public InputStream openStream() {
+        final Cursor cursor = new Cursor();
+        return new InputStream() {
+            @Override
+            public int read() {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                return cursor.fill(b, off, len);
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        Cursor cursor = new Cursor();
+        BufferPool pool = BufferPool.shared();
+        byte[] buffer = pool.acquire();
+        try {
+            int bytesNumber;
+            while ((bytesNumber = cursor.fill(buffer, 0, buffer.length)) != -1) {
+                output.write(buffer, 0, bytesNumber);
+            }
+        }
+        finally {
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public BufferSource openBuffers() {
+        final Cursor cursor = new Cursor();
+        return new BufferSource() {
+            @Override
+            public ByteBuffer next() {
+                // buffers are handed over to the transport, so each one is a new array
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesNumber = cursor.fill(buffer, 0, buffer.length);
+                return bytesNumber == -1 ? null : ByteBuffer.wrap(buffer, 0, bytesNumber);
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    /**
+     * Position in the encoded body. Encodes the parameters directly into the buffers being filled.
+     */
+    private final class Cursor {
+        private int parameterIndex = 0;
+        private int stage = 0; // 0 - separator, 1 - key, 2 - equals, 3 - value
+        private int charIndex = 0;
+
+        // escape sequence that did not fit at the end of the previous buffer
+        private final byte[] pending = new byte[PercentEncoder.MAX_BYTES_PER_CODE_POINT];
+        private int pendingOffset = 0;
+        private int pendingLength = 0;
+
+        /**
+         * Fill the buffer with the next encoded bytes.
+         * @return Number of bytes written or -1 at the end of the body.
+         */
+        int fill(byte[] dest, int offset, int length) {
+            int pos = offset;
+            int limit = offset + length;
+
+            while (pos < limit) {
+                if (pendingOffset < pendingLength) {
+                    int count = Math.min(pendingLength - pendingOffset, limit - pos);
+                    System.arraycopy(pending, pendingOffset, dest, pos, count);
+                    pendingOffset += count;
+                    pos += count;
+                    continue;
+                }
+                if (parameterIndex >= parameters.size()) break;
+
+                Map.Entry<String, String> parameter = parameters.get(parameterIndex);
+                switch (stage) {
+                    case 0:
+                        if (parameterIndex > 0) dest[pos++] = '&';
+                        stage = 1;
+                        charIndex = 0;
+                        break;
+                    case 1:
+                        pos = encode(parameter.getKey(), dest, pos, limit);
+                        if (charIndex >= parameter.getKey().length()) stage = 2;
+                        break;
+                    case 2:
+                        dest[pos++] = '=';
+                        stage = 3;
+                        charIndex = 0;
+                        break;
+                    default:
+                        pos = encode(parameter.getValue(), dest, pos, limit);
+                        if (charIndex >= parameter.getValue().length()) {
+                            parameterIndex++;
+                            stage = 0;
+                        }
+                        break;
+                }
+            }
+
+            int written = pos - offset;
+            return written == 0 && parameterIndex >= parameters.size() && pendingOffset >= pendingLength ? -1 : written;
+        }
+
+        /**
+         * Encode characters of the value, starting from the current character index, until the buffer is full.
+         * @return New position in the buffer.
+         */
+        private int encode(String value, byte[] dest, int pos, int limit) {
+            int count = value.length();
+            while (charIndex < count && pos < limit) {
+                // fast path for unreserved ASCII runs
+                char c = value.charAt(charIndex);
+                if (PercentEncoder.isUnreserved(c)) {
+                    dest[pos++] = (byte)c;
+                    charIndex++;
+                    continue;
+                }
+
+                if (limit - pos >= PercentEncoder.MAX_BYTES_PER_CODE_POINT) {
+                    pos += PercentEncoder.encodeCodePoint(value, charIndex, dest, pos);
+                    charIndex += PercentEncoder.charCount(value, charIndex);
+                }
+                else {
+                    // not enough room for the longest escape sequence, finish it in the next buffer
+                    pendingLength = PercentEncoder.encodeCodePoint(value, charIndex, pending, 0);
+                    pendingOffset = 0;
+                    charIndex += PercentEncoder.charCount(value, charIndex);
+                    break;
+                }
+            }
+            return pos;
+        }
+    }
+}
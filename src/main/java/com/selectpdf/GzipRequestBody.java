@@ -0,0 +1,110 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Request body compressed with gzip while it is streamed to the connection.
+ * The compressed length is not known in advance, so the body is sent with chunked transfer encoding.
+ */
+final class GzipRequestBody extends RequestBody {
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+
+    private final RequestBody body;
+
+    /**
+     * Construct a compressed body.
+     * @param body Uncompressed body.
+     */
+    GzipRequestBody(RequestBody body) {
+        this.body = body;
+    }
+
+    @Override
+    public String getContentType() {
+        return body.getContentType();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return "gzip";
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        // the connection stream must stay open after the gzip trailer is written
+        GZIPOutputStream gzip = new GZIPOutputStream(new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }, 8192);
+        try {
+            body.writeTo(gzip);
+            gzip.finish();
+        }
+        finally {
+            // releases the native memory of the deflater, also when the body fails
+            gzip.close();
+        }
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        final CRC32 crc = new CRC32();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final CheckedInputStream source = new CheckedInputStream(body.openStream(), crc);
+        final InputStream deflated = new DeflaterInputStream(source, deflater, 8192);
+
+        // the trailer is built only after the whole body was compressed
+        InputStream trailer = new InputStream() {
+            private InputStream content = null;
+
+            @Override
+            public int read() throws IOException {
+                return content().read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return content().read(b, off, len);
+            }
+
+            private InputStream content() {
+                if (content == null) {
+                    long crcValue = crc.getValue();
+                    long size = deflater.getBytesRead();
+                    content = new ByteArrayInputStream(new byte[] {
+                        (byte)crcValue, (byte)(crcValue >> 8), (byte)(crcValue >> 16), (byte)(crcValue >> 24),
+                        (byte)size, (byte)(size >> 8), (byte)(size >> 16), (byte)(size >> 24)
+                    });
+                }
+                return content;
+            }
+        };
+
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(new ByteArrayInputStream(GZIP_HEADER), deflated, trailer))) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    source.close();
+                    deflater.end();
+                }
+            }
+        };
+    }
+}
@@ -2,6 +2,7 @@ package com.selectpdf;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Html To Pdf Conversion with SelectPdf Online API.
@@ -87,6 +88,11 @@ public class HtmlToPdfMain {
  * </pre>
  */
 public class HtmlToPdfClient extends ApiClient {
+    /**
+     * Size of the url-encoded request (in bytes) from which sending the request as multipart/form-data is considered.
+     */
+    private volatile long multipartThreshold = 65536;
+
     /**
      * Construct the Html To Pdf Client.
      * @param apiKey API key.
@@ -103,20 +109,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public byte[] convertUrl(String url)
     {
-        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
-        {
-            throw new ApiException("The supported protocols for the converted webpage are http:// and https://.");
-        }
-        if (url.startsWith("http://localhost", 0))
-        {
-            throw new ApiException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
-        }
-        parameters.put("url", url);
-        parameters.put("html", "");
-        parameters.put("base_url", "");
-        parameters.put("async", "False");
+        ApiRequest request = urlRequest(url).withParameter("async", "False");
 
-        return performPost(null);
+        return performPost(request, null).getContent();
     }
 
     /**
@@ -126,20 +121,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public void convertUrlToStream(String url, OutputStream stream)
     {
-        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
-        {
-            throw new ApiException("The supported protocols for the converted webpage are http:// and https://.");
-        }
-        if (url.startsWith("http://localhost", 0))
-        {
-            throw new ApiException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
-        }
-        parameters.put("url", url);
-        parameters.put("html", "");
-        parameters.put("base_url", "");
-        parameters.put("async", "False");
+        ApiRequest request = urlRequest(url).withParameter("async", "False");
 
-        performPost(stream);
+        performPost(request, stream);
     }
 
     /**
@@ -150,17 +134,7 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public void convertUrlToFile(String url, String filePath) throws IOException
     {
-        FileOutputStream outputFile = new FileOutputStream(filePath);
-
-        try {
-            convertUrlToStream(url, outputFile);
-            outputFile.close();
-        }
-        catch(ApiException ex) {
-            outputFile.close();
-            new File(filePath).delete();
-            throw ex;
-        }
+        writeToFile(filePath, stream -> convertUrlToStream(url, stream));
 
     }
 
@@ -172,51 +146,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public byte[] convertUrlAsync(String url)
     {
-        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
-        {
-            throw new ApiException("The supported protocols for the converted webpage are http:// and https://.");
-        }
-        if (url.startsWith("http://localhost", 0))
-        {
-            throw new ApiException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
-        }
-        parameters.put("url", url);
-        parameters.put("html", "");
-        parameters.put("base_url", "");
-
-        String JobID = startAsyncJob();
-
-        if (JobID == null || JobID.isBlank()) {
-            throw new ApiException("An error occurred launching the asynchronous call.");
-        }
-
-        int noPings = 0;
+        ApiRequest request = urlRequest(url);
 
-        do
-        {
-            noPings++;
-
-            // sleep for a few seconds before next ping
-            try {
-                java.util.concurrent.TimeUnit.SECONDS.sleep(AsyncCallsPingInterval);
-            }
-            catch (InterruptedException ex) {}
-
-            AsyncJobClient asyncJobClient = new AsyncJobClient(parameters.get("key"), JobID);
-            asyncJobClient.setApiEndpoint(apiAsyncEndpoint);
-
-            byte[] result = asyncJobClient.getResult();
-
-            if (asyncJobClient.finished())
-            {
-                numberOfPages = asyncJobClient.getNumberOfPages();
-
-                return result;
-            }
-
-        } while (noPings <= AsyncCallsMaxPings);
-
-        throw new ApiException("Asynchronous call did not finish in expected timeframe.");    
+        return runAsyncJob(request, false).getContent();
     }
 
     /**
@@ -227,8 +159,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public void convertUrlToStreamAsync(String url, OutputStream stream) throws IOException
     {
-        byte[] result = convertUrlAsync(url);
-        stream.write(result);
+        ApiRequest request = urlRequest(url);
+
+        runAsyncJob(request, false, stream);
     }
 
     /**
@@ -240,18 +173,7 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public void convertUrlToFileAsync(String url, String filePath) throws IOException
     {
-        FileOutputStream outputFile = new FileOutputStream(filePath);
-
-        try {
-            byte[] result = convertUrlAsync(url);
-            outputFile.write(result);
-            outputFile.close();
-        }
-        catch(ApiException ex) {
-            outputFile.close();
-            new File(filePath).delete();
-            throw ex;
-        }
+        writeToFile(filePath, stream -> convertUrlToStreamAsync(url, stream));
 
     }
 
@@ -273,16 +195,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public byte[] convertHtmlString(String htmlString, String baseUrl)
     {
-        parameters.put("html", htmlString);
-        parameters.put("url", "");
-        parameters.put("async", "False");
+        ApiRequest request = htmlRequest(htmlString, baseUrl).withParameter("async", "False");
 
-        if (baseUrl != null && !baseUrl.isBlank())
-        {
-            parameters.put("base_url", baseUrl);
-        }
-
-        return performPost(null);
+        return performPost(request, null).getContent();
     }
 
     /**
@@ -303,16 +218,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public void convertHtmlStringToStream(String htmlString, String baseUrl, OutputStream stream)
     {
-        parameters.put("html", htmlString);
-        parameters.put("url", "");
-        parameters.put("async", "False");
-
-        if (baseUrl != null && !baseUrl.isBlank())
-        {
-            parameters.put("base_url", baseUrl);
-        }
+        ApiRequest request = htmlRequest(htmlString, baseUrl).withParameter("async", "False");
 
-        performPost(stream);
+        performPost(request, stream);
     }
 
     /**
@@ -335,27 +243,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public void convertHtmlStringToFile(String htmlString, String baseUrl, String filePath) throws IOException
     {
-        parameters.put("html", htmlString);
-        parameters.put("url", "");
-        parameters.put("async", "False");
+        ApiRequest request = htmlRequest(htmlString, baseUrl).withParameter("async", "False");
 
-        if (baseUrl != null && !baseUrl.isBlank())
-        {
-            parameters.put("base_url", baseUrl);
-        }
-
-        FileOutputStream outputFile = new FileOutputStream(filePath);
-
-        try
-        {
-            performPost(outputFile);
-            outputFile.close();
-        }
-        catch(ApiException ex) {
-            outputFile.close();
-            new File(filePath).delete();
-            throw ex;
-        }
+        writeToFile(filePath, stream -> performPost(request, stream));
     }
 
     /**
@@ -376,47 +266,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public byte[] convertHtmlStringAsync(String htmlString, String baseUrl)
     {
-        parameters.put("html", htmlString);
-        parameters.put("url", "");
-
-        if (baseUrl != null && !baseUrl.isBlank())
-        {
-            parameters.put("base_url", baseUrl);
-        }
-
-        String JobID = startAsyncJob();
-
-        if (JobID == null || JobID.isBlank()) {
-            throw new ApiException("An error occurred launching the asynchronous call.");
-        }
-
-        int noPings = 0;
-
-        do
-        {
-            noPings++;
-
-            // sleep for a few seconds before next ping
-            try {
-                java.util.concurrent.TimeUnit.SECONDS.sleep(AsyncCallsPingInterval);
-            }
-            catch (InterruptedException ex) {}
-
-            AsyncJobClient asyncJobClient = new AsyncJobClient(parameters.get("key"), JobID);
-            asyncJobClient.setApiEndpoint(apiAsyncEndpoint);
+        ApiRequest request = htmlRequest(htmlString, baseUrl);
 
-            byte[] result = asyncJobClient.getResult();
-
-            if (asyncJobClient.finished())
-            {
-                numberOfPages = asyncJobClient.getNumberOfPages();
-
-                return result;
-            }
-
-        } while (noPings <= AsyncCallsMaxPings);
-
-        throw new ApiException("Asynchronous call did not finish in expected timeframe.");    
+        return runAsyncJob(request, false).getContent();
     }
 
     /**
@@ -437,8 +289,9 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public void convertHtmlStringToStreamAsync(String htmlString, String baseUrl, OutputStream stream) throws IOException
     {
-        byte[] result = convertHtmlStringAsync(htmlString, baseUrl);
-        stream.write(result);
+        ApiRequest request = htmlRequest(htmlString, baseUrl);
+
+        runAsyncJob(request, false, stream);
     }
 
     /**
@@ -461,18 +314,223 @@ public class HtmlToPdfClient extends ApiClient {
      */
     public void convertHtmlStringToFileAsync(String htmlString, String baseUrl, String filePath) throws IOException
     {
-        FileOutputStream outputFile = new FileOutputStream(filePath);
+        writeToFile(filePath, stream -> convertHtmlStringToStreamAsync(htmlString, baseUrl, stream));
+    }
+
+    /**
+     * Convert the specified url to PDF and return the call result: number of pages, job ID, length, timings and the content, kept in memory or, for large documents, in a temporary file (see setResultMemoryThreshold). 
+     * SelectPdf online API can convert http:// and https:// publicly available urls.
+     * @param url Address of the web page being converted.
+     * @return Result containing the resulted PDF. Close it to delete the temporary file of a large PDF.
+     */
+    public ApiResult convertUrlToResult(String url)
+    {
+        ApiRequest request = urlRequest(url).withParameter("async", "False");
 
-        try {
-            byte[] result = convertHtmlStringAsync(htmlString, baseUrl);
-            outputFile.write(result);
-            outputFile.close();
+        return performPost(request, null);
+    }
+
+    /**
+     * Convert the specified url to PDF using an asynchronous call and return the call result: number of pages, job ID, length, timings and the content, kept in memory or, for large documents, in a temporary file (see setResultMemoryThreshold). 
+     * SelectPdf online API can convert http:// and https:// publicly available urls.
+     * @param url Address of the web page being converted.
+     * @return Result containing the resulted PDF. Close it to delete the temporary file of a large PDF.
+     */
+    public ApiResult convertUrlToResultAsync(String url)
+    {
+        ApiRequest request = urlRequest(url);
+
+        return runAsyncJob(request, false);
+    }
+
+    /**
+     * Convert the specified HTML string to PDF and return the call result: number of pages, job ID, length, timings and the content, kept in memory or, for large documents, in a temporary file (see setResultMemoryThreshold). 
+     * @param htmlString HTML string with the content being converted.
+     * @param baseUrl Base url used to resolve relative paths to resources (css, images, javascript, etc). Must be a http:// or https:// publicly available url.
+     * @return Result containing the resulted PDF. Close it to delete the temporary file of a large PDF.
+     */
+    public ApiResult convertHtmlStringToResult(String htmlString, String baseUrl)
+    {
+        ApiRequest request = htmlRequest(htmlString, baseUrl).withParameter("async", "False");
+
+        return performPost(request, null);
+    }
+
+    /**
+     * Convert the specified HTML string to PDF with an asynchronous call and return the call result: number of pages, job ID, length, timings and the content, kept in memory or, for large documents, in a temporary file (see setResultMemoryThreshold). 
+     * @param htmlString HTML string with the content being converted.
+     * @param baseUrl Base url used to resolve relative paths to resources (css, images, javascript, etc). Must be a http:// or https:// publicly available url.
+     * @return Result containing the resulted PDF. Close it to delete the temporary file of a large PDF.
+     */
+    public ApiResult convertHtmlStringToResultAsync(String htmlString, String baseUrl)
+    {
+        ApiRequest request = htmlRequest(htmlString, baseUrl);
+
+        return runAsyncJob(request, false);
+    }
+
+    /**
+     * Convert the specified url to PDF without blocking the calling thread. SelectPdf online API can convert http:// and https:// publicly available urls.
+     * The future completes on the executor of the client (see setExecutor).
+     * @param url Address of the web page being converted.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the conversion.
+     */
+    public CompletableFuture<ApiResult> convertUrlFuture(String url)
+    {
+        return convertUrlFuture(url, getExecutor());
+    }
+
+    /**
+     * Convert the specified url to PDF without blocking the calling thread. SelectPdf online API can convert http:// and https:// publicly available urls.
+     * @param url Address of the web page being converted.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the conversion.
+     */
+    public CompletableFuture<ApiResult> convertUrlFuture(String url, Executor executor)
+    {
+        ApiRequest request = urlRequest(url).withParameter("async", "False");
+
+        return performPostFuture(request, null, false, executor);
+    }
+
+    /**
+     * Convert the specified url to PDF using an asynchronous call, without blocking the calling thread. 
+     * The job is pinged as decided by the asynchronous polling policy and no thread waits between pings.
+     * @param url Address of the web page being converted.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> convertUrlAsyncFuture(String url)
+    {
+        return convertUrlAsyncFuture(url, getExecutor());
+    }
+
+    /**
+     * Convert the specified url to PDF using an asynchronous call, without blocking the calling thread. 
+     * The job is pinged as decided by the asynchronous polling policy and no thread waits between pings.
+     * @param url Address of the web page being converted.
+     * @param executor Executor that sends the pings and completes the future.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> convertUrlAsyncFuture(String url, Executor executor)
+    {
+        ApiRequest request = urlRequest(url);
+
+        return runAsyncJobFuture(request, false, executor);
+    }
+
+    /**
+     * Convert the specified HTML string to PDF without blocking the calling thread.
+     * The future completes on the executor of the client (see setExecutor).
+     * @param htmlString HTML string with the content being converted.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the conversion.
+     */
+    public CompletableFuture<ApiResult> convertHtmlStringFuture(String htmlString)
+    {
+        return convertHtmlStringFuture(htmlString, "", getExecutor());
+    }
+
+    /**
+     * Convert the specified HTML string to PDF without blocking the calling thread. Use a base url to resolve relative paths to resources.
+     * The future completes on the executor of the client (see setExecutor).
+     * @param htmlString HTML string with the content being converted.
+     * @param baseUrl Base url used to resolve relative paths to resources (css, images, javascript, etc). Must be a http:// or https:// publicly available url.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the conversion.
+     */
+    public CompletableFuture<ApiResult> convertHtmlStringFuture(String htmlString, String baseUrl)
+    {
+        return convertHtmlStringFuture(htmlString, baseUrl, getExecutor());
+    }
+
+    /**
+     * Convert the specified HTML string to PDF without blocking the calling thread. Use a base url to resolve relative paths to resources.
+     * @param htmlString HTML string with the content being converted.
+     * @param baseUrl Base url used to resolve relative paths to resources (css, images, javascript, etc). Must be a http:// or https:// publicly available url.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the conversion.
+     */
+    public CompletableFuture<ApiResult> convertHtmlStringFuture(String htmlString, String baseUrl, Executor executor)
+    {
+        ApiRequest request = htmlRequest(htmlString, baseUrl).withParameter("async", "False");
+
+        return performPostFuture(request, null, false, executor);
+    }
+
+    /**
+     * Convert the specified HTML string to PDF with an asynchronous call, without blocking the calling thread.
+     * @param htmlString HTML string with the content being converted.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> convertHtmlStringAsyncFuture(String htmlString)
+    {
+        return convertHtmlStringAsyncFuture(htmlString, "", getExecutor());
+    }
+
+    /**
+     * Convert the specified HTML string to PDF with an asynchronous call, without blocking the calling thread. Use a base url to resolve relative paths to resources.
+     * @param htmlString HTML string with the content being converted.
+     * @param baseUrl Base url used to resolve relative paths to resources (css, images, javascript, etc). Must be a http:// or https:// publicly available url.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> convertHtmlStringAsyncFuture(String htmlString, String baseUrl)
+    {
+        return convertHtmlStringAsyncFuture(htmlString, baseUrl, getExecutor());
+    }
+
+    /**
+     * Convert the specified HTML string to PDF with an asynchronous call, without blocking the calling thread. Use a base url to resolve relative paths to resources.
+     * The job is pinged as decided by the asynchronous polling policy and no thread waits between pings.
+     * @param htmlString HTML string with the content being converted.
+     * @param baseUrl Base url used to resolve relative paths to resources (css, images, javascript, etc). Must be a http:// or https:// publicly available url.
+     * @param executor Executor that sends the pings and completes the future.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> convertHtmlStringAsyncFuture(String htmlString, String baseUrl, Executor executor)
+    {
+        ApiRequest request = htmlRequest(htmlString, baseUrl);
+
+        return runAsyncJobFuture(request, false, executor);
+    }
+
+    /**
+     * Build the request for the conversion of an url.
+     * @param url Address of the web page being converted.
+     * @return Request with the current options and the url.
+     */
+    private ApiRequest urlRequest(String url)
+    {
+        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
+        {
+            throw new ValidationException("The supported protocols for the converted webpage are http:// and https://.");
         }
-        catch(ApiException ex) {
-            outputFile.close();
-            new File(filePath).delete();
-            throw ex;
+        if (url.startsWith("http://localhost", 0))
+        {
+            throw new ValidationException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
+        }
+
+        return newRequest()
+            .withParameter("url", url)
+            .withParameter("html", "")
+            .withParameter("base_url", "");
+    }
+
+    /**
+     * Build the request for the conversion of an HTML string.
+     * @param htmlString HTML string with the content being converted.
+     * @param baseUrl Base url used to resolve relative paths to resources.
+     * @return Request with the current options, the HTML string and the base url.
+     */
+    private ApiRequest htmlRequest(String htmlString, String baseUrl)
+    {
+        ApiRequest request = newRequest()
+            .withParameter("html", htmlString)
+            .withParameter("url", "");
+
+        if (baseUrl != null && !baseUrl.isBlank())
+        {
+            request = request.withParameter("base_url", baseUrl);
         }
+
+        return request;
     }
 
     /**
@@ -670,6 +728,7 @@ public class HtmlToPdfClient extends ApiClient {
      * Set the maximum amount of time (in seconds) that the convert will wait for the page to load.
      * This method is an alias for setNavigationTimeout. A timeout error is displayed when this time elapses.
      * The default value is 30 seconds. Use a larger value (up to 120 seconds allowed) for pages that take a long time to load.
+     * The read timeout of the client follows this value (see setReadTimeoutMargin).
      * @param maxLoadTime Timeout in seconds.
      * @return Reference to the current object.
      */
@@ -722,7 +781,7 @@ public class HtmlToPdfClient extends ApiClient {
     public HtmlToPdfClient setBackgroundColor(String backgroundColor)
     {
         if (!backgroundColor.matches("^#?[0-9a-fA-F]{6}$"))
-            throw new ApiException("Color value must be in #RRGGBB format.");
+            throw new ValidationException("Color value must be in #RRGGBB format.");
 
         parameters.put("background_color", backgroundColor);
         return this;
@@ -969,11 +1028,11 @@ public class HtmlToPdfClient extends ApiClient {
     {
         if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
         {
-            throw new ApiException("The supported protocols for the url are http:// and https://.");
+            throw new ValidationException("The supported protocols for the url are http:// and https://.");
         }
         if (url.startsWith("http://localhost", 0))
         {
-            throw new ApiException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
+            throw new ValidationException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
         }
 
 
@@ -1001,11 +1060,11 @@ public class HtmlToPdfClient extends ApiClient {
     {
         if (!baseUrl.startsWith("http://", 0) && !baseUrl.startsWith("https://", 0))
         {
-            throw new ApiException("The supported protocols for the base url are http:// and https://.");
+            throw new ValidationException("The supported protocols for the base url are http:// and https://.");
         }
         if (baseUrl.startsWith("http://localhost", 0))
         {
-            throw new ApiException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
+            throw new ValidationException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
         }
 
         parameters.put("header_base_url", baseUrl);
@@ -1099,11 +1158,11 @@ public class HtmlToPdfClient extends ApiClient {
     {
         if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
         {
-            throw new ApiException("The supported protocols for the url are http:// and https://.");
+            throw new ValidationException("The supported protocols for the url are http:// and https://.");
         }
         if (url.startsWith("http://localhost", 0))
         {
-            throw new ApiException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
+            throw new ValidationException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
         }
 
         parameters.put("footer_url", url);
@@ -1130,11 +1189,11 @@ public class HtmlToPdfClient extends ApiClient {
     {
         if (!baseUrl.startsWith("http://", 0) && !baseUrl.startsWith("https://", 0))
         {
-            throw new ApiException("The supported protocols for the base url are http:// and https://.");
+            throw new ValidationException("The supported protocols for the base url are http:// and https://.");
         }
         if (baseUrl.startsWith("http://localhost", 0))
         {
-            throw new ApiException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
+            throw new ValidationException("Cannot convert local urls. SelectPdf online API can only convert publicly available urls.");
         }
 
         parameters.put("footer_base_url", baseUrl);
@@ -1297,7 +1356,7 @@ public class HtmlToPdfClient extends ApiClient {
     public HtmlToPdfClient setPageNumbersColor(String color)
     {
         if (!color.matches("^#?[0-9a-fA-F]{6}$"))
-            throw new ApiException("Color value must be in #RRGGBB format.");
+            throw new ValidationException("Color value must be in #RRGGBB format.");
 
         parameters.put("page_numbers_color", color);
         return this;
@@ -1449,13 +1508,87 @@ public class HtmlToPdfClient extends ApiClient {
 
     /**
      * Get the locations of certain web elements. This is retrieved if pdf_web_elements_selectors parameter is set and elements were found to match the selectors.
+     * The web elements are those of the last conversion made from the current thread.
      * @return List of web elements locations.
      */
     public String getWebElements() {
-        WebElementsClient webElementsClient = new WebElementsClient(parameters.get("key"), jobId);
-        webElementsClient.setApiAsyncEndpoint(apiWebElementsEndpoint);
+        ApiResult result = getLastResult();
+        return loadWebElements(parameters.get("key"), result != null ? result.getJobId() : "", apiWebElementsEndpoint, transport, circuitBreaker);
+    }
+
+    private static String loadWebElements(String apiKey, String jobId, String endpoint, HttpTransport transport, CircuitBreaker circuitBreaker) {
+        WebElementsClient webElementsClient = new WebElementsClient(apiKey, jobId);
+        webElementsClient.setApiEndpoint(endpoint);
+        webElementsClient.setTransport(transport);
+        webElementsClient.setCircuitBreaker(circuitBreaker);
 
         String webElements = webElementsClient.getWebElements();
         return webElements;
     }
-}
\ No newline at end of file
+
+    /**
+     * Get the maximum time the server may spend loading the page of a conversion: the conversion delay (min_load_time) plus the page load timeout (max_load_time).
+     * Rendering the PDF comes on top of it, so the read timeout margin must cover it (see setReadTimeoutMargin).
+     * @param request Request.
+     * @return Server timeout in seconds.
+     */
+    @Override
+    protected int getServerTimeout(ApiRequest request)
+    {
+        return getIntParameter(request, "min_load_time", 1) + getIntParameter(request, "max_load_time", DEFAULT_SERVER_TIMEOUT);
+    }
+
+    /**
+     * Let the results of the conversions retrieve their web elements on demand (see ApiResult.getWebElements).
+     * @param request Request that was sent.
+     * @param result Result of the call.
+     * @return Completed result.
+     */
+    @Override
+    protected ApiResult completeResult(ApiRequest request, ApiResult result)
+    {
+        if (result.getStatusCode() != 200 || result.getJobId().isEmpty()) {
+            return result;
+        }
+        final String apiKey = request.getParameter("key");
+        final String jobId = result.getJobId();
+        final String endpoint = apiWebElementsEndpoint;
+        final HttpTransport currentTransport = transport;
+        final CircuitBreaker currentCircuitBreaker = circuitBreaker;
+        return result.withWebElements(() -> loadWebElements(apiKey, jobId, endpoint, currentTransport, currentCircuitBreaker));
+    }
+
+    /**
+     * Set the size of the url-encoded request (in bytes) from which the client considers sending the request as multipart/form-data.
+     * Above this size, html, header_html and footer_html are sent as raw UTF-8 parts if this makes the request smaller. 
+     * The default value is 64KB. Set a negative value to always send url-encoded requests.
+     * @param multipartThreshold Size threshold in bytes.
+     * @return Reference to the current object.
+     */
+    public HtmlToPdfClient setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+        return this;
+    }
+
+    /**
+     * Encode the request body. Large requests are sent as multipart/form-data when this makes them smaller than the url-encoded form, 
+     * because percent-encoding markup and non-ASCII text can make the body 2-3 times larger than the HTML.
+     * @param request Request to encode.
+     * @return Encoded data.
+     */
+    @Override
+    protected RequestBody encodeRequestBody(ApiRequest request)
+    {
+        RequestBody urlEncoded = super.encodeRequestBody(request);
+
+        long threshold = multipartThreshold;
+        if (threshold >= 0 && urlEncoded.getContentLength() > threshold) {
+            RequestBody multipart = encodeMultipartFormData(request);
+            if (multipart.getContentLength() < urlEncoded.getContentLength()) {
+                return multipart;
+            }
+        }
+
+        return urlEncoded;
+    }
+}
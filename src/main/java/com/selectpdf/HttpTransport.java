@@ -0,0 +1,52 @@
+package com.selectpdf;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+
+/**
+ * HTTP transport used by the API clients to talk to SelectPdf Online API.
+ *
+ * The default implementation is {@link JavaHttpClientTransport}, built on java.net.http.HttpClient,
+ * that multiplexes concurrent requests over a few HTTP/2 connections.
+ * {@link UrlConnectionTransport} is available as a fallback, using HttpURLConnection.
+ */
+public interface HttpTransport {
+    /**
+     * Send a POST request to SelectPdf Online API.
+     * The caller must close the returned response after reading it.
+     * @param request The request being sent.
+     * @return Response returned by the server.
+     * @throws IOException
+     */
+    TransportResponse post(TransportRequest request) throws IOException;
+
+    /**
+     * Send a POST request to SelectPdf Online API without blocking the calling thread.
+     * The future completes when the status and headers of the response are received. The caller must close the response after reading it.
+     * Cancelling the future aborts the request.
+     * The default implementation calls {@link #post(TransportRequest)} on the executor, so an executor thread waits for the response.
+     * @param request The request being sent.
+     * @param executor Executor used by the implementations that need a thread to send the request.
+     * @return Future response.
+     */
+    default CompletableFuture<TransportResponse> postAsync(TransportRequest request, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return post(request);
+            }
+            catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Open connections to the endpoint of the specified url in advance, so the first requests do not pay the connection and TLS handshake latency.
+     * The default implementation does nothing.
+     * @param url Url on the endpoint.
+     * @param connections Number of connections to open.
+     * @throws IOException
+     */
+    default void warmUp(String url, int connections) throws IOException {
+    }
+}
@@ -0,0 +1,71 @@
+package com.selectpdf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects a connection that makes no progress: when no activity is recorded for the specified time, the idle action runs (once).
+ *
+ * Recording activity is a single volatile write, so it can be done for every buffer sent or received. The watchdog does not re-arm
+ * the timer on every activity: it checks once per timeout interval and sleeps again for the time left since the last activity.
+ */
+final class IdleWatchdog {
+    private final long timeoutNanos;
+    private final Runnable onIdle;
+    private volatile long lastActivity;
+    private volatile boolean stopped = false;
+    private volatile boolean expired = false;
+    private volatile TimingWheel.Timeout timeout = null;
+
+    /**
+     * Construct and start a watchdog.
+     * @param timeout Maximum time without activity, in milliseconds.
+     * @param onIdle Action that runs (on a timer thread) when the time elapses, for example closing the connection.
+     */
+    IdleWatchdog(long timeout, Runnable onIdle) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.onIdle = onIdle;
+        this.lastActivity = System.nanoTime();
+        schedule(timeoutNanos);
+    }
+
+    /**
+     * Record activity on the connection.
+     */
+    void touch() {
+        lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Check if the idle action ran.
+     * @return True if the connection was idle for too long.
+     */
+    boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Stop watching. The idle action does not run anymore.
+     */
+    void stop() {
+        stopped = true;
+        TimingWheel.Timeout current = timeout;
+        if (current != null) current.cancel();
+    }
+
+    private void check() {
+        if (stopped) return;
+        long idle = System.nanoTime() - lastActivity;
+        if (idle >= timeoutNanos) {
+            expired = true;
+            onIdle.run();
+        }
+        else {
+            schedule(timeoutNanos - idle);
+        }
+    }
+
+    private void schedule(long delayNanos) {
+        timeout = DeadlineTimer.schedule(this::check, Math.max(1, (delayNanos + 999999) / 1000000));
+        if (stopped) timeout.cancel();
+    }
+}
@@ -0,0 +1,34 @@
+package com.selectpdf;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor shared by the clients that do not have their own executor (see {@link ApiClient#setExecutor(Executor)}).
+ *
+ * Its threads block on I/O: they read responses, send the requests of the transports without an asynchronous API and download the results of asynchronous jobs.
+ * They are kept out of the common fork-join pool, which is sized for computations and shared with the rest of the application.
+ * The pool grows with the number of calls in flight (bounded by the connection pool and the concurrency limiter) and idle threads exit after a minute.
+ */
+final class IoExecutor {
+    private static final ExecutorService EXECUTOR;
+
+    static {
+        final AtomicInteger threadIndex = new AtomicInteger();
+        EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "selectpdf-io-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private IoExecutor() {}
+
+    /**
+     * Get the shared executor.
+     * @return Executor of daemon threads.
+     */
+    static Executor get() {
+        return EXECUTOR;
+    }
+}
@@ -0,0 +1,408 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * HTTP transport based on java.net.http.HttpClient. This is the default transport.
+ *
+ * HTTP/2 is negotiated when the server supports it, so many concurrent conversions share a few multiplexed connections.
+ * Connections are kept alive and reused between requests. A single instance is meant to be shared by all clients.
+ * Connection limits, idle eviction and TLS session resumption are configured by a {@link ConnectionPool}; requests multiplexed over HTTP/2 are not limited.
+ *
+ * Cancelling a request (or a timeout) aborts the exchange on every supported JDK: before JDK 16, cancelling the future returned by HttpClient.sendAsync
+ * does not stop the exchange, so the transport also fails the upload of the body and closes the response body as soon as the headers arrive.
+ */
+public class JavaHttpClientTransport implements HttpTransport {
+    private final HttpClient httpClient;
+    private final ConnectionPool pool;
+    private final int connectionsPerEndpoint;
+
+    /**
+     * Construct a transport that uses the HTTP/2 enabled HttpClient of the default connection pool.
+     */
+    public JavaHttpClientTransport() {
+        this(ConnectionPool.getDefault());
+    }
+
+    /**
+     * Construct a transport that uses the HTTP/2 enabled HttpClient of the specified connection pool. Its connections are evicted when idle.
+     * @param pool Connection pool.
+     */
+    public JavaHttpClientTransport(ConnectionPool pool) {
+        this(null, pool);
+    }
+
+    /**
+     * Construct a transport around an existing HttpClient. No connection limits are applied.
+     * @param httpClient The HttpClient used to send requests.
+     */
+    public JavaHttpClientTransport(HttpClient httpClient) {
+        this(httpClient, null);
+    }
+
+    /**
+     * Construct a transport around an existing HttpClient. The pool does not evict the connections of this client.
+     * @param httpClient The HttpClient used to send requests. Null to use the HttpClient of the pool.
+     * @param pool Connection pool that limits the HTTP/1.1 connections per endpoint. Can be null if an HttpClient is specified.
+     */
+    public JavaHttpClientTransport(HttpClient httpClient, ConnectionPool pool) {
+        if (httpClient == null && pool == null) {
+            throw new ApiException("An HttpClient or a connection pool is required.");
+        }
+        this.httpClient = httpClient;
+        this.pool = pool;
+        this.connectionsPerEndpoint = pool != null ? pool.connectionsPerEndpoint(keepAliveCapacity()) : 0;
+    }
+
+    /**
+     * Get the number of idle connections kept by the HttpClient connection cache.
+     * @return Value of jdk.httpclient.connectionPoolSize or 0 if not limited (the default).
+     */
+    private static int keepAliveCapacity() {
+        return Math.max(Integer.getInteger("jdk.httpclient.connectionPoolSize", 0), 0);
+    }
+
+    /**
+     * Get the underlying HttpClient. A transport that uses the HttpClient of its pool gets a new one after the idle connections were evicted.
+     * @return The HttpClient used to send requests.
+     */
+    public HttpClient getHttpClient() {
+        return httpClient != null ? httpClient : pool.getHttpClient();
+    }
+
+    @Override
+    public TransportResponse post(TransportRequest request) throws IOException {
+        long startTime = System.nanoTime();
+        ConnectionPool.Lease lease = pool != null ? pool.acquire(request.getUrl(), connectionsPerEndpoint, request.getTimeout()) : null;
+
+        // sent asynchronously (like HttpClient.send does), so the read timeout watchdog can abort the request
+        CompletableFuture<TransportResponse> response = sendAsync(request, startTime, lease);
+        try {
+            return response.get();
+        }
+        catch (InterruptedException ex) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request to " + request.getUrl() + " was interrupted.");
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Send a POST request without blocking the calling thread. No thread waits while the server processes the request,
+     * nor while the request waits for a free connection slot.
+     */
+    @Override
+    public CompletableFuture<TransportResponse> postAsync(TransportRequest request, Executor executor) {
+        final long startTime = System.nanoTime();
+        if (pool == null) {
+            return sendAsync(request, startTime, null);
+        }
+
+        final CompletableFuture<ConnectionPool.Lease> lease = pool.acquireAsync(request.getUrl(), connectionsPerEndpoint);
+        if (lease.isDone()) {
+            return sendAsync(request, startTime, lease.join());
+        }
+
+        // all connection slots are in use, the request is sent when a slot is released
+        final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+        lease.thenAccept(acquired -> {
+            if (result.isDone()) {
+                acquired.release();
+                return;
+            }
+            CompletableFuture<TransportResponse> sent = sendAsync(request, startTime, acquired);
+            result.whenComplete((response, ex) -> {
+                if (ex != null) sent.cancel(true);
+            });
+            sent.whenComplete((response, ex) -> {
+                if (ex != null) result.completeExceptionally(ex);
+                else if (!result.complete(response)) closeQuietly(response);
+            });
+        });
+        result.whenComplete((response, ex) -> {
+            if (ex != null) lease.cancel(false);
+        });
+        return result;
+    }
+
+    /**
+     * Send a request on an acquired connection slot. HttpClient has no read timeout, so when the request has one,
+     * an idle watchdog follows the upload, the wait for the response headers and the reads of the body, and aborts the request when it stalls.
+     * When the returned future fails or is cancelled, the exchange is aborted: the upload fails and the response body is closed when it arrives.
+     */
+    private CompletableFuture<TransportResponse> sendAsync(final TransportRequest request, long startTime, final ConnectionPool.Lease lease) {
+        final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+        final IdleWatchdog watchdog = request.getReadTimeout() <= 0 ? null : new IdleWatchdog(request.getReadTimeout(), () -> {
+            if (!result.completeExceptionally(readTimeout(request, null)) && !result.isCompletedExceptionally()) {
+                // the response is being read, a blocked read fails when the body is closed
+                closeQuietly(result.join());
+            }
+        });
+
+        final ByteBufferPublisher publisher = request.getBody().getContentLength() == 0 ? null
+            : new ByteBufferPublisher(request.getBody(), watchdog != null ? watchdog::touch : null);
+        final AbortableBodyHandler bodyHandler = new AbortableBodyHandler();
+        final CompletableFuture<HttpResponse<InputStream>> sent;
+        try {
+            // taken after the lease, so the pool does not evict the client while the request is in flight
+            sent = getHttpClient().sendAsync(buildRequest(request, startTime, publisher), bodyHandler);
+        }
+        catch (IOException | RuntimeException ex) {
+            if (watchdog != null) watchdog.stop();
+            if (lease != null) lease.release();
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        sent.whenComplete((response, ex) -> {
+            if (ex != null) {
+                if (watchdog != null) watchdog.stop();
+                if (lease != null) lease.release();
+                result.completeExceptionally(ex);
+                return;
+            }
+            if (watchdog != null) watchdog.touch();
+            if (pool != null && response.version() == HttpClient.Version.HTTP_2) {
+                // multiplexed, the request does not hold a connection of its own; the lease is kept until the body is read
+                pool.multiplexed(request.getUrl());
+                if (lease != null) lease.releaseSlot();
+            }
+            HttpClientResponse clientResponse = new HttpClientResponse(request, response, lease, watchdog);
+            if (!result.complete(clientResponse)) {
+                // cancelled in the meantime, nobody will read the response
+                closeQuietly(clientResponse);
+            }
+        });
+        result.whenComplete((response, ex) -> {
+            if (ex != null) {
+                // JDK 16+ aborts the exchange on cancel, older versions let it run: fail the upload and close the body
+                sent.cancel(true);
+                if (publisher != null) publisher.abort(new IOException("Request to " + request.getUrl() + " was aborted.", ex));
+                bodyHandler.abort();
+            }
+        });
+
+        return result;
+    }
+
+    private static HttpTimeoutException readTimeout(TransportRequest request, IOException cause) {
+        HttpTimeoutException timeout = new HttpTimeoutException("Read timed out: no data from " + request.getUrl() + " for " + request.getReadTimeout() + " ms.");
+        if (cause != null) timeout.initCause(cause);
+        return timeout;
+    }
+
+    private static void closeQuietly(TransportResponse response) {
+        try {
+            response.close();
+        }
+        catch (IOException ignored) {}
+    }
+
+    @Override
+    public void warmUp(String url, int connections) throws IOException {
+        // concurrent HEAD requests open the connections (a single one if the server speaks HTTP/2)
+        ConnectionPool.Lease use = pool != null ? pool.use() : null;
+        HttpClient client = getHttpClient();
+        int count = pool != null ? Math.min(connections, connectionsPerEndpoint) : connections;
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<CompletableFuture<HttpResponse<Void>>>();
+        for (int i = 0; i < count; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(30))
+                .build();
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+                // the requests that follow know right away that they are not limited
+                if (pool != null && response.version() == HttpClient.Version.HTTP_2) pool.multiplexed(url);
+                return response;
+            }));
+        }
+
+        try {
+            CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Warm up of " + url + " was interrupted.");
+        }
+        catch (ExecutionException ex) {
+            throw ex.getCause() instanceof IOException ? (IOException)ex.getCause() : new IOException(ex.getCause());
+        }
+        finally {
+            if (use != null) use.release();
+        }
+    }
+
+    /**
+     * Build the request. The timeout of the request, less the time spent waiting for a connection slot, bounds the time until the response headers are received.
+     * @param request Transport request.
+     * @param startTime Time when the request was handed to the transport (System.nanoTime()).
+     * @param publisher Publisher of the request body. Null if the body is empty.
+     * @return Request for the HttpClient.
+     * @throws HttpConnectTimeoutException If the timeout elapsed while waiting for a connection slot.
+     */
+    private static HttpRequest buildRequest(TransportRequest request, long startTime, ByteBufferPublisher publisher) throws HttpConnectTimeoutException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl()));
+        if (request.getTimeout() > 0) {
+            long remaining = request.getTimeout() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            if (remaining <= 0) {
+                throw new HttpConnectTimeoutException("Timed out waiting for a connection to " + request.getUrl() + ".");
+            }
+            builder.timeout(Duration.ofMillis(remaining));
+        }
+        for (Map.Entry<String,String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue()); // send headers
+        }
+        RequestBody body = request.getBody();
+        builder.header("Content-Type", body.getContentType());
+        if (body.getContentEncoding() != null) {
+            builder.header("Content-Encoding", body.getContentEncoding());
+        }
+        builder.POST(bodyPublisher(body, publisher));
+        return builder.build();
+    }
+
+    /**
+     * Create a publisher that streams the request body. A known content length is sent as Content-Length, otherwise chunked encoding is used.
+     * @param body Request body.
+     * @param publisher Publisher of the buffers of the body. Null if the body is empty.
+     * @return Body publisher.
+     */
+    private static HttpRequest.BodyPublisher bodyPublisher(RequestBody body, ByteBufferPublisher publisher) {
+        long contentLength = body.getContentLength();
+        if (publisher == null) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        // buffers are handed to the connection as they are, without being copied
+        return contentLength > 0 ? HttpRequest.BodyPublishers.fromPublisher(publisher, contentLength) : HttpRequest.BodyPublishers.fromPublisher(publisher);
+    }
+
+    /**
+     * Body handler that streams the response body and can close it even before the response headers arrive.
+     * Closing the body cancels its subscription, which closes the HTTP/1.1 connection or resets the HTTP/2 stream.
+     */
+    private static final class AbortableBodyHandler implements HttpResponse.BodyHandler<InputStream> {
+        private volatile boolean aborted = false;
+        private volatile HttpResponse.BodySubscriber<InputStream> subscriber = null;
+
+        @Override
+        public HttpResponse.BodySubscriber<InputStream> apply(HttpResponse.ResponseInfo responseInfo) {
+            HttpResponse.BodySubscriber<InputStream> current = HttpResponse.BodySubscribers.ofInputStream();
+            subscriber = current;
+            if (aborted) closeBody(current);
+            return current;
+        }
+
+        void abort() {
+            aborted = true;
+            HttpResponse.BodySubscriber<InputStream> current = subscriber;
+            if (current != null) closeBody(current);
+        }
+
+        private static void closeBody(HttpResponse.BodySubscriber<InputStream> subscriber) {
+            // the body stream of ofInputStream() is available as soon as the subscriber is created
+            subscriber.getBody().thenAccept(body -> {
+                try {
+                    body.close();
+                }
+                catch (IOException ignored) {}
+            });
+        }
+    }
+
+    /**
+     * Response backed by a java.net.http.HttpResponse.
+     */
+    private static class HttpClientResponse implements TransportResponse {
+        private final HttpResponse<InputStream> response;
+        private final ConnectionPool.Lease lease;
+        private final InputStream body;
+
+        HttpClientResponse(TransportRequest request, HttpResponse<InputStream> response, ConnectionPool.Lease lease, IdleWatchdog watchdog) {
+            this.response = response;
+            this.lease = lease;
+            this.body = watchdog != null ? new WatchedInputStream(request, response.body(), watchdog) : response.body();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            // HttpClient does not expose the reason phrase
+            return null;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // closing the body returns the connection to the HttpClient pool
+                body.close();
+            }
+            finally {
+                if (lease != null) lease.release();
+            }
+        }
+    }
+
+    /**
+     * Response body that reports the reads to the idle watchdog and turns a read aborted by the watchdog into a read timeout.
+     */
+    private static final class WatchedInputStream extends FilterInputStream {
+        private final TransportRequest request;
+        private final IdleWatchdog watchdog;
+
+        WatchedInputStream(TransportRequest request, InputStream input, IdleWatchdog watchdog) {
+            super(input);
+            this.request = request;
+            this.watchdog = watchdog;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytesNumber;
+            try {
+                bytesNumber = super.read(b, off, len);
+            }
+            catch (IOException ex) {
+                throw watchdog.isExpired() ? readTimeout(request, ex) : ex;
+            }
+            if (bytesNumber == -1) watchdog.stop();
+            else watchdog.touch();
+            return bytesNumber;
+        }
+
+        @Override
+        public void close() throws IOException {
+            watchdog.stop();
+            super.close();
+        }
+    }
+}
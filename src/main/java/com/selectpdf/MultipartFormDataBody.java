@@ -0,0 +1,502 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Streaming multipart/form-data request body.
+ *
+ * The content length is computed in advance from the part headers and the file sizes.
+ * Files are read only while the body is written to the connection, so they are never fully loaded in memory.
+ * The default {@link JavaHttpClientTransport} consumes the body as buffers: files are read a slice at a time, with positional reads,
+ * into direct buffers that the connection writes to the socket as they are (a heap buffer would first be copied into a temporary direct buffer by the JDK).
+ * Slices are not memory-mapped: a mapped file that gets truncated while it is uploaded crashes the thread that reads it, a read just comes up short.
+ * {@link UrlConnectionTransport} writes the body to the output stream of the connection, with FileChannel.transferTo; that stream is not a channel,
+ * so the JDK still copies the file through a buffer on the way.
+ * In both cases a file that got shorter than its announced length fails the upload with an EOFException.
+ */
+final class MultipartFormDataBody extends RequestBody {
+    private static final byte[] NEW_LINE = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // constant fragments of the part headers
+    private static final byte[] DISPOSITION = "Content-Disposition: form-data; name=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FILE_NAME = "\"; filename=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_HEADER_END = "\"\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FILE_HEADER_END = "\"\r\nContent-Type: application/octet-stream\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Size of the buffers read from a file when the body is consumed as buffers.
+     */
+    private static final int FILE_SLICE_SIZE = 64 * 1024;
+
+    /**
+     * Number of characters of a text field converted to UTF-8 at once.
+     */
+    private static final int TEXT_CHUNK_SIZE = 8192;
+
+    /**
+     * Maximum number of UTF-8 bytes of a text chunk (3 bytes per character, a surrogate pair takes 4 bytes for 2 characters).
+     */
+    private static final int TEXT_CHUNK_BYTES = TEXT_CHUNK_SIZE * 3;
+
+    private final String boundary;
+    private final byte[] boundaryLine;
+    private final byte[] closingBoundary;
+    private final List<Part> parts = new ArrayList<Part>();
+
+    /**
+     * Construct an empty multipart body.
+     * @param boundary Multipart boundary.
+     */
+    MultipartFormDataBody(String boundary) {
+        this.boundary = boundary;
+        this.boundaryLine = ("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8);
+        this.closingBoundary = ("--" + boundary + "--\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Add a regular form field. The value is sent as raw UTF-8.
+     * Large values are converted to UTF-8 a chunk at a time, while the body is written.
+     * @param name Field name.
+     * @param value Field value.
+     */
+    void addField(String name, String value) {
+        byte[] headerBytes = header(name, null);
+        if (value.length() <= TEXT_CHUNK_SIZE) {
+            parts.add(new Part(headerBytes, value.getBytes(StandardCharsets.UTF_8), null));
+        }
+        else {
+            parts.add(new Part(headerBytes, value));
+        }
+    }
+
+    /**
+     * Add a file. The file is read when the body is written.
+     * @param name Field name.
+     * @param filePath Path to a local file.
+     * @throws FileNotFoundException If the file does not exist.
+     */
+    void addFile(String name, String filePath) throws FileNotFoundException {
+        File file = new File(filePath);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(filePath + " (No such file)");
+        }
+        parts.add(new Part(header(name, filePath), null, file));
+    }
+
+    /**
+     * Add binary data as a file part.
+     * @param name Field name (used also as file name).
+     * @param data Binary content.
+     */
+    void addData(String name, byte[] data) {
+        parts.add(new Part(header(name, name), data, null));
+    }
+
+    /**
+     * Build the header of a part into a single array of the exact size, from the precomputed boundary line and constant fragments.
+     * ASCII names are copied directly, without intermediate strings or arrays.
+     * @param name Field name.
+     * @param fileName File name or null for a regular field.
+     * @return Header bytes.
+     */
+    private byte[] header(String name, String fileName) {
+        byte[] nameBytes = isAscii(name) ? null : name.getBytes(StandardCharsets.UTF_8);
+        byte[] fileNameBytes = fileName == null || isAscii(fileName) ? null : fileName.getBytes(StandardCharsets.UTF_8);
+
+        int length = boundaryLine.length + DISPOSITION.length + (nameBytes != null ? nameBytes.length : name.length());
+        if (fileName != null) {
+            length += FILE_NAME.length + (fileNameBytes != null ? fileNameBytes.length : fileName.length()) + FILE_HEADER_END.length;
+        }
+        else {
+            length += FIELD_HEADER_END.length;
+        }
+
+        byte[] header = new byte[length];
+        int pos = put(boundaryLine, header, 0);
+        pos = put(DISPOSITION, header, pos);
+        pos = nameBytes != null ? put(nameBytes, header, pos) : putAscii(name, header, pos);
+        if (fileName != null) {
+            pos = put(FILE_NAME, header, pos);
+            pos = fileNameBytes != null ? put(fileNameBytes, header, pos) : putAscii(fileName, header, pos);
+            put(FILE_HEADER_END, header, pos);
+        }
+        else {
+            put(FIELD_HEADER_END, header, pos);
+        }
+        return header;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static int put(byte[] source, byte[] dest, int pos) {
+        System.arraycopy(source, 0, dest, pos, source.length);
+        return pos + source.length;
+    }
+
+    private static int putAscii(String value, byte[] dest, int pos) {
+        for (int i = 0; i < value.length(); i++) {
+            dest[pos++] = (byte)value.charAt(i);
+        }
+        return pos;
+    }
+
+    @Override
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = 0;
+        for (Part part : parts) {
+            length += part.header.length + part.contentLength() + NEW_LINE.length;
+        }
+        return length + closingBoundary.length;
+    }
+
+    @Override
+    public InputStream openStream() {
+        // files are opened lazily, only when the stream reaches them; a text chunk is read fully before the next one is converted
+        final Iterator<Object> segments = segments(true);
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return segments.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                Object segment = segments.next();
+                if (segment instanceof byte[]) {
+                    return new ByteArrayInputStream((byte[])segment);
+                }
+                if (segment instanceof ByteBuffer) {
+                    ByteBuffer chunk = (ByteBuffer)segment;
+                    return new ByteArrayInputStream(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                }
+                try {
+                    return ((Part)segment).openFile();
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        WritableByteChannel target = null;
+        Iterator<Object> segments = segments(true);
+        while (segments.hasNext()) {
+            Object segment = segments.next();
+            if (segment instanceof byte[]) {
+                output.write((byte[])segment);
+                continue;
+            }
+            if (segment instanceof ByteBuffer) {
+                ByteBuffer chunk = (ByteBuffer)segment;
+                output.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                continue;
+            }
+
+            // disk to connection, without copying the file through our own buffers
+            Part part = (Part)segment;
+            if (target == null) target = Channels.newChannel(output);
+            try (FileChannel channel = part.openChannel()) {
+                long position = 0;
+                while (position < part.length) {
+                    long transferred = channel.transferTo(position, part.length - position, target);
+                    if (transferred == 0 && position >= channel.size()) {
+                        // the file got shorter, transferTo would return 0 forever
+                        throw part.changed();
+                    }
+                    position += transferred;
+                }
+            }
+        }
+    }
+
+    @Override
+    public BufferSource openBuffers() {
+        // buffers are handed over to the transport, so text chunks are not converted into a shared array
+        final Iterator<Object> segments = segments(false);
+
+        return new BufferSource() {
+            private Part part = null;
+            private FileChannel channel = null;
+            private long position = 0;
+
+            @Override
+            public ByteBuffer next() throws IOException {
+                while (true) {
+                    if (part != null) {
+                        ByteBuffer slice = nextFileSlice();
+                        if (slice != null) return slice;
+                        part = null;
+                    }
+                    if (!segments.hasNext()) return null;
+
+                    Object segment = segments.next();
+                    if (segment instanceof byte[]) {
+                        return ByteBuffer.wrap((byte[])segment);
+                    }
+                    if (segment instanceof ByteBuffer) {
+                        return (ByteBuffer)segment;
+                    }
+                    part = (Part)segment;
+                }
+            }
+
+            /**
+             * Read the next slice of the current file. Each slice is a new direct buffer, handed over to the transport, which keeps it until it is written.
+             */
+            private ByteBuffer nextFileSlice() throws IOException {
+                if (channel == null) {
+                    channel = part.openChannel();
+                    position = 0;
+                }
+                if (position >= part.length) {
+                    channel.close();
+                    channel = null;
+                    return null;
+                }
+
+                ByteBuffer slice = ByteBuffer.allocateDirect((int)Math.min(FILE_SLICE_SIZE, part.length - position));
+                while (slice.hasRemaining()) {
+                    int bytesNumber = channel.read(slice, position);
+                    if (bytesNumber == -1) {
+                        throw part.changed();
+                    }
+                    position += bytesNumber;
+                }
+                slice.flip();
+                return slice;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Iterate over the body segments: byte arrays for headers and in-memory content, byte buffers for the chunks of large text fields, parts for file content.
+     * Large text fields are converted to UTF-8 only when their chunks are reached, directly from the text, without intermediate strings.
+     * @param reuseTextBuffer Convert all text chunks into the same array. The consumer must be done with a chunk before asking for the next segment.
+     * @return Body segments.
+     */
+    private Iterator<Object> segments(final boolean reuseTextBuffer) {
+        return new Iterator<Object>() {
+            private int partIndex = 0;
+            private int stage = 0; // 0 - header, 1 - content, 2 - new line
+            private int textOffset = 0;
+            private byte[] textBuffer = null;
+            private boolean finished = false;
+
+            @Override
+            public boolean hasNext() {
+                return !finished;
+            }
+
+            @Override
+            public Object next() {
+                if (finished) throw new NoSuchElementException();
+                if (partIndex >= parts.size()) {
+                    finished = true;
+                    return closingBoundary;
+                }
+
+                Part part = parts.get(partIndex);
+                switch (stage) {
+                    case 0:
+                        stage = 1;
+                        textOffset = 0;
+                        return part.header;
+                    case 1:
+                        if (part.text != null && textOffset < part.text.length()) {
+                            int end = Math.min(part.text.length(), textOffset + TEXT_CHUNK_SIZE);
+                            if (end < part.text.length() && Character.isHighSurrogate(part.text.charAt(end - 1)) && Character.isLowSurrogate(part.text.charAt(end))) {
+                                end--; // do not split a surrogate pair
+                            }
+                            byte[] chunk;
+                            if (reuseTextBuffer) {
+                                if (textBuffer == null) textBuffer = new byte[TEXT_CHUNK_BYTES];
+                                chunk = textBuffer;
+                            }
+                            else {
+                                chunk = new byte[(int)utf8Length(part.text, textOffset, end)];
+                            }
+                            int bytesNumber = encodeUtf8(part.text, textOffset, end, chunk);
+                            textOffset = end;
+                            if (textOffset >= part.text.length()) stage = 2;
+                            return ByteBuffer.wrap(chunk, 0, bytesNumber);
+                        }
+                        stage = 2;
+                        if (part.file != null) return part;
+                        return part.data;
+                    default:
+                        stage = 0;
+                        partIndex++;
+                        return NEW_LINE;
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the number of UTF-8 bytes of a range of the text, counting unpaired surrogates as '?' like String.getBytes does.
+     */
+    private static long utf8Length(String text, int start, int end) {
+        long length = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                length += 1;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Convert a range of the text to UTF-8, replacing unpaired surrogates with '?' like String.getBytes does.
+     * @return Number of bytes written to the destination.
+     */
+    private static int encodeUtf8(String text, int start, int end, byte[] dest) {
+        int pos = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                dest[pos++] = (byte)c;
+            }
+            else if (c < 0x800) {
+                dest[pos++] = (byte)(0xc0 | (c >> 6));
+                dest[pos++] = (byte)(0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                dest[pos++] = (byte)(0xf0 | (codePoint >> 18));
+                dest[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                dest[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                dest[pos++] = (byte)(0x80 | (codePoint & 0x3f));
+            }
+            else if (Character.isSurrogate(c)) {
+                dest[pos++] = '?';
+            }
+            else {
+                dest[pos++] = (byte)(0xe0 | (c >> 12));
+                dest[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                dest[pos++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * A part of the multipart body. The content is in memory (as bytes or text) or in a local file.
+     */
+    private static final class Part {
+        final byte[] header;
+        final byte[] data;
+        final String text;
+        final File file;
+        final long length; // length of the file or UTF-8 length of the text
+
+        Part(byte[] header, byte[] data, File file) {
+            this.header = header;
+            this.data = data;
+            this.text = null;
+            this.file = file;
+            this.length = file != null ? file.length() : 0;
+        }
+
+        Part(byte[] header, String text) {
+            this.header = header;
+            this.data = null;
+            this.text = text;
+            this.file = null;
+            this.length = utf8Length(text, 0, text.length());
+        }
+
+        long contentLength() {
+            return data != null ? data.length : length;
+        }
+
+        InputStream openFile() throws IOException {
+            return new FixedLengthInputStream(new FileInputStream(file), length, file.getPath());
+        }
+
+        FileChannel openChannel() throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            if (channel.size() < length) {
+                channel.close();
+                throw changed();
+            }
+            return channel;
+        }
+
+        EOFException changed() {
+            return new EOFException("File " + file.getPath() + " changed while it was uploaded.");
+        }
+    }
+
+    /**
+     * Stream that returns exactly the number of bytes announced in the content length.
+     * It fails if the file got shorter after the content length was computed.
+     */
+    private static final class FixedLengthInputStream extends FilterInputStream {
+        private final String name;
+        private long remaining;
+
+        FixedLengthInputStream(InputStream input, long length, String name) {
+            super(input);
+            this.remaining = length;
+            this.name = name;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int bytesNumber = read(single, 0, 1);
+            return bytesNumber == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) return -1;
+            int bytesNumber = super.read(b, off, (int)Math.min(len, remaining));
+            if (bytesNumber == -1) {
+                throw new EOFException("File " + name + " changed while it was uploaded.");
+            }
+            remaining -= bytesNumber;
+            return bytesNumber;
+        }
+    }
+}
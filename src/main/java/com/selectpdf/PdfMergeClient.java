@@ -1,6 +1,8 @@
 package com.selectpdf;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Pdf Merge with SelectPdf Online API.
@@ -61,7 +63,7 @@ public class PdfMerge {
  * </pre>
  */
 public class PdfMergeClient extends ApiClient {
-    private int fileIdx = 0;
+    private final List<InputFile> inputFiles = new ArrayList<InputFile>();
 
     /**
      * Construct the Pdf Merge Client.
@@ -79,13 +81,7 @@ public class PdfMergeClient extends ApiClient {
      * @return Reference to the current object.
      */
     public PdfMergeClient addFile(String inputPdf) {
-        fileIdx++;
-
-        files.put("file_" + fileIdx, inputPdf);
-        parameters.remove("url_" + fileIdx);
-        parameters.remove("password_" + fileIdx);
-
-        return this;
+        return addInputFile(new InputFile(inputPdf, null, null));
     }
 
     /**
@@ -95,13 +91,7 @@ public class PdfMergeClient extends ApiClient {
      * @return Reference to the current object.
      */
     public PdfMergeClient addFile(String inputPdf, String userPassword) {
-        fileIdx++;
-
-        files.put("file_" + fileIdx, inputPdf);
-        parameters.remove("url_" + fileIdx);
-        parameters.put("password_" + fileIdx, userPassword);
-
-        return this;
+        return addInputFile(new InputFile(inputPdf, null, userPassword));
     }
 
     /**
@@ -110,13 +100,7 @@ public class PdfMergeClient extends ApiClient {
      * @return Reference to the current object.
      */
     public PdfMergeClient addUrlFile(String inputUrl) {
-        fileIdx++;
-
-        files.remove("file_" + fileIdx);
-        parameters.put("url_" + fileIdx, inputUrl);
-        parameters.remove("password_" + fileIdx);
-
-        return this;
+        return addInputFile(new InputFile(null, inputUrl, null));
     }
 
     /**
@@ -126,120 +110,336 @@ public class PdfMergeClient extends ApiClient {
      * @return Reference to the current object.
      */
     public PdfMergeClient addUrlFile(String inputUrl, String userPassword) {
-        fileIdx++;
-
-        files.remove("file_" + fileIdx);
-        parameters.put("url_" + fileIdx, inputUrl);
-        parameters.put("password_" + fileIdx, userPassword);
+        return addInputFile(new InputFile(null, inputUrl, userPassword));
+    }
 
+    private PdfMergeClient addInputFile(InputFile inputFile) {
+        synchronized (inputFiles) {
+            inputFiles.add(inputFile);
+        }
         return this;
     }
 
+    /**
+     * Take a snapshot of the input files added to the client. They stay in the client until the merge succeeds, so a failed merge can be sent again.
+     * @return Input files of the client.
+     */
+    private InputFiles pendingFiles() {
+        synchronized (inputFiles) {
+            return new InputFiles(List.copyOf(inputFiles));
+        }
+    }
+
+    /**
+     * Remove the merged input files from the client, so the client is ready for the next merge. Files added in the meantime are kept.
+     * @param files Input files of the merge that succeeded.
+     */
+    private void merged(InputFiles files) {
+        synchronized (inputFiles) {
+            inputFiles.removeAll(files.files);
+        }
+    }
+
+    /**
+     * Remove the input files from the client when a future merge succeeds. Cancelling the returned future aborts the merge.
+     * @param call Future merge.
+     * @param files Input files of the merge.
+     * @return Future result, completed after the input files are removed.
+     */
+    private CompletableFuture<ApiResult> mergedOnSuccess(final CompletableFuture<ApiResult> call, final InputFiles files) {
+        CompletableFuture<ApiResult> result = call.whenComplete((value, ex) -> {
+            if (ex == null) merged(files);
+        });
+        result.whenComplete((value, ex) -> {
+            if (ex != null) call.cancel(true);
+        });
+        return result;
+    }
+
+    /**
+     * Build the merge request from the current options and the specified input files.
+     * @param files Input files.
+     * @return Request with the current options and the input files.
+     */
+    private ApiRequest mergeRequest(InputFiles files) {
+        List<InputFile> currentFiles = files.files;
+
+        ApiRequest request = newRequest().withParameter("files_no", Integer.toString(currentFiles.size()));
+        for (int fileIdx = 1; fileIdx <= currentFiles.size(); fileIdx++) {
+            InputFile inputFile = currentFiles.get(fileIdx - 1);
+            if (inputFile.filePath != null) {
+                request = request.withFile("file_" + fileIdx, inputFile.filePath);
+            }
+            else {
+                request = request.withParameter("url_" + fileIdx, inputFile.url);
+            }
+            if (inputFile.password != null) {
+                request = request.withParameter("password_" + fileIdx, inputFile.password);
+            }
+        }
+        return request;
+    }
+
     /**
      * Merge all specified input pdfs and return the resulted PDF.
+     * The input files are removed from the client when the merge succeeds.
      * @return Byte array containing the resulted PDF.
      */
     public byte[] save() {
-        parameters.put("async", "False");
-        parameters.put("files_no", Integer.toString(fileIdx));
-
-        byte[] result = performPostAsMultipartFormData(null);
+        InputFiles files = pendingFiles();
+        byte[] result = save(files);
+        merged(files);
+        return result;
+    }
 
-        fileIdx = 0;
-        files.clear();
+    /**
+     * Merge the specified input pdfs and return the resulted PDF. The input files added to the client are not used.
+     * @param files Input files.
+     * @return Byte array containing the resulted PDF.
+     */
+    public byte[] save(InputFiles files) {
+        ApiRequest request = mergeRequest(files).withParameter("async", "False");
 
-        return result;
+        return performPostAsMultipartFormData(request, null).getContent();
     }
 
     /**
      * Merge all specified input pdfs and writes the resulted PDF to a local file.
+     * The input files are removed from the client when the merge succeeds.
      * @param filePath Local output file including path if necessary.
      */
     public void saveToFile(String filePath) throws IOException 
     {
-        byte[] result = save();
-        FileOutputStream outputFile = new FileOutputStream(filePath);
-        outputFile.write(result);
-        outputFile.close();
+        writeToFile(filePath, stream -> saveToStream(stream));
+    }
+
+    /**
+     * Merge the specified input pdfs and writes the resulted PDF to a local file. The input files added to the client are not used.
+     * @param files Input files.
+     * @param filePath Local output file including path if necessary.
+     */
+    public void saveToFile(InputFiles files, String filePath) throws IOException 
+    {
+        writeToFile(filePath, stream -> saveToStream(files, stream));
     }
 
     /**
      * Merge all specified input pdfs and writes the resulted PDF to a specified stream.
+     * The input files are removed from the client when the merge succeeds.
      * @param stream The output stream where the resulted PDF will be written.
      */
     public void saveToStream(OutputStream stream) throws IOException 
     {
-        byte[] result = save();
-        stream.write(result);
+        InputFiles files = pendingFiles();
+        saveToStream(files, stream);
+        merged(files);
+    }
+
+    /**
+     * Merge the specified input pdfs and writes the resulted PDF to a specified stream. The input files added to the client are not used.
+     * @param files Input files.
+     * @param stream The output stream where the resulted PDF will be written.
+     */
+    public void saveToStream(InputFiles files, OutputStream stream) throws IOException 
+    {
+        ApiRequest request = mergeRequest(files).withParameter("async", "False");
+
+        performPostAsMultipartFormData(request, stream);
     }
 
     /**
      * Merge all specified input pdfs and return the resulted PDF. An asynchronous call is used.
+     * The input files are removed from the client when the merge succeeds.
      * @return Byte array containing the resulted PDF.
      */
     public byte[] saveAsync() {
-        parameters.put("files_no", Integer.toString(fileIdx));
+        InputFiles files = pendingFiles();
+        byte[] result = saveAsync(files);
+        merged(files);
+        return result;
+    }
 
-        String JobID = startAsyncJobMultipartFormData();
+    /**
+     * Merge the specified input pdfs and return the resulted PDF. An asynchronous call is used. The input files added to the client are not used.
+     * @param files Input files.
+     * @return Byte array containing the resulted PDF.
+     */
+    public byte[] saveAsync(InputFiles files) {
+        ApiRequest request = mergeRequest(files);
 
-        if (JobID == null || JobID.isBlank()) {
-            throw new ApiException("An error occurred launching the asynchronous call.");
-        }
+        return runAsyncJob(request, true).getContent();
+    }
 
-        int noPings = 0;
+    /**
+     * Merge all specified input pdfs and writes the resulted PDF to a local file. An asynchronous call is used.
+     * The input files are removed from the client when the merge succeeds.
+     * @param filePath Local output file including path if necessary.
+     */
+    public void saveToFileAsync(String filePath) throws IOException 
+    {
+        writeToFile(filePath, stream -> saveToStreamAsync(stream));
+    }
 
-        do
-        {
-            noPings++;
+    /**
+     * Merge the specified input pdfs and writes the resulted PDF to a local file. An asynchronous call is used. The input files added to the client are not used.
+     * @param files Input files.
+     * @param filePath Local output file including path if necessary.
+     */
+    public void saveToFileAsync(InputFiles files, String filePath) throws IOException 
+    {
+        writeToFile(filePath, stream -> saveToStreamAsync(files, stream));
+    }
 
-            // sleep for a few seconds before next ping
-            try {
-                java.util.concurrent.TimeUnit.SECONDS.sleep(AsyncCallsPingInterval);
-            }
-            catch (InterruptedException ex) {}
+    /**
+     * Merge all specified input pdfs and writes the resulted PDF to a specified stream. An asynchronous call is used.
+     * The input files are removed from the client when the merge succeeds.
+     * @param stream The output stream where the resulted PDF will be written.
+     */
+    public void saveToStreamAsync(OutputStream stream) throws IOException 
+    {
+        InputFiles files = pendingFiles();
+        saveToStreamAsync(files, stream);
+        merged(files);
+    }
 
-            AsyncJobClient asyncJobClient = new AsyncJobClient(parameters.get("key"), JobID);
-            asyncJobClient.setApiEndpoint(apiAsyncEndpoint);
+    /**
+     * Merge the specified input pdfs and writes the resulted PDF to a specified stream. An asynchronous call is used. The input files added to the client are not used.
+     * @param files Input files.
+     * @param stream The output stream where the resulted PDF will be written.
+     */
+    public void saveToStreamAsync(InputFiles files, OutputStream stream) throws IOException 
+    {
+        ApiRequest request = mergeRequest(files);
 
-            byte[] result = asyncJobClient.getResult();
+        runAsyncJob(request, true, stream);
+    }
 
-            if (asyncJobClient.finished())
-            {
-                numberOfPages = asyncJobClient.getNumberOfPages();
+    /**
+     * Merge all specified input pdfs and return the call result: number of pages, job ID, length, timings and the content, kept in memory or, for large documents, in a temporary file (see setResultMemoryThreshold).
+     * The input files are removed from the client when the merge succeeds.
+     * @return Result containing the resulted PDF. Close it to delete the temporary file of a large PDF.
+     */
+    public ApiResult saveToResult() {
+        InputFiles files = pendingFiles();
+        ApiResult result = saveToResult(files);
+        merged(files);
+        return result;
+    }
 
-                fileIdx = 0;
-                files.clear();
+    /**
+     * Merge the specified input pdfs and return the call result. The input files added to the client are not used.
+     * @param files Input files.
+     * @return Result containing the resulted PDF. Close it to delete the temporary file of a large PDF.
+     */
+    public ApiResult saveToResult(InputFiles files) {
+        ApiRequest request = mergeRequest(files).withParameter("async", "False");
 
-                return result;
-            }
+        return performPostAsMultipartFormData(request, null);
+    }
+
+    /**
+     * Merge all specified input pdfs with an asynchronous call and return the call result: number of pages, job ID, length, timings and the content, kept in memory or, for large documents, in a temporary file (see setResultMemoryThreshold).
+     * The input files are removed from the client when the merge succeeds.
+     * @return Result containing the resulted PDF. Close it to delete the temporary file of a large PDF.
+     */
+    public ApiResult saveToResultAsync() {
+        InputFiles files = pendingFiles();
+        ApiResult result = saveToResultAsync(files);
+        merged(files);
+        return result;
+    }
 
-        } while (noPings <= AsyncCallsMaxPings);
+    /**
+     * Merge the specified input pdfs with an asynchronous call and return the call result. The input files added to the client are not used.
+     * @param files Input files.
+     * @return Result containing the resulted PDF. Close it to delete the temporary file of a large PDF.
+     */
+    public ApiResult saveToResultAsync(InputFiles files) {
+        ApiRequest request = mergeRequest(files);
 
-        fileIdx = 0;
-        files.clear();
-        throw new ApiException("Asynchronous call did not finish in expected timeframe.");    
+        return runAsyncJob(request, true);
     }
 
     /**
-     * Merge all specified input pdfs and writes the resulted PDF to a local file. An asynchronous call is used.
-     * @param filePath Local output file including path if necessary.
+     * Merge all specified input pdfs without blocking the calling thread.
+     * The future completes on the executor of the client (see setExecutor). The input files are removed from the client when the merge succeeds.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the merge.
      */
-    public void saveToFileAsync(String filePath) throws IOException 
-    {
-        byte[] result = saveAsync();
-        FileOutputStream outputFile = new FileOutputStream(filePath);
-        outputFile.write(result);
-        outputFile.close();
+    public CompletableFuture<ApiResult> saveFuture() {
+        return saveFuture(getExecutor());
     }
 
     /**
-     * Merge all specified input pdfs and writes the resulted PDF to a specified stream. An asynchronous call is used.
-     * @param stream The output stream where the resulted PDF will be written.
+     * Merge all specified input pdfs without blocking the calling thread. The input files are removed from the client when the merge succeeds.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the merge.
      */
-    public void saveToStreamAsync(OutputStream stream) throws IOException 
-    {
-        byte[] result = saveAsync();
-        stream.write(result);
+    public CompletableFuture<ApiResult> saveFuture(Executor executor) {
+        InputFiles files = pendingFiles();
+        return mergedOnSuccess(saveFuture(files, executor), files);
+    }
+
+    /**
+     * Merge the specified input pdfs without blocking the calling thread. The input files added to the client are not used.
+     * The future completes on the executor of the client (see setExecutor).
+     * @param files Input files.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the merge.
+     */
+    public CompletableFuture<ApiResult> saveFuture(InputFiles files) {
+        return saveFuture(files, getExecutor());
+    }
+
+    /**
+     * Merge the specified input pdfs without blocking the calling thread. The input files added to the client are not used.
+     * @param files Input files.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) aborts the merge.
+     */
+    public CompletableFuture<ApiResult> saveFuture(InputFiles files, Executor executor) {
+        ApiRequest request = mergeRequest(files).withParameter("async", "False");
+
+        return performPostFuture(request, null, true, executor);
+    }
+
+    /**
+     * Merge all specified input pdfs with an asynchronous call, without blocking the calling thread.
+     * The input files are removed from the client when the merge succeeds.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> saveAsyncFuture() {
+        return saveAsyncFuture(getExecutor());
+    }
+
+    /**
+     * Merge all specified input pdfs with an asynchronous call, without blocking the calling thread.
+     * The job is pinged as decided by the asynchronous polling policy and no thread waits between pings. The input files are removed from the client when the merge succeeds.
+     * @param executor Executor that sends the pings and completes the future.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> saveAsyncFuture(Executor executor) {
+        InputFiles files = pendingFiles();
+        return mergedOnSuccess(saveAsyncFuture(files, executor), files);
+    }
+
+    /**
+     * Merge the specified input pdfs with an asynchronous call, without blocking the calling thread. The input files added to the client are not used.
+     * @param files Input files.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> saveAsyncFuture(InputFiles files) {
+        return saveAsyncFuture(files, getExecutor());
+    }
+
+    /**
+     * Merge the specified input pdfs with an asynchronous call, without blocking the calling thread. The input files added to the client are not used.
+     * @param files Input files.
+     * @param executor Executor that sends the pings and completes the future.
+     * @return Future result containing the resulted PDF. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> saveAsyncFuture(InputFiles files, Executor executor) {
+        ApiRequest request = mergeRequest(files);
+
+        return runAsyncJobFuture(request, true, executor);
     }
 
     /**
@@ -411,6 +611,7 @@ public class PdfMergeClient extends ApiClient {
     /**
      * Set the maximum amount of time (in seconds) for this job. 
      * The default value is 30 seconds. Use a larger value (up to 120 seconds allowed) for large documents.
+     * The read timeout of the client follows this value (see setReadTimeoutMargin).
      * @param timeout Timeout in seconds.
      * @return Reference to the current object.
      */
@@ -431,4 +632,99 @@ public class PdfMergeClient extends ApiClient {
         return this;
     }
 
-}
+    /**
+     * Immutable list of the input PDF documents of a merge, passed to the save methods that take it.
+     * Each call gets its own input files, so merges running in parallel on the same client do not mix their files, and a failed merge can be sent again.
+     * <pre>
+     * {@code
+     * byte[] pdf = client.save(PdfMergeClient.InputFiles.empty().withFile("Input.pdf").withUrlFile("https://selectpdf.com/demo/files/selectpdf.pdf"));
+     * }
+     * </pre>
+     */
+    public static final class InputFiles {
+        private static final InputFiles EMPTY = new InputFiles(List.of());
+
+        private final List<InputFile> files;
+
+        private InputFiles(List<InputFile> files) {
+            this.files = files;
+        }
+
+        /**
+         * Get an empty list of input files.
+         * @return Empty list.
+         */
+        public static InputFiles empty() {
+            return EMPTY;
+        }
+
+        /**
+         * Get a copy of this list with a local PDF document added.
+         * @param inputPdf Path to a local PDF file.
+         * @return New list.
+         */
+        public InputFiles withFile(String inputPdf) {
+            return with(new InputFile(inputPdf, null, null));
+        }
+
+        /**
+         * Get a copy of this list with a local PDF document added.
+         * @param inputPdf Path to a local PDF file.
+         * @param userPassword User password for the PDF document.
+         * @return New list.
+         */
+        public InputFiles withFile(String inputPdf, String userPassword) {
+            return with(new InputFile(inputPdf, null, userPassword));
+        }
+
+        /**
+         * Get a copy of this list with a remote PDF document added.
+         * @param inputUrl Url of a remote PDF file.
+         * @return New list.
+         */
+        public InputFiles withUrlFile(String inputUrl) {
+            return with(new InputFile(null, inputUrl, null));
+        }
+
+        /**
+         * Get a copy of this list with a remote PDF document added.
+         * @param inputUrl Url of a remote PDF file.
+         * @param userPassword User password for the PDF document.
+         * @return New list.
+         */
+        public InputFiles withUrlFile(String inputUrl, String userPassword) {
+            return with(new InputFile(null, inputUrl, userPassword));
+        }
+
+        /**
+         * Get the number of input files.
+         * @return Number of input files.
+         */
+        public int size() {
+            return files.size();
+        }
+
+        private InputFiles with(InputFile inputFile) {
+            List<InputFile> result = new ArrayList<InputFile>(files.size() + 1);
+            result.addAll(files);
+            result.add(inputFile);
+            return new InputFiles(Collections.unmodifiableList(result));
+        }
+    }
+
+    /**
+     * Input PDF document: a local file or a remote url, with an optional user password.
+     */
+    private static final class InputFile {
+        final String filePath;
+        final String url;
+        final String password;
+
+        InputFile(String filePath, String url, String password) {
+            this.filePath = filePath;
+            this.url = url;
+            this.password = password;
+        }
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Content returned by the API (the resulted PDF, extracted text, etc), kept in memory or in a temporary file.
+ *
+ * Small results are kept on heap. Results larger than the memory threshold of the client (see {@link ApiClient#setResultMemoryThreshold(long)})
+ * are written to a temporary file while they are received, so the heap used by a call never exceeds the threshold.
+ * File results are read through streams or memory-mapped buffers, or moved to their final location without copying.
+ * Close the result to delete its temporary file (the file is also deleted when the result is garbage collected).
+ */
+public final class PdfResult implements Closeable {
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final long length;
+    private final TempFile tempFile;
+    private final Cleaner.Cleanable cleanable;
+    private byte[] data;
+    private Path file;
+    private ByteBuffer mapped;
+
+    /**
+     * Construct a result kept in memory.
+     * @param data Content. The array is not copied.
+     */
+    public PdfResult(byte[] data) {
+        this.data = data;
+        this.length = data.length;
+        this.tempFile = null;
+        this.cleanable = null;
+    }
+
+    /**
+     * Construct a result kept in a temporary file, that is deleted when the result is closed.
+     * @param file Temporary file.
+     * @param length Content length.
+     */
+    PdfResult(Path file, long length) {
+        this.file = file;
+        this.length = length;
+        this.tempFile = new TempFile(file);
+        this.cleanable = CLEANER.register(this, tempFile);
+    }
+
+    /**
+     * Get the length of the content.
+     * @return Length in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Check if the content is kept in memory.
+     * @return True if the content is in memory, False if it is in a file.
+     */
+    public synchronized boolean isInMemory() {
+        return data != null;
+    }
+
+    /**
+     * Get a stream that reads the content. Each call returns a new stream.
+     * @return Input stream.
+     * @throws IOException
+     */
+    public synchronized InputStream getInputStream() throws IOException {
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
+        return new BufferedInputStream(Files.newInputStream(checkFile()), 65536);
+    }
+
+    /**
+     * Get a read-only buffer with the content. File contents are memory-mapped, not read on heap. Each call returns a new buffer (sharing the same content).
+     * @return Read-only byte buffer.
+     * @throws IOException
+     */
+    public synchronized ByteBuffer getByteBuffer() throws IOException {
+        if (data != null) {
+            return ByteBuffer.wrap(data).asReadOnlyBuffer();
+        }
+        if (mapped == null) {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Result is too large to be mapped in a single buffer: " + length + " bytes.");
+            }
+            try (FileChannel channel = FileChannel.open(checkFile(), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+        }
+        return mapped.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the content as a byte array. A file result is loaded in memory (and its temporary file is deleted), so call this only for results that fit on heap.
+     * @return Content. The array is not copied, do not modify it.
+     * @throws IOException
+     */
+    public synchronized byte[] getBytes() throws IOException {
+        if (data == null) {
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException("Result is too large for a byte array: " + length + " bytes.");
+            }
+            data = Files.readAllBytes(checkFile());
+            // the content is in memory now, release the disk space
+            close();
+        }
+        return data;
+    }
+
+    /**
+     * Move the content to a local file. A temporary file is renamed (no copy), a result in memory is written to the file.
+     * Either way, the target file appears complete or not at all. After the move, a file result reads its content from the target file.
+     * @param target Target file. An existing file is replaced.
+     * @throws IOException
+     */
+    public synchronized void moveTo(Path target) throws IOException {
+        if (data != null) {
+            final byte[] content = data;
+            ApiClient.writeToFile(target.toString(), stream -> stream.write(content));
+            return;
+        }
+
+        Path current = checkFile();
+        try {
+            Files.move(current, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException ex) {
+            // another file system (the temporary folder is on a different disk)
+            ApiClient.writeToFile(target.toString(), stream -> Files.copy(current, stream));
+            Files.deleteIfExists(current);
+        }
+        if (tempFile != null) {
+            // the file belongs to the caller now
+            tempFile.path = null;
+        }
+        file = target;
+    }
+
+    /**
+     * Delete the temporary file of the result, if any. A result moved to a file or kept in memory is not affected.
+     */
+    @Override
+    public synchronized void close() {
+        if (tempFile != null && tempFile.path != null) {
+            cleanable.clean();
+            file = null;
+            mapped = null;
+        }
+    }
+
+    private Path checkFile() throws IOException {
+        if (file == null) {
+            throw new IOException("Result was closed.");
+        }
+        return file;
+    }
+
+    /**
+     * Temporary file deleted when the result is closed or garbage collected. Does not reference the result.
+     */
+    private static final class TempFile implements Runnable {
+        volatile Path path;
+
+        TempFile(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void run() {
+            Path current = path;
+            path = null;
+            if (current != null) {
+                try {
+                    Files.deleteIfExists(current);
+                }
+                catch (IOException ignored) {
+                    // still mapped (on Windows) or already gone
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.selectpdf;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
 
 /**
  * Pdf To Text Conversion with SelectPdf Online API.
@@ -77,6 +78,9 @@ public class PdfToTextClient extends ApiClient {
     {
         apiEndpoint = "https://selectpdf.com/api2/pdftotext/";
         parameters.put("key", apiKey);
+
+        // text output compresses well, it is decoded on the fly
+        responseCompression = true;
     }
     
     /**
@@ -85,14 +89,9 @@ public class PdfToTextClient extends ApiClient {
      * @return Extracted text.
      */
     public String getTextFromFile(String inputPdf) {
-        parameters.put("async", "False");
-        parameters.put("action", "Convert");
-        parameters.remove("url");
-
-        files.clear();
-        files.put("inputPdf", inputPdf);
+        ApiRequest request = fileRequest(inputPdf, "Convert").withParameter("async", "False");
 
-        byte[] result = performPostAsMultipartFormData(null);
+        byte[] result = performPostAsMultipartFormData(request, null).getContent();
         return new String(result, StandardCharsets.UTF_8);
     }
     
@@ -103,10 +102,7 @@ public class PdfToTextClient extends ApiClient {
      */
     public void getTextFromFileToFile(String inputPdf, String outputFilePath) throws IOException  
     {
-        String result = getTextFromFile(inputPdf);
-        FileOutputStream outputFile = new FileOutputStream(outputFilePath);
-        outputFile.write(result.getBytes("UTF-8"));
-        outputFile.close();
+        writeToFile(outputFilePath, stream -> getTextFromFileToStream(inputPdf, stream));
     }
 
     /**
@@ -116,8 +112,9 @@ public class PdfToTextClient extends ApiClient {
      */
     public void getTextFromFileToStream(String inputPdf, OutputStream stream) throws IOException  
     {
-        String result = getTextFromFile(inputPdf);
-        stream.write(result.getBytes("UTF-8"));
+        ApiRequest request = fileRequest(inputPdf, "Convert").withParameter("async", "False");
+
+        performPostAsMultipartFormData(request, stream);
     }    
     
     /**
@@ -126,48 +123,11 @@ public class PdfToTextClient extends ApiClient {
      * @return Extracted text.
      */
     public String getTextFromFileAsync(String inputPdf) {
-        parameters.put("action", "Convert");
-        parameters.remove("url");
-
-        files.clear();
-        files.put("inputPdf", inputPdf);
-
-        String JobID = startAsyncJobMultipartFormData();
-
-        if (JobID == null || JobID.isBlank()) {
-            throw new ApiException("An error occurred launching the asynchronous call.");
-        }
-
-        int noPings = 0;
-
-        do
-        {
-            noPings++;
-
-            // sleep for a few seconds before next ping
-            try {
-                java.util.concurrent.TimeUnit.SECONDS.sleep(AsyncCallsPingInterval);
-            }
-            catch (InterruptedException ex) {}
-
-            AsyncJobClient asyncJobClient = new AsyncJobClient(parameters.get("key"), JobID);
-            asyncJobClient.setApiEndpoint(apiAsyncEndpoint);
+        ApiRequest request = fileRequest(inputPdf, "Convert");
 
-            byte[] result = asyncJobClient.getResult();
+        byte[] result = runAsyncJob(request, true).getContent();
 
-            if (asyncJobClient.finished())
-            {
-                numberOfPages = asyncJobClient.getNumberOfPages();
-
-                files.clear();
-
-                return new String(result, StandardCharsets.UTF_8);
-            }
-
-        } while (noPings <= AsyncCallsMaxPings);
-
-        files.clear();
-        throw new ApiException("Asynchronous call did not finish in expected timeframe.");    
+        return new String(result, StandardCharsets.UTF_8);
     }
     
     /**
@@ -177,10 +137,7 @@ public class PdfToTextClient extends ApiClient {
      */
     public void getTextFromFileToFileAsync(String inputPdf, String outputFilePath) throws IOException  
     {
-        String result = getTextFromFileAsync(inputPdf);
-        FileOutputStream outputFile = new FileOutputStream(outputFilePath);
-        outputFile.write(result.getBytes("UTF-8"));
-        outputFile.close();
+        writeToFile(outputFilePath, stream -> getTextFromFileToStreamAsync(inputPdf, stream));
     }
 
     /**
@@ -190,32 +147,46 @@ public class PdfToTextClient extends ApiClient {
      */
     public void getTextFromFileToStreamAsync(String inputPdf, OutputStream stream) throws IOException  
     {
-        String result = getTextFromFileAsync(inputPdf);
-        stream.write(result.getBytes("UTF-8"));
+        ApiRequest request = fileRequest(inputPdf, "Convert");
+
+        runAsyncJob(request, true, stream);
     }
     
+    /**
+     * Get the text from the specified pdf and return the call result: number of pages, length, timings and the text, 
+     * kept in memory or, for large texts, in a temporary file (see setResultMemoryThreshold). Use getText() to read the text.
+     * @param inputPdf Path to a local PDF file.
+     * @return Result containing the extracted text. Close it to delete the temporary file of a large text.
+     */
+    public ApiResult getTextFromFileToResult(String inputPdf) {
+        ApiRequest request = fileRequest(inputPdf, "Convert").withParameter("async", "False");
+
+        return performPostAsMultipartFormData(request, null);
+    }
+
+    /**
+     * Get the text from the specified pdf with an asynchronous call and return the call result: number of pages, job ID, length, timings and the text, 
+     * kept in memory or, for large texts, in a temporary file (see setResultMemoryThreshold). Use getText() to read the text.
+     * @param inputPdf Path to a local PDF file.
+     * @return Result containing the extracted text. Close it to delete the temporary file of a large text.
+     */
+    public ApiResult getTextFromFileToResultAsync(String inputPdf) {
+        ApiRequest request = fileRequest(inputPdf, "Convert");
+
+        return runAsyncJob(request, true);
+    }
+
     /**
      * Get the text from the specified pdf.
      * @param url Address of the PDF file.
      * @return Extracted text.
      */
     public String getTextFromUrl(String url) {
-        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
-        {
-            throw new ApiException("The supported protocols for the PDFs available online are http:// and https://.");
-        }
-        if (url.startsWith("http://localhost", 0))
-        {
-            throw new ApiException("Cannot convert local urls via this method. Use getTextFromFile instead.");
-        }
-
-        parameters.put("async", "False");
-        parameters.put("action", "Convert");
-        parameters.put("url", url);
+        checkUrl(url, "getTextFromFile");
 
-        files.clear();
+        ApiRequest request = urlRequest(url, "Convert").withParameter("async", "False");
 
-        byte[] result = performPostAsMultipartFormData(null);
+        byte[] result = performPostAsMultipartFormData(request, null).getContent();
         return new String(result, StandardCharsets.UTF_8);
     }
     
@@ -226,10 +197,7 @@ public class PdfToTextClient extends ApiClient {
      */
     public void getTextFromUrlToFile(String url, String outputFilePath) throws IOException  
     {
-        String result = getTextFromUrl(url);
-        FileOutputStream outputFile = new FileOutputStream(outputFilePath);
-        outputFile.write(result.getBytes("UTF-8"));
-        outputFile.close();
+        writeToFile(outputFilePath, stream -> getTextFromUrlToStream(url, stream));
     }
 
     /**
@@ -239,8 +207,11 @@ public class PdfToTextClient extends ApiClient {
      */
     public void getTextFromUrlToStream(String url, OutputStream stream) throws IOException  
     {
-        String result = getTextFromUrl(url);
-        stream.write(result.getBytes("UTF-8"));
+        checkUrl(url, "getTextFromFile");
+
+        ApiRequest request = urlRequest(url, "Convert").withParameter("async", "False");
+
+        performPostAsMultipartFormData(request, stream);
     }    
     
     /**
@@ -249,56 +220,13 @@ public class PdfToTextClient extends ApiClient {
      * @return Extracted text.
      */
     public String getTextFromUrlAsync(String url) {
-        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
-        {
-            throw new ApiException("The supported protocols for the PDFs available online are http:// and https://.");
-        }
-        if (url.startsWith("http://localhost", 0))
-        {
-            throw new ApiException("Cannot convert local urls via this method. Use getTextFromFileAsync instead.");
-        }
-
-        parameters.put("action", "Convert");
-        parameters.put("url", url);
+        checkUrl(url, "getTextFromFileAsync");
 
-        files.clear();
+        ApiRequest request = urlRequest(url, "Convert");
 
-        String JobID = startAsyncJobMultipartFormData();
+        byte[] result = runAsyncJob(request, true).getContent();
 
-        if (JobID == null || JobID.isBlank()) {
-            throw new ApiException("An error occurred launching the asynchronous call.");
-        }
-
-        int noPings = 0;
-
-        do
-        {
-            noPings++;
-
-            // sleep for a few seconds before next ping
-            try {
-                java.util.concurrent.TimeUnit.SECONDS.sleep(AsyncCallsPingInterval);
-            }
-            catch (InterruptedException ex) {}
-
-            AsyncJobClient asyncJobClient = new AsyncJobClient(parameters.get("key"), JobID);
-            asyncJobClient.setApiEndpoint(apiAsyncEndpoint);
-
-            byte[] result = asyncJobClient.getResult();
-
-            if (asyncJobClient.finished())
-            {
-                numberOfPages = asyncJobClient.getNumberOfPages();
-
-                files.clear();
-
-                return new String(result, StandardCharsets.UTF_8);
-            }
-
-        } while (noPings <= AsyncCallsMaxPings);
-
-        files.clear();
-        throw new ApiException("Asynchronous call did not finish in expected timeframe.");    
+        return new String(result, StandardCharsets.UTF_8);
     }
     
     /**
@@ -308,10 +236,7 @@ public class PdfToTextClient extends ApiClient {
      */
     public void getTextFromUrlToFileAsync(String url, String outputFilePath) throws IOException  
     {
-        String result = getTextFromUrlAsync(url);
-        FileOutputStream outputFile = new FileOutputStream(outputFilePath);
-        outputFile.write(result.getBytes("UTF-8"));
-        outputFile.close();
+        writeToFile(outputFilePath, stream -> getTextFromUrlToStreamAsync(url, stream));
     }
 
     /**
@@ -321,11 +246,42 @@ public class PdfToTextClient extends ApiClient {
      */
     public void getTextFromUrlToStreamAsync(String url, OutputStream stream) throws IOException  
     {
-        String result = getTextFromUrlAsync(url);
-        stream.write(result.getBytes("UTF-8"));
+        checkUrl(url, "getTextFromFileAsync");
+
+        ApiRequest request = urlRequest(url, "Convert");
+
+        runAsyncJob(request, true, stream);
     }
 
     
+    /**
+     * Get the text from the specified pdf and return the call result: number of pages, length, timings and the text, 
+     * kept in memory or, for large texts, in a temporary file (see setResultMemoryThreshold). Use getText() to read the text.
+     * @param url Address of the PDF file.
+     * @return Result containing the extracted text. Close it to delete the temporary file of a large text.
+     */
+    public ApiResult getTextFromUrlToResult(String url) {
+        checkUrl(url, "getTextFromFileToResult");
+
+        ApiRequest request = urlRequest(url, "Convert").withParameter("async", "False");
+
+        return performPostAsMultipartFormData(request, null);
+    }
+
+    /**
+     * Get the text from the specified pdf with an asynchronous call and return the call result: number of pages, job ID, length, timings and the text, 
+     * kept in memory or, for large texts, in a temporary file (see setResultMemoryThreshold). Use getText() to read the text.
+     * @param url Address of the PDF file.
+     * @return Result containing the extracted text. Close it to delete the temporary file of a large text.
+     */
+    public ApiResult getTextFromUrlToResultAsync(String url) {
+        checkUrl(url, "getTextFromFileToResultAsync");
+
+        ApiRequest request = urlRequest(url, "Convert");
+
+        return runAsyncJob(request, true);
+    }
+
     /**
      * Search for a specific text in a PDF document. The search is case insensitive and returns partial words also.
      * Pages that participate to this operation are specified by setStartPage() and setEndPage() methods.
@@ -350,24 +306,15 @@ public class PdfToTextClient extends ApiClient {
     public String searchFile(String inputPdf, String textToSearch, Boolean caseSensitive, Boolean wholeWordsOnly)
     {
         if (textToSearch == null || textToSearch.isBlank()) {
-            throw new ApiException("Search text cannot be empty.");
+            throw new ValidationException("Search text cannot be empty.");
         }
 
-        parameters.put("async", "False");
-        parameters.put("action", "Search");
-        parameters.remove("url");
-        parameters.put("search_text", textToSearch);
-        parameters.put("case_sensitive", Boolean.toString(caseSensitive));
-        parameters.put("whole_words_only", Boolean.toString(wholeWordsOnly));
-
-        files.clear();
-        files.put("inputPdf", inputPdf);
-
-        headers.put("Accept", "text/json");
+        ApiRequest request = searchRequest(fileRequest(inputPdf, "Search"), textToSearch, caseSensitive, wholeWordsOnly)
+            .withParameter("async", "False");
 
         try
         {
-            byte[] result = performPostAsMultipartFormData(null);
+            byte[] result = performPostAsMultipartFormData(request, null).getContent();
 
             String textPositions = new String(result, StandardCharsets.UTF_8);
             return textPositions;
@@ -402,56 +349,14 @@ public class PdfToTextClient extends ApiClient {
     public String searchFileAsync(String inputPdf, String textToSearch, Boolean caseSensitive, Boolean wholeWordsOnly)
     {
         if (textToSearch == null || textToSearch.isBlank()) {
-            throw new ApiException("Search text cannot be empty.");
-        }
-
-        parameters.put("action", "Search");
-        parameters.remove("url");
-        parameters.put("search_text", textToSearch);
-        parameters.put("case_sensitive", Boolean.toString(caseSensitive));
-        parameters.put("whole_words_only", Boolean.toString(wholeWordsOnly));
-
-        files.clear();
-        files.put("inputPdf", inputPdf);
-
-        headers.put("Accept", "text/json");
-
-        String JobID = startAsyncJobMultipartFormData();
-
-        if (JobID == null || JobID.isBlank()) {
-            throw new ApiException("An error occurred launching the asynchronous call.");
+            throw new ValidationException("Search text cannot be empty.");
         }
 
-        int noPings = 0;
-
-        do
-        {
-            noPings++;
-
-            // sleep for a few seconds before next ping
-            try {
-                java.util.concurrent.TimeUnit.SECONDS.sleep(AsyncCallsPingInterval);
-            }
-            catch (InterruptedException ex) {}
-
-            AsyncJobClient asyncJobClient = new AsyncJobClient(parameters.get("key"), JobID);
-            asyncJobClient.setApiEndpoint(apiAsyncEndpoint);
-
-            byte[] result = asyncJobClient.getResult();
-
-            if (asyncJobClient.finished())
-            {
-                numberOfPages = asyncJobClient.getNumberOfPages();
-
-                files.clear();
-
-                return new String(result, StandardCharsets.UTF_8);
-            }
+        ApiRequest request = searchRequest(fileRequest(inputPdf, "Search"), textToSearch, caseSensitive, wholeWordsOnly);
 
-        } while (noPings <= AsyncCallsMaxPings);
+        byte[] result = runAsyncJob(request, true).getContent();
 
-        files.clear();
-        throw new ApiException("Asynchronous call did not finish in expected timeframe.");    
+        return new String(result, StandardCharsets.UTF_8);
     }
 
     /**
@@ -477,33 +382,18 @@ public class PdfToTextClient extends ApiClient {
      */
     public String searchUrl(String url, String textToSearch, Boolean caseSensitive, Boolean wholeWordsOnly)
     {
-        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
-        {
-            throw new ApiException("The supported protocols for the PDFs available online are http:// and https://.");
-        }
-        if (url.startsWith("http://localhost", 0))
-        {
-            throw new ApiException("Cannot convert local urls via this method. Use searchFile instead.");
-        }
+        checkUrl(url, "searchFile");
 
         if (textToSearch == null || textToSearch.isBlank()) {
-            throw new ApiException("Search text cannot be empty.");
+            throw new ValidationException("Search text cannot be empty.");
         }
 
-        parameters.put("async", "False");
-        parameters.put("action", "Search");
-        parameters.put("url", url);
-        parameters.put("search_text", textToSearch);
-        parameters.put("case_sensitive", Boolean.toString(caseSensitive));
-        parameters.put("whole_words_only", Boolean.toString(wholeWordsOnly));
-
-        files.clear();
-
-        headers.put("Accept", "text/json");
+        ApiRequest request = searchRequest(urlRequest(url, "Search"), textToSearch, caseSensitive, wholeWordsOnly)
+            .withParameter("async", "False");
 
         try
         {
-            byte[] result = performPostAsMultipartFormData(null);
+            byte[] result = performPostAsMultipartFormData(request, null).getContent();
 
             String textPositions = new String(result, StandardCharsets.UTF_8);
             return textPositions;
@@ -537,65 +427,176 @@ public class PdfToTextClient extends ApiClient {
      */
     public String searchUrlAsync(String url, String textToSearch, Boolean caseSensitive, Boolean wholeWordsOnly)
     {
-        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
-        {
-            throw new ApiException("The supported protocols for the PDFs available online are http:// and https://.");
-        }
-        if (url.startsWith("http://localhost", 0))
-        {
-            throw new ApiException("Cannot convert local urls via this method. Use searchFileAsync instead.");
-        }
+        checkUrl(url, "searchFileAsync");
 
         if (textToSearch == null || textToSearch.isBlank()) {
-            throw new ApiException("Search text cannot be empty.");
+            throw new ValidationException("Search text cannot be empty.");
         }
 
-        parameters.put("action", "Search");
-        parameters.put("url", url);
-        parameters.put("search_text", textToSearch);
-        parameters.put("case_sensitive", Boolean.toString(caseSensitive));
-        parameters.put("whole_words_only", Boolean.toString(wholeWordsOnly));
+        ApiRequest request = searchRequest(urlRequest(url, "Search"), textToSearch, caseSensitive, wholeWordsOnly);
 
-        files.clear();
+        byte[] result = runAsyncJob(request, true).getContent();
 
-        headers.put("Accept", "text/json");
+        return new String(result, StandardCharsets.UTF_8);
+    }
 
-        String JobID = startAsyncJobMultipartFormData();
+    /**
+     * Get the text from the specified pdf without blocking the calling thread.
+     * The future completes on the executor of the client (see setExecutor).
+     * @param inputPdf Path to a local PDF file.
+     * @return Future result. Use getText() to get the extracted text. Cancelling the future (or a timeout set with orTimeout) aborts the call.
+     */
+    public CompletableFuture<ApiResult> getTextFromFileFuture(String inputPdf)
+    {
+        return getTextFromFileFuture(inputPdf, getExecutor());
+    }
 
-        if (JobID == null || JobID.isBlank()) {
-            throw new ApiException("An error occurred launching the asynchronous call.");
-        }
+    /**
+     * Get the text from the specified pdf without blocking the calling thread.
+     * @param inputPdf Path to a local PDF file.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future result. Use getText() to get the extracted text. Cancelling the future (or a timeout set with orTimeout) aborts the call.
+     */
+    public CompletableFuture<ApiResult> getTextFromFileFuture(String inputPdf, Executor executor)
+    {
+        ApiRequest request = fileRequest(inputPdf, "Convert").withParameter("async", "False");
 
-        int noPings = 0;
+        return performPostFuture(request, null, true, executor);
+    }
 
-        do
-        {
-            noPings++;
+    /**
+     * Get the text from the specified pdf with an asynchronous call, without blocking the calling thread.
+     * @param inputPdf Path to a local PDF file.
+     * @return Future result. Use getText() to get the extracted text. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> getTextFromFileAsyncFuture(String inputPdf)
+    {
+        return getTextFromFileAsyncFuture(inputPdf, getExecutor());
+    }
+
+    /**
+     * Get the text from the specified pdf with an asynchronous call, without blocking the calling thread.
+     * The job is pinged as decided by the asynchronous polling policy and no thread waits between pings.
+     * @param inputPdf Path to a local PDF file.
+     * @param executor Executor that sends the pings and completes the future.
+     * @return Future result. Use getText() to get the extracted text. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> getTextFromFileAsyncFuture(String inputPdf, Executor executor)
+    {
+        ApiRequest request = fileRequest(inputPdf, "Convert");
+
+        return runAsyncJobFuture(request, true, executor);
+    }
+
+    /**
+     * Get the text from the specified pdf without blocking the calling thread.
+     * The future completes on the executor of the client (see setExecutor).
+     * @param url Address of the PDF file.
+     * @return Future result. Use getText() to get the extracted text. Cancelling the future (or a timeout set with orTimeout) aborts the call.
+     */
+    public CompletableFuture<ApiResult> getTextFromUrlFuture(String url)
+    {
+        return getTextFromUrlFuture(url, getExecutor());
+    }
 
-            // sleep for a few seconds before next ping
-            try {
-                java.util.concurrent.TimeUnit.SECONDS.sleep(AsyncCallsPingInterval);
-            }
-            catch (InterruptedException ex) {}
+    /**
+     * Get the text from the specified pdf without blocking the calling thread.
+     * @param url Address of the PDF file.
+     * @param executor Executor that reads the response and completes the future.
+     * @return Future result. Use getText() to get the extracted text. Cancelling the future (or a timeout set with orTimeout) aborts the call.
+     */
+    public CompletableFuture<ApiResult> getTextFromUrlFuture(String url, Executor executor)
+    {
+        checkUrl(url, "getTextFromFileFuture");
+        ApiRequest request = urlRequest(url, "Convert").withParameter("async", "False");
 
-            AsyncJobClient asyncJobClient = new AsyncJobClient(parameters.get("key"), JobID);
-            asyncJobClient.setApiEndpoint(apiAsyncEndpoint);
+        return performPostFuture(request, null, true, executor);
+    }
 
-            byte[] result = asyncJobClient.getResult();
+    /**
+     * Get the text from the specified pdf with an asynchronous call, without blocking the calling thread.
+     * @param url Address of the PDF file.
+     * @return Future result. Use getText() to get the extracted text. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> getTextFromUrlAsyncFuture(String url)
+    {
+        return getTextFromUrlAsyncFuture(url, getExecutor());
+    }
 
-            if (asyncJobClient.finished())
-            {
-                numberOfPages = asyncJobClient.getNumberOfPages();
+    /**
+     * Get the text from the specified pdf with an asynchronous call, without blocking the calling thread.
+     * The job is pinged as decided by the asynchronous polling policy and no thread waits between pings.
+     * @param url Address of the PDF file.
+     * @param executor Executor that sends the pings and completes the future.
+     * @return Future result. Use getText() to get the extracted text. Cancelling the future (or a timeout set with orTimeout) stops the pings.
+     */
+    public CompletableFuture<ApiResult> getTextFromUrlAsyncFuture(String url, Executor executor)
+    {
+        checkUrl(url, "getTextFromFileAsyncFuture");
+        ApiRequest request = urlRequest(url, "Convert");
 
-                files.clear();
+        return runAsyncJobFuture(request, true, executor);
+    }
 
-                return new String(result, StandardCharsets.UTF_8);
-            }
+    /**
+     * Check that the url of a PDF available online can be processed.
+     * @param url Address of the PDF file.
+     * @param fileMethod Method to use for local files.
+     */
+    private static void checkUrl(String url, String fileMethod)
+    {
+        if (!url.startsWith("http://", 0) && !url.startsWith("https://", 0))
+        {
+            throw new ValidationException("The supported protocols for the PDFs available online are http:// and https://.");
+        }
+        if (url.startsWith("http://localhost", 0))
+        {
+            throw new ValidationException("Cannot convert local urls via this method. Use " + fileMethod + " instead.");
+        }
+    }
+
+    /**
+     * Build the request for a local PDF file.
+     * @param inputPdf Path to a local PDF file.
+     * @param action Convert or Search.
+     * @return Request with the current options and the input file.
+     */
+    private ApiRequest fileRequest(String inputPdf, String action)
+    {
+        return newRequest()
+            .withParameter("action", action)
+            .withoutParameter("url")
+            .withFile("inputPdf", inputPdf);
+    }
 
-        } while (noPings <= AsyncCallsMaxPings);
+    /**
+     * Build the request for a PDF available online.
+     * @param url Address of the PDF file.
+     * @param action Convert or Search.
+     * @return Request with the current options and the url.
+     */
+    private ApiRequest urlRequest(String url, String action)
+    {
+        return newRequest()
+            .withParameter("action", action)
+            .withParameter("url", url);
+    }
 
-        files.clear();
-        throw new ApiException("Asynchronous call did not finish in expected timeframe.");    
+    /**
+     * Add the search parameters to a request.
+     * @param request Request for the PDF document.
+     * @param textToSearch Text to search.
+     * @param caseSensitive If the search is case sensitive or not.
+     * @param wholeWordsOnly If the search works on whole words or not.
+     * @return Request with the search parameters.
+     */
+    private ApiRequest searchRequest(ApiRequest request, String textToSearch, Boolean caseSensitive, Boolean wholeWordsOnly)
+    {
+        return request
+            .withParameter("search_text", textToSearch)
+            .withParameter("case_sensitive", Boolean.toString(caseSensitive))
+            .withParameter("whole_words_only", Boolean.toString(wholeWordsOnly))
+            .withHeader("Accept", "text/json");
     }
 
     /**
@@ -656,6 +657,7 @@ public class PdfToTextClient extends ApiClient {
     /**
      * Set the maximum amount of time (in seconds) for this job. 
      * The default value is 30 seconds. Use a larger value (up to 120 seconds allowed) for large documents.
+     * The read timeout of the client follows this value (see setReadTimeoutMargin).
      * @param timeout Timeout in seconds.
      * @return Reference to the current object.
      */
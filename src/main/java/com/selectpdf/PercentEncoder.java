@@ -0,0 +1,178 @@
+package com.selectpdf;
+
+/**
+ * Allocation-free application/x-www-form-urlencoded encoder.
+ *
+ * The output is identical to URLEncoder.encode(value, "UTF-8"): letters, digits and ".-*_" are kept, space becomes '+'
+ * and every other character is written as %XX escapes of its UTF-8 bytes. Unpaired surrogates are encoded as '?' (%3F).
+ * Characters are converted to UTF-8 directly in the destination buffer, without intermediate strings or charset encoders.
+ */
+final class PercentEncoder {
+    /**
+     * Maximum number of bytes written for a single code point (4 UTF-8 bytes, each escaped as %XX).
+     */
+    static final int MAX_BYTES_PER_CODE_POINT = 12;
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+        for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['*'] = true;
+    }
+
+    private PercentEncoder() {}
+
+    /**
+     * Get the length of the encoded value.
+     * @param value Value to encode.
+     * @return Number of bytes of the encoded value.
+     */
+    static long encodedLength(CharSequence value) {
+        long length = 0;
+        int count = value.length();
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                length += (UNRESERVED[c] || c == ' ') ? 1 : 3;
+            }
+            else if (c < 0x800) {
+                length += 6;
+            }
+            else if (isSurrogatePair(value, i)) {
+                length += 12;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                length += 3; // '?'
+            }
+            else {
+                length += 9;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Check if the character is written as it is (letters, digits and ".-*_").
+     * @param c Character.
+     * @return True if the character does not need encoding.
+     */
+    static boolean isUnreserved(char c) {
+        return c < 128 && UNRESERVED[c];
+    }
+
+    /**
+     * Get the number of characters that make up the code point at the specified index.
+     * @param value Encoded value.
+     * @param index Character index.
+     * @return 2 for a surrogate pair, 1 otherwise.
+     */
+    static int charCount(CharSequence value, int index) {
+        return isSurrogatePair(value, index) ? 2 : 1;
+    }
+
+    /**
+     * Encode the code point at the specified index. The destination must have room for {@link #MAX_BYTES_PER_CODE_POINT} bytes.
+     * Use {@link #charCount(CharSequence, int)} to find how many characters were consumed.
+     * @param value Encoded value.
+     * @param index Character index.
+     * @param dest Destination buffer.
+     * @param offset Offset in the destination buffer.
+     * @return Number of bytes written.
+     */
+    static int encodeCodePoint(CharSequence value, int index, byte[] dest, int offset) {
+        char c = value.charAt(index);
+        if (c < 128) {
+            if (UNRESERVED[c]) {
+                dest[offset] = (byte)c;
+                return 1;
+            }
+            if (c == ' ') {
+                dest[offset] = '+';
+                return 1;
+            }
+            return escape(c, dest, offset);
+        }
+        if (c < 0x800) {
+            escape(0xC0 | (c >> 6), dest, offset);
+            escape(0x80 | (c & 0x3F), dest, offset + 3);
+            return 6;
+        }
+        if (isSurrogatePair(value, index)) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            escape(0xF0 | (codePoint >> 18), dest, offset);
+            escape(0x80 | ((codePoint >> 12) & 0x3F), dest, offset + 3);
+            escape(0x80 | ((codePoint >> 6) & 0x3F), dest, offset + 6);
+            escape(0x80 | (codePoint & 0x3F), dest, offset + 9);
+            return 12;
+        }
+        if (Character.isSurrogate(c)) {
+            // unpaired surrogate, replaced like the UTF-8 charset encoder does
+            return escape('?', dest, offset);
+        }
+        escape(0xE0 | (c >> 12), dest, offset);
+        escape(0x80 | ((c >> 6) & 0x3F), dest, offset + 3);
+        escape(0x80 | (c & 0x3F), dest, offset + 6);
+        return 9;
+    }
+
+    /**
+     * Append the encoded value to a string builder.
+     * @param value Value to encode.
+     * @param output Output string builder.
+     */
+    static void encode(CharSequence value, StringBuilder output) {
+        int count = value.length();
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                if (UNRESERVED[c]) output.append(c);
+                else if (c == ' ') output.append('+');
+                else escape(c, output);
+            }
+            else if (c < 0x800) {
+                escape(0xC0 | (c >> 6), output);
+                escape(0x80 | (c & 0x3F), output);
+            }
+            else if (isSurrogatePair(value, i)) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                escape(0xF0 | (codePoint >> 18), output);
+                escape(0x80 | ((codePoint >> 12) & 0x3F), output);
+                escape(0x80 | ((codePoint >> 6) & 0x3F), output);
+                escape(0x80 | (codePoint & 0x3F), output);
+            }
+            else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like the UTF-8 charset encoder does
+                escape('?', output);
+            }
+            else {
+                escape(0xE0 | (c >> 12), output);
+                escape(0x80 | ((c >> 6) & 0x3F), output);
+                escape(0x80 | (c & 0x3F), output);
+            }
+        }
+    }
+
+    private static boolean isSurrogatePair(CharSequence value, int index) {
+        return Character.isHighSurrogate(value.charAt(index))
+            && index + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    private static int escape(int b, byte[] dest, int offset) {
+        dest[offset] = '%';
+        dest[offset + 1] = HEX[(b >> 4) & 0x0F];
+        dest[offset + 2] = HEX[b & 0x0F];
+        return 3;
+    }
+
+    private static void escape(int b, StringBuilder output) {
+        output.append('%').append((char)HEX[(b >> 4) & 0x0F]).append((char)HEX[b & 0x0F]);
+    }
+}
@@ -0,0 +1,13 @@
+package com.selectpdf;
+
+/**
+ * Exception thrown when the API key sent too many requests (429 Too Many Requests).
+ * Wait for {@link #getRetryAfter()} (when the server specified it) before sending more requests.
+ */
+public class RateLimitException extends ApiException {
+    private static final long serialVersionUID = 1L;
+
+    RateLimitException(String message, int statusCode, String endpoint, String jobId, String errorBody, long retryAfter, boolean stackTrace) {
+        super(message, null, statusCode, endpoint, jobId, errorBody, retryAfter, true, stackTrace);
+    }
+}
@@ -0,0 +1,189 @@
+package com.selectpdf;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of the calls sent with each API key, so the calls stay within the limits of the plan instead of being rejected with 429 Too Many Requests.
+ *
+ * Each API key has its own token bucket: tokens are added at the configured rate, up to a burst, and each call (including each retry) takes one.
+ * A call that finds the bucket empty reserves the next token and waits for it; calls are never sent faster than the bucket allows.
+ * The limiter adapts when the server rejects calls anyway: on a 429 response the rate of the API key is reduced by 20% (at most once per second)
+ * and no call is sent before the delay asked by the server (Retry-After) passes. Afterwards the rate recovers quickly up to just below the rate
+ * that was rejected, then slowly beyond it, back to the configured rate, so it settles at the actual limit instead of oscillating around it.
+ * Configure a rate slightly below the limit of the plan: calls sent exactly at the limit can still be rejected because of network jitter.
+ *
+ * Set the same limiter on all clients (or set it as the default limiter) so all the clients that use an API key share its bucket.
+ * By default, calls are not limited.
+ */
+public final class RateLimiter {
+    private static final RateLimiter UNLIMITED = new RateLimiter(false, 1, 1);
+    private static volatile RateLimiter defaultLimiter = null;
+
+    /**
+     * Minimum time (in nanoseconds) between two decreases of the rate, so a burst of 429 responses to calls sent together counts once.
+     */
+    private static final long DECREASE_COOLDOWN = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final double permitsPerSecond;
+    private final int burst;
+    private final double minPermitsPerSecond;
+    private final double recoveryPerSecond;
+    private final double probingPerSecond;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+    /**
+     * Construct a limiter with the rate of the plan.
+     * @param permitsPerSecond Calls allowed per second (for example 100 / 60.0 for 100 calls per minute).
+     * @param burst Maximum number of calls sent at once after an idle period.
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this(true, permitsPerSecond, burst);
+    }
+
+    private RateLimiter(boolean enabled, double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0) || burst < 1) {
+            throw new ApiException("Invalid rate limiter settings.");
+        }
+        this.enabled = enabled;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        // after a 429 the rate never goes below 5% of the configured rate; it recovers by 5% of the configured rate each second
+        // up to 95% of the rejected rate, then by 0.5% each second
+        this.minPermitsPerSecond = permitsPerSecond * 0.05;
+        this.recoveryPerSecond = permitsPerSecond * 0.05;
+        this.probingPerSecond = permitsPerSecond * 0.005;
+    }
+
+    /**
+     * Get a limiter that does not limit the calls.
+     * @return Unlimited limiter.
+     */
+    public static RateLimiter unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * Get the limiter shared by all clients that do not have their own limiter set. By default, calls are not limited.
+     * @return Default rate limiter.
+     */
+    public static RateLimiter getDefault() {
+        RateLimiter result = defaultLimiter;
+        return result != null ? result : UNLIMITED;
+    }
+
+    /**
+     * Set the limiter shared by all clients that do not have their own limiter set.
+     * @param limiter Default rate limiter (for example new RateLimiter(100 / 60.0, 5) for a plan of 100 calls per minute). Set null to stop limiting the calls.
+     */
+    public static void setDefault(RateLimiter limiter) {
+        defaultLimiter = limiter;
+    }
+
+    /**
+     * Get the current rate of an API key: the configured rate, or less after 429 responses.
+     * @param apiKey API key.
+     * @return Calls allowed per second.
+     */
+    public double getRate(String apiKey) {
+        if (!enabled) return Double.POSITIVE_INFINITY;
+        Bucket bucket = buckets.get(apiKey);
+        return bucket != null ? bucket.getRate(System.nanoTime()) : permitsPerSecond;
+    }
+
+    /**
+     * Take a token for a call, reserving the next token if the bucket is empty.
+     * @param apiKey API key of the call.
+     * @param endpoint Endpoint of the call.
+     * @param maxWait Maximum time (in milliseconds) the caller can wait for the token, 0 to fail immediately, or -1 for no limit.
+     * @return Time (in milliseconds) to wait before sending the call.
+     * @throws RateLimitException if the token is not available within the maximum wait. Nothing is reserved then.
+     */
+    long acquire(String apiKey, String endpoint, long maxWait) {
+        if (!enabled) return 0;
+        Bucket bucket = buckets.computeIfAbsent(apiKey != null ? apiKey : "", key -> new Bucket());
+        long wait = bucket.reserve(System.nanoTime(), maxWait >= 0 ? TimeUnit.MILLISECONDS.toNanos(maxWait) : Long.MAX_VALUE);
+        if (wait < 0) {
+            long retryAfter = TimeUnit.NANOSECONDS.toMillis(-wait - 1) + 1;
+            throw new RateLimitException("The rate limit of the API key was reached. The call was not sent.", 0, endpoint, null, null, retryAfter, false);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(wait + 999999);
+    }
+
+    /**
+     * Record a 429 Too Many Requests response: slow down the API key.
+     * @param apiKey API key of the call.
+     * @param retryAfter Delay (in milliseconds) asked by the server or -1.
+     */
+    void rateLimited(String apiKey, long retryAfter) {
+        if (!enabled) return;
+        buckets.computeIfAbsent(apiKey != null ? apiKey : "", key -> new Bucket()).rateLimited(System.nanoTime(), retryAfter);
+    }
+
+    /**
+     * Token bucket of an API key.
+     */
+    private final class Bucket {
+        private double rate = permitsPerSecond;
+        private double rejectedRate = Double.POSITIVE_INFINITY;
+        private double storedPermits = burst;
+        private long nextFree = System.nanoTime();
+        private long lastAdjusted = nextFree;
+        private long lastDecrease = nextFree - DECREASE_COOLDOWN;
+
+        synchronized double getRate(long now) {
+            resync(now);
+            return rate;
+        }
+
+        /**
+         * @return Wait in nanoseconds, or -1 minus the wait if it is longer than the maximum wait.
+         */
+        synchronized long reserve(long now, long maxWait) {
+            resync(now);
+            // the caller waits for its own token, the missing fraction of it is produced at the current rate
+            double taken = Math.min(1, storedPermits);
+            long available = Math.max(nextFree, now) + (long)((1 - taken) * 1e9 / rate);
+            long wait = available - now;
+            if (wait > maxWait) {
+                return -1 - wait;
+            }
+            storedPermits -= taken;
+            nextFree = available;
+            return wait;
+        }
+
+        synchronized void rateLimited(long now, long retryAfter) {
+            resync(now);
+            if (now - lastDecrease >= DECREASE_COOLDOWN) {
+                rejectedRate = rate;
+                rate = Math.max(minPermitsPerSecond, rate * 0.8);
+                lastDecrease = now;
+            }
+            storedPermits = 0;
+            if (retryAfter > 0) {
+                nextFree = Math.max(nextFree, now + TimeUnit.MILLISECONDS.toNanos(retryAfter));
+            }
+        }
+
+        /**
+         * Add the tokens earned since the last call and let the rate recover.
+         */
+        private void resync(long now) {
+            if (now > nextFree) {
+                storedPermits = Math.min(burst, storedPermits + (now - nextFree) * rate / 1e9);
+                nextFree = now;
+            }
+            if (now > lastAdjusted) {
+                if (rate < permitsPerSecond && now - lastDecrease >= DECREASE_COOLDOWN) {
+                    double seconds = (now - lastAdjusted) / 1e9;
+                    double plateau = rejectedRate * 0.95;
+                    rate = rate < plateau ? Math.min(plateau, rate + recoveryPerSecond * seconds) : rate + probingPerSecond * seconds;
+                    rate = Math.min(permitsPerSecond, rate);
+                }
+                lastAdjusted = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Body of a POST request sent through a {@link HttpTransport}.
+ * The content is produced on demand, so it can be streamed to the server without being fully loaded in memory.
+ */
+public abstract class RequestBody {
+    private static final int SLICE_SIZE = 65536;
+
+    /**
+     * Get the content type of the body.
+     * @return Content type.
+     */
+    public abstract String getContentType();
+
+    /**
+     * Get the content encoding of the body (sent as Content-Encoding header).
+     * @return Content encoding or null if the body is not encoded.
+     */
+    public String getContentEncoding() {
+        return null;
+    }
+
+    /**
+     * Get the number of bytes of the body.
+     * @return Content length or -1 if it is not known in advance.
+     */
+    public abstract long getContentLength();
+
+    /**
+     * Open a new stream with the content of the body. Each call starts again from the beginning.
+     * @return Stream with the body content.
+     * @throws IOException
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * Write the body content to the specified stream.
+     * @param output Output stream.
+     * @throws IOException
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        BufferPool pool = BufferPool.shared();
+        byte[] bytes = pool.acquire();
+        try (InputStream input = openStream()) {
+            while (true) {
+                int bytesNumber = input.read(bytes, 0, bytes.length);
+                if (bytesNumber == -1) break;
+                output.write(bytes, 0, bytesNumber);
+            }
+        }
+        finally {
+            pool.release(bytes);
+        }
+    }
+
+    /**
+     * Open a new source of buffers with the content of the body. Each call starts again from the beginning.
+     * Transports that write ByteBuffers (like java.net.http.HttpClient) use this, so implementations can hand out
+     * buffers that do not live on the Java heap, such as memory-mapped file regions.
+     * The default implementation reads the content from {@link #openStream()}.
+     * @return Source of buffers with the body content.
+     * @throws IOException
+     */
+    public BufferSource openBuffers() throws IOException {
+        final InputStream input = openStream();
+        return new BufferSource() {
+            @Override
+            public ByteBuffer next() throws IOException {
+                // buffers are handed over to the transport, so each one is a new array
+                byte[] bytes = new byte[16384];
+                int bytesNumber = input.readNBytes(bytes, 0, bytes.length);
+                return bytesNumber == 0 ? null : ByteBuffer.wrap(bytes, 0, bytesNumber);
+            }
+
+            @Override
+            public void close() throws IOException {
+                input.close();
+            }
+        };
+    }
+
+    /**
+     * Sequence of buffers with the content of a request body.
+     */
+    public interface BufferSource extends Closeable {
+        /**
+         * Get the next buffer with body content.
+         * @return Next buffer or null at the end of the body.
+         * @throws IOException
+         */
+        ByteBuffer next() throws IOException;
+    }
+
+    /**
+     * Create a body from a byte array.
+     * @param contentType Content type.
+     * @param data Body content.
+     * @return Request body.
+     */
+    public static RequestBody create(final String contentType, final byte[] data) {
+        return new RequestBody() {
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return data.length;
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(data);
+            }
+
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(data);
+            }
+
+            @Override
+            public BufferSource openBuffers() {
+                return new BufferSource() {
+                    private int position = 0;
+
+                    @Override
+                    public ByteBuffer next() {
+                        // slices of the array (not copies), so an aborted upload stops at the next slice
+                        if (position == data.length) return null;
+                        int length = Math.min(SLICE_SIZE, data.length - position);
+                        ByteBuffer slice = ByteBuffer.wrap(data, position, length).slice();
+                        position += length;
+                        return slice;
+                    }
+
+                    @Override
+                    public void close() {}
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Collects a response body: on heap up to a threshold, then in a temporary file.
+ *
+ * When the content length is known in advance, the heap buffer is allocated once with the exact size (no doubling and no final copy),
+ * and contents larger than the threshold go straight to the file. The heap used never exceeds the threshold.
+ */
+final class ResultBuffer extends OutputStream {
+    private static final int INITIAL_SIZE = 8192;
+
+    private final int threshold;
+    private byte[] buffer;
+    private int count = 0;
+    private Path file = null;
+    private OutputStream fileStream = null;
+    private long length = 0;
+
+    /**
+     * Construct a buffer.
+     * @param threshold Maximum number of bytes kept on heap.
+     * @param expectedLength Expected content length or -1 if unknown.
+     * @throws IOException
+     */
+    ResultBuffer(long threshold, long expectedLength) throws IOException {
+        this.threshold = (int)Math.max(0, Math.min(threshold, Integer.MAX_VALUE - 8));
+        if (expectedLength > this.threshold) {
+            buffer = new byte[0];
+            spill();
+        }
+        else {
+            buffer = new byte[expectedLength >= 0 ? (int)expectedLength : Math.min(INITIAL_SIZE, this.threshold)];
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int len) throws IOException {
+        if (fileStream == null && (long)count + len > threshold) {
+            spill();
+        }
+        if (fileStream != null) {
+            fileStream.write(bytes, offset, len);
+        }
+        else {
+            if (count + len > buffer.length) {
+                // grow, but never past the threshold
+                buffer = Arrays.copyOf(buffer, (int)Math.min(threshold, Math.max((long)buffer.length * 2, count + len)));
+            }
+            System.arraycopy(bytes, offset, buffer, count, len);
+            count += len;
+        }
+        length += len;
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile("selectpdf-", ".tmp");
+        fileStream = new BufferedOutputStream(Files.newOutputStream(file), 65536);
+        fileStream.write(buffer, 0, count);
+        buffer = null;
+        count = 0;
+    }
+
+    /**
+     * Get the collected content. The buffer must not be used afterwards.
+     * @return Result in memory or in a temporary file.
+     * @throws IOException
+     */
+    PdfResult toResult() throws IOException {
+        if (fileStream != null) {
+            fileStream.close();
+            return new PdfResult(file, length);
+        }
+        return new PdfResult(count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+    }
+
+    /**
+     * Drop the collected content and delete the temporary file, if any. Used when the response could not be read completely.
+     */
+    void discard() {
+        buffer = null;
+        if (fileStream != null) {
+            try {
+                fileStream.close();
+            }
+            catch (IOException ignored) {}
+            try {
+                Files.deleteIfExists(file);
+            }
+            catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.selectpdf;
+
+/**
+ * Limits the retries to a fraction of the calls, so that retries cannot multiply the load on a service that is already struggling (retry storm).
+ *
+ * Each call deposits a fraction of a token and each retry withdraws a whole token. A small reserve, refilled every second,
+ * lets a few retries through when there is little traffic. When the budget is exhausted, failures are returned to the callers without retrying.
+ * The earned tokens are capped at what 1,000 calls deposit, so a long period without failures does not bank an unlimited number of retries.
+ * A budget is meant to be shared by all the clients of a service (see {@link RetryPolicy}).
+ */
+public final class RetryBudget {
+    private final double ratio;
+    private final int minRetriesPerSecond;
+    private final double maxBalance;
+    private double balance = 0;
+    private double reserve;
+    private long lastRefill;
+
+    /**
+     * Construct a budget with the default settings: retries up to 10% of the calls, plus 10 retries per second.
+     */
+    public RetryBudget() {
+        this(0.1, 10);
+    }
+
+    /**
+     * Construct a budget.
+     * @param ratio Number of retries allowed per call (for example 0.1 allows retrying 10% of the calls).
+     * @param minRetriesPerSecond Number of retries allowed each second regardless of the number of calls.
+     */
+    public RetryBudget(double ratio, int minRetriesPerSecond) {
+        if (ratio < 0 || minRetriesPerSecond < 0) {
+            throw new ApiException("Invalid retry budget settings.");
+        }
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBalance = ratio * 1000;
+        this.reserve = minRetriesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Record a call (not a retry). Adds the retry ratio to the budget.
+     */
+    public synchronized void deposit() {
+        balance = Math.min(maxBalance, balance + ratio);
+    }
+
+    /**
+     * Take a token for a retry.
+     * @return True if the retry is allowed, False if the budget is exhausted.
+     */
+    public synchronized boolean tryWithdraw() {
+        refill();
+        if (reserve >= 1) {
+            reserve -= 1;
+            return true;
+        }
+        if (balance >= 1) {
+            balance -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of retries that would be allowed now.
+     * @return Available retries.
+     */
+    public synchronized int getAvailableRetries() {
+        refill();
+        return (int)(Math.floor(reserve) + Math.floor(balance));
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1e9;
+        if (seconds > 0) {
+            reserve = Math.min(minRetriesPerSecond, reserve + seconds * minRetriesPerSecond);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.selectpdf;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Decides which failed calls are retried and how long to wait before each retry.
+ *
+ * Failures are classified (see {@link FailureKind}) and only the kinds selected in the policy are retried, up to a maximum number of attempts.
+ * The delay before a retry grows exponentially, with full jitter so that clients failing together do not retry together.
+ * A delay asked by the server (Retry-After header) is honored, unless it is longer than the maximum backoff.
+ * Every retry takes a token from a {@link RetryBudget}, so retries stay a small fraction of the traffic during an outage.
+ *
+ * Conversions are not idempotent and are billed, so by default only the failures that happen before the request reaches the server are retried,
+ * with the responses of the server that reject the request without processing it (429, 502, 503).
+ * Retrying the failures after the request was sent ({@link FailureKind#CONNECTION_LOST}, {@link FailureKind#TIMEOUT}, {@link FailureKind#SERVER_ERROR})
+ * is opt-in, and these retries are never applied to the submissions of asynchronous jobs, which would start a second job.
+ *
+ * Calls and pings of asynchronous jobs are retried with separate policies and budgets (see {@link #getDefault()} and {@link #getDefaultForPings()}),
+ * so failing pings cannot use up the retries of new calls, and the other way around.
+ */
+public final class RetryPolicy {
+    private static volatile RetryPolicy defaultPolicy = null;
+    private static volatile RetryPolicy defaultPingPolicy = null;
+
+    /**
+     * Kind of failure of a call.
+     */
+    public enum FailureKind {
+        /**
+         * The API key sent too many requests (429 Too Many Requests).
+         */
+        RATE_LIMITED,
+        /**
+         * The service is temporarily unavailable (502 Bad Gateway, 503 Service Unavailable).
+         */
+        UNAVAILABLE,
+        /**
+         * Other server error (500 and other 5xx). Can be a conversion that failed on the server.
+         */
+        SERVER_ERROR,
+        /**
+         * The request did not reach the server: the connection could not be opened (connection refused, unknown host, connect timeout)
+         * or no connection slot was freed in time.
+         */
+        NETWORK,
+        /**
+         * The connection was lost after the request was sent (connection reset, unexpected end of stream). The server may have processed the request.
+         */
+        CONNECTION_LOST,
+        /**
+         * The server did not answer in time (read timeout, 504 Gateway Timeout). The server may have processed the request.
+         */
+        TIMEOUT,
+        /**
+         * The request was rejected (4xx other than 429): invalid parameters, invalid API key, conversion error, etc. Retrying does not help.
+         */
+        CLIENT_ERROR
+    }
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final double multiplier;
+    private final long maxBackoff;
+    private final Set<FailureKind> retriedFailures;
+    private final RetryBudget budget;
+
+    /**
+     * Construct a policy with the default settings for calls: at most 3 attempts, backoff from 250 milliseconds doubling up to 10 seconds,
+     * rate limited, unavailable and network failures retried (failures known to happen before the request reached the server), with a new retry budget.
+     */
+    public RetryPolicy() {
+        this(3, 250, 2, 10000, EnumSet.of(FailureKind.RATE_LIMITED, FailureKind.UNAVAILABLE, FailureKind.NETWORK), new RetryBudget());
+    }
+
+    /**
+     * Construct a policy.
+     * @param maxAttempts Maximum number of attempts of a call, including the first one. 1 disables retries.
+     * @param initialBackoff Maximum delay (in milliseconds) before the first retry. The actual delay is random, between 0 and this value.
+     * @param multiplier Growth factor of the maximum delay after each retry.
+     * @param maxBackoff Maximum delay (in milliseconds) before a retry. Retry-After delays longer than this are not waited for: the call fails.
+     * @param retriedFailures Kinds of failures that are retried.
+     * @param budget Retry budget, usually shared by many clients.
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, double multiplier, long maxBackoff, Set<FailureKind> retriedFailures, RetryBudget budget) {
+        if (maxAttempts < 1 || initialBackoff < 0 || multiplier < 1 || maxBackoff < initialBackoff || budget == null) {
+            throw new ApiException("Invalid retry policy settings.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.multiplier = multiplier;
+        this.maxBackoff = maxBackoff;
+        this.retriedFailures = retriedFailures.isEmpty() ? EnumSet.noneOf(FailureKind.class) : EnumSet.copyOf(retriedFailures);
+        this.budget = budget;
+    }
+
+    /**
+     * Get a policy that never retries.
+     * @return Policy without retries.
+     */
+    public static RetryPolicy noRetries() {
+        return new RetryPolicy(1, 0, 1, 0, EnumSet.noneOf(FailureKind.class), new RetryBudget(0, 0));
+    }
+
+    /**
+     * Get the policy shared by all clients that do not have their own retry policy set.
+     * @return Default retry policy for calls.
+     */
+    public static RetryPolicy getDefault() {
+        RetryPolicy result = defaultPolicy;
+        if (result == null) {
+            synchronized (RetryPolicy.class) {
+                result = defaultPolicy;
+                if (result == null) {
+                    result = defaultPolicy = new RetryPolicy();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the policy shared by the pings of the asynchronous jobs of all clients that do not have their own ping retry policy set.
+     * Pings only read the status of a job, so they are retried more: at most 5 attempts, backoff from 500 milliseconds doubling up to 10 seconds,
+     * rate limited, unavailable, network, connection lost and timeout failures retried, with a budget separate from the calls.
+     * @return Default retry policy for pings.
+     */
+    public static RetryPolicy getDefaultForPings() {
+        RetryPolicy result = defaultPingPolicy;
+        if (result == null) {
+            synchronized (RetryPolicy.class) {
+                result = defaultPingPolicy;
+                if (result == null) {
+                    result = defaultPingPolicy = new RetryPolicy(5, 500, 2, 10000,
+                        EnumSet.of(FailureKind.RATE_LIMITED, FailureKind.UNAVAILABLE, FailureKind.NETWORK, FailureKind.CONNECTION_LOST, FailureKind.TIMEOUT),
+                        new RetryBudget());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the retry budget of the policy.
+     * @return Retry budget.
+     */
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Classify the failure of a call.
+     * @param failure Exception thrown by the call.
+     * @return Kind of failure or null if the failure is not related to the API (for example an interrupted call or an error of the output stream).
+     */
+    public static FailureKind classify(Throwable failure) {
+        Throwable cause = failure;
+        while (cause instanceof CompletionException || cause instanceof ExecutionException) {
+            if (cause.getCause() == null) break;
+            cause = cause.getCause();
+        }
+
+        if (cause instanceof ApiException && ((ApiException)cause).getStatusCode() > 0) {
+            int statusCode = ((ApiException)cause).getStatusCode();
+            if (statusCode == 429) return FailureKind.RATE_LIMITED;
+            if (statusCode == 502 || statusCode == 503) return FailureKind.UNAVAILABLE;
+            if (statusCode == 504) return FailureKind.TIMEOUT;
+            if (statusCode >= 500) return FailureKind.SERVER_ERROR;
+            return FailureKind.CLIENT_ERROR;
+        }
+        // the transports report connect timeouts and waits for a connection slot as HttpConnectTimeoutException
+        for (Throwable current = cause; current != null; current = current.getCause()) {
+            if (current instanceof ConnectException || current instanceof HttpConnectTimeoutException
+                || current instanceof UnknownHostException || current instanceof NoRouteToHostException) return FailureKind.NETWORK;
+            if (current.getCause() == current) break;
+        }
+        if (cause instanceof ApiTimeoutException) {
+            return FailureKind.TIMEOUT;
+        }
+
+        for (Throwable current = cause; current != null; current = current.getCause()) {
+            if (current instanceof SocketTimeoutException || current instanceof HttpTimeoutException || current instanceof TimeoutException) return FailureKind.TIMEOUT;
+            if (current instanceof InterruptedIOException || current instanceof InterruptedException) return null;
+            if (current instanceof IOException) return FailureKind.CONNECTION_LOST;
+            if (current.getCause() == current) break;
+        }
+        return null;
+    }
+
+    /**
+     * Check if a kind of failure is transient: retrying the call may succeed.
+     * @param kind Kind of failure or null.
+     * @return True for rate limited, unavailable, network, connection lost and timeout failures.
+     */
+    static boolean isTransient(FailureKind kind) {
+        return kind == FailureKind.RATE_LIMITED || kind == FailureKind.UNAVAILABLE || kind == FailureKind.NETWORK
+            || kind == FailureKind.CONNECTION_LOST || kind == FailureKind.TIMEOUT;
+    }
+
+    /**
+     * Check if the request of a failed call may have been processed by the server, so that sending it again may run it twice.
+     * @param kind Kind of failure or null.
+     * @return True for connection lost, timeout and server errors.
+     */
+    static boolean mayHaveReachedServer(FailureKind kind) {
+        return kind == FailureKind.CONNECTION_LOST || kind == FailureKind.TIMEOUT || kind == FailureKind.SERVER_ERROR;
+    }
+
+    /**
+     * Decide if a failed attempt is retried. When it is, a token is taken from the retry budget.
+     * @param failure Exception thrown by the last attempt.
+     * @param attempts Number of attempts made so far.
+     * @param maxDelay Maximum delay (in milliseconds) the caller can wait, for example the time left until the deadline of the call, or -1 for no limit.
+     * @return Delay (in milliseconds) before the next attempt or -1 if the call must fail.
+     */
+    public long retryDelay(Throwable failure, int attempts, long maxDelay) {
+        if (attempts >= maxAttempts) return -1;
+        FailureKind kind = classify(failure);
+        if (kind == null || !retriedFailures.contains(kind)) return -1;
+
+        long delay;
+        long retryAfter = failure instanceof ApiException ? ((ApiException)failure).getRetryAfter() : -1;
+        if (retryAfter >= 0) {
+            if (retryAfter > maxBackoff) return -1;
+            // a little jitter, so the clients that got the same Retry-After do not come back at the same time
+            delay = retryAfter + ThreadLocalRandom.current().nextLong(initialBackoff / 4 + 1);
+        }
+        else {
+            // full jitter
+            double ceiling = Math.min(maxBackoff, initialBackoff * Math.pow(multiplier, attempts - 1));
+            delay = (long)(ThreadLocalRandom.current().nextDouble() * ceiling);
+        }
+
+        if (maxDelay >= 0 && delay >= maxDelay) return -1;
+        if (!budget.tryWithdraw()) return -1;
+        return delay;
+    }
+
+    /**
+     * Record a new call (not a retry) in the retry budget.
+     */
+    public void callStarted() {
+        budget.deposit();
+    }
+}
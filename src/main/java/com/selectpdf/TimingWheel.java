@@ -0,0 +1,160 @@
+package com.selectpdf;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Hashed timing wheel: schedules a large number of delayed tasks with a single timer thread.
+ *
+ * The wheel is an array of buckets, one per tick. A task is placed in the bucket of its deadline, with the number of full rotations
+ * still to go. On each tick the timer thread walks a single bucket, so scheduling and expiring are O(1) no matter how many tasks are waiting.
+ * Expired tasks run on the executor, never on the timer thread. The precision is one tick.
+ */
+final class TimingWheel {
+    private final long tickNanos;
+    private final ArrayDeque<Timeout>[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean stopped = false;
+    private long tick = 0;
+
+    /**
+     * Construct and start a timing wheel.
+     * @param tickDuration Duration of a tick.
+     * @param unit Time unit of the tick duration.
+     * @param ticksPerWheel Number of buckets, rounded up to a power of 2.
+     * @param executor Executor that runs the expired tasks.
+     * @param threadName Name of the timer thread.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, Executor executor, String threadName) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("Tick duration and ticks per wheel must be positive.");
+        }
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (size <= 0) size = 1;
+        this.wheel = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<Timeout>();
+        }
+        this.mask = size - 1;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.executor = executor;
+        this.startTime = System.nanoTime();
+
+        worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedule a task.
+     * @param task Task to run.
+     * @param delay Delay after which the task runs.
+     * @param unit Time unit of the delay.
+     * @return Handle that cancels the task.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new RejectedExecutionException("Timing wheel is stopped.");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the timer thread. Tasks that did not run yet are dropped.
+     */
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            // wait for the end of the current tick
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                catch (InterruptedException ex) {
+                    if (stopped) return;
+                    continue;
+                }
+            }
+
+            transferPending();
+            expire(wheel[(int)(tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Move the newly scheduled tasks into their buckets. Only the timer thread touches the buckets.
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) continue;
+            long ticks = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            // deadlines already passed go in the current bucket
+            long bucketTick = Math.max(ticks, tick);
+            wheel[(int)(bucketTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            }
+            else if (timeout.remainingRounds <= 0) {
+                iterator.remove();
+                execute(timeout);
+            }
+            else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    private void execute(Timeout timeout) {
+        try {
+            executor.execute(timeout.task);
+        }
+        catch (RejectedExecutionException ex) {
+            // executor shut down, the task is dropped
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled = false;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task. It is removed from the wheel when its bucket is reached.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
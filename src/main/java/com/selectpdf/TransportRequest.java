@@ -0,0 +1,95 @@
+package com.selectpdf;
+
+import java.util.*;
+
+/**
+ * POST request sent through a {@link HttpTransport}.
+ */
+public final class TransportRequest {
+    private final String url;
+    private final Map<String, String> headers;
+    private final RequestBody body;
+    private final long timeout;
+    private final long readTimeout;
+
+    /**
+     * Construct a transport request without a timeout.
+     * @param url Request url.
+     * @param headers HTTP headers that will be sent to the server.
+     * @param body Request body.
+     */
+    public TransportRequest(String url, Map<String, String> headers, RequestBody body) {
+        this(url, headers, body, 0);
+    }
+
+    /**
+     * Construct a transport request.
+     * @param url Request url.
+     * @param headers HTTP headers that will be sent to the server.
+     * @param body Request body.
+     * @param timeout Maximum time (in milliseconds) until the response headers are received or 0 for no limit.
+     */
+    public TransportRequest(String url, Map<String, String> headers, RequestBody body, long timeout) {
+        this(url, headers, body, timeout, 0);
+    }
+
+    /**
+     * Construct a transport request.
+     * @param url Request url.
+     * @param headers HTTP headers that will be sent to the server.
+     * @param body Request body.
+     * @param timeout Maximum time (in milliseconds) until the response headers are received or 0 for no limit.
+     * @param readTimeout Maximum time (in milliseconds) without any progress on the connection or 0 for no limit.
+     */
+    public TransportRequest(String url, Map<String, String> headers, RequestBody body, long timeout, long readTimeout) {
+        this.url = url;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+        this.body = body;
+        this.timeout = Math.max(0, timeout);
+        this.readTimeout = Math.max(0, readTimeout);
+    }
+
+    /**
+     * Get the request url.
+     * @return Request url.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Get the HTTP headers that will be sent to the server (Content-Type and Content-Length excluded).
+     * @return HTTP headers.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Get the request body.
+     * @return Request body.
+     */
+    public RequestBody getBody() {
+        return body;
+    }
+
+    /**
+     * Get the maximum time until the response headers are received: waiting for a connection, connecting, uploading the body and the processing on the server.
+     * When it elapses, the transport aborts the request and fails with a SocketTimeoutException (HttpTimeoutException for java.net.http).
+     * @return Timeout in milliseconds or 0 for no limit.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Get the maximum time without any progress on the connection: no part of the body could be sent, or no response data was received.
+     * This covers the processing on the server (until the response headers arrive) and every wait for more of the response body,
+     * so a dead connection is detected shortly after the server's own deadline. When it elapses, the transport aborts the request
+     * and fails with a SocketTimeoutException (HttpTimeoutException for java.net.http).
+     * @return Read timeout in milliseconds or 0 for no limit.
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+}
@@ -0,0 +1,44 @@
+package com.selectpdf;
+
+import java.io.*;
+
+/**
+ * Response received through a {@link HttpTransport}. Close it to release the underlying connection.
+ */
+public interface TransportResponse extends Closeable {
+    /**
+     * Get the HTTP status code.
+     * @return HTTP status code.
+     */
+    int getStatusCode();
+
+    /**
+     * Get the HTTP reason phrase, if available.
+     * @return Reason phrase or null.
+     */
+    String getReasonPhrase();
+
+    /**
+     * Get the first value of a response header.
+     * @param name Header name.
+     * @return Header value or null if the header is not present.
+     */
+    String getHeader(String name);
+
+    /**
+     * Get the response body. For error responses this is the error content sent by the server.
+     * @return Response body stream or null if there is no body.
+     * @throws IOException
+     */
+    InputStream getBody() throws IOException;
+
+    /**
+     * Abort the response from another thread, for example when the deadline of the call passes or the call is cancelled while the body is read.
+     * A read blocked on the body fails and the connection is closed instead of being reused.
+     * The default implementation closes the response.
+     * @throws IOException
+     */
+    default void abort() throws IOException {
+        close();
+    }
+}
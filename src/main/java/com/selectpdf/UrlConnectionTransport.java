@@ -0,0 +1,374 @@
+package com.selectpdf;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * HTTP transport based on HttpURLConnection. Use it as a fallback when java.net.http.HttpClient cannot be used.
+ * Connections are kept alive by the JDK connection cache and reused, as long as responses are fully read and closed.
+ * The cache keeps 5 idle connections per host unless the http.maxConnections system property is set, so the transport opens no more connections
+ * per endpoint than the cache keeps (see {@link ConnectionPool}).
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    private int connectTimeout = 600000; //600,000ms=600s=10min
+    private final ConnectionPool pool;
+    private final int connectionsPerEndpoint;
+
+    /**
+     * Construct a transport that uses the default connection pool.
+     */
+    public UrlConnectionTransport() {
+        this(ConnectionPool.getDefault());
+    }
+
+    /**
+     * Construct a transport that uses the specified connection pool.
+     * @param pool Connection pool settings.
+     */
+    public UrlConnectionTransport(ConnectionPool pool) {
+        this.pool = pool;
+        this.connectionsPerEndpoint = pool.connectionsPerEndpoint(keepAliveCapacity());
+    }
+
+    /**
+     * Get the number of idle connections per host kept by the HttpURLConnection keep-alive cache.
+     * @return Value of http.maxConnections (5 by default) or 0 if keep-alive is disabled.
+     */
+    private static int keepAliveCapacity() {
+        if (!Boolean.parseBoolean(System.getProperty("http.keepAlive", "true"))) return 0;
+        int maxConnections = Integer.getInteger("http.maxConnections", 5);
+        return maxConnections > 0 ? maxConnections : 5;
+    }
+
+    /**
+     * Set the connect timeout in milliseconds. The default value is 10 minutes.
+     * @param connectTimeout Connect timeout in milliseconds.
+     * @return Reference to the current object.
+     */
+    public UrlConnectionTransport setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Send a POST request. If the request has a timeout, it bounds the wait for a connection slot, the connect and every read,
+     * and the connection is closed when the timeout elapses while the body is still being uploaded or the server is still processing.
+     */
+    @Override
+    public TransportResponse post(TransportRequest request) throws IOException {
+        long startTime = System.nanoTime();
+        ConnectionPool.Lease lease = pool.acquire(request.getUrl(), connectionsPerEndpoint, request.getTimeout());
+        return send(request, startTime, lease, null, null);
+    }
+
+    /**
+     * Send a POST request on an executor thread. The thread waits for the response, but not for a free connection slot.
+     * Cancelling the future closes the connection, so the executor thread is released immediately even while the body is uploaded or the server is processing.
+     */
+    @Override
+    public CompletableFuture<TransportResponse> postAsync(final TransportRequest request, final Executor executor) {
+        final long startTime = System.nanoTime();
+        final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+        final AtomicReference<HttpURLConnection> connection = new AtomicReference<HttpURLConnection>();
+
+        final CompletableFuture<ConnectionPool.Lease> lease = pool.acquireAsync(request.getUrl(), connectionsPerEndpoint);
+        lease.thenAccept(acquired -> {
+            try {
+                executor.execute(() -> {
+                    if (result.isDone()) {
+                        acquired.release();
+                        return;
+                    }
+                    try {
+                        TransportResponse response = send(request, startTime, acquired, result, connection);
+                        if (!result.complete(response)) {
+                            // cancelled in the meantime, nobody will read the response
+                            response.abort();
+                        }
+                    }
+                    catch (IOException | RuntimeException ex) {
+                        result.completeExceptionally(ex);
+                    }
+                });
+            }
+            catch (RejectedExecutionException ex) {
+                acquired.release();
+                result.completeExceptionally(ex);
+            }
+        });
+        result.whenComplete((response, ex) -> {
+            if (ex != null) {
+                lease.cancel(false);
+                HttpURLConnection current = connection.get();
+                if (current != null) current.disconnect();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Send a POST request on an acquired connection slot.
+     * @param request Request to send.
+     * @param startTime Time when the request was handed to the transport (System.nanoTime()).
+     * @param lease Connection slot, released if the request fails.
+     * @param call Future of an asynchronous call or null. The connection is closed if the call is already cancelled.
+     * @param connection Receives the opened connection, so that cancelling the call can close it. Can be null.
+     * @return Response.
+     * @throws IOException
+     */
+    private TransportResponse send(TransportRequest request, long startTime, ConnectionPool.Lease lease,
+            Future<?> call, AtomicReference<HttpURLConnection> connection) throws IOException {
+        HttpURLConnection urlConnection;
+        try {
+            urlConnection = openConnection(request.getUrl());
+        }
+        catch (IOException | RuntimeException ex) {
+            lease.release();
+            throw ex;
+        }
+        if (connection != null) {
+            connection.set(urlConnection);
+            if (call.isDone()) urlConnection.disconnect();
+        }
+
+        TimingWheel.Timeout watchdog = null;
+        IdleWatchdog uploadWatchdog = null;
+        final AtomicBoolean expired = new AtomicBoolean();
+        try {
+            urlConnection.setRequestMethod("POST");
+            for (Map.Entry<String,String> header : request.getHeaders().entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue()); // send headers
+            }
+            RequestBody body = request.getBody();
+            urlConnection.setRequestProperty("Content-Type", body.getContentType());
+            if (body.getContentEncoding() != null) {
+                urlConnection.setRequestProperty("Content-Encoding", body.getContentEncoding());
+            }
+            urlConnection.setDoOutput(true);
+            urlConnection.setConnectTimeout(connectTimeout);
+            long readTimeout = Math.min(request.getReadTimeout(), Integer.MAX_VALUE);
+            urlConnection.setReadTimeout((int)readTimeout);
+
+            if (request.getTimeout() > 0) {
+                long remaining = request.getTimeout() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                if (remaining <= 0) {
+                    throw new HttpConnectTimeoutException("Timed out waiting for a connection to " + request.getUrl() + ".");
+                }
+                int timeout = (int)Math.min(remaining, Integer.MAX_VALUE);
+                urlConnection.setConnectTimeout(Math.min(connectTimeout, timeout));
+                urlConnection.setReadTimeout(readTimeout > 0 ? (int)Math.min(readTimeout, timeout) : timeout);
+
+                // socket writes have no timeout, so a stalled upload is stopped by closing the connection
+                final HttpURLConnection openedConnection = urlConnection;
+                watchdog = DeadlineTimer.schedule(() -> {
+                    expired.set(true);
+                    openedConnection.disconnect();
+                }, remaining);
+            }
+
+            // stream the body directly to the connection, without buffering it
+            long contentLength = body.getContentLength();
+            if (contentLength >= 0) {
+                urlConnection.setFixedLengthStreamingMode(contentLength);
+            }
+            else {
+                urlConnection.setChunkedStreamingMode(0);
+            }
+
+            // a connect timeout is reported like the one of HttpClient, so that it is not taken for a read timeout: the request was not sent
+            try {
+                urlConnection.connect();
+            }
+            catch (SocketTimeoutException ex) {
+                if (expired.get()) throw ex;
+                HttpConnectTimeoutException timeout = new HttpConnectTimeoutException("Connect to " + request.getUrl() + " timed out.");
+                timeout.initCause(ex);
+                throw timeout;
+            }
+
+            // POST body
+            OutputStream connectionOutputStream = urlConnection.getOutputStream();
+            if (readTimeout > 0) {
+                // a stalled upload blocks in a socket write, which has no timeout: close the connection when no buffer could be written
+                final HttpURLConnection openedConnection = urlConnection;
+                uploadWatchdog = new IdleWatchdog(readTimeout, () -> {
+                    expired.set(true);
+                    openedConnection.disconnect();
+                });
+                connectionOutputStream = new WatchedOutputStream(connectionOutputStream, uploadWatchdog);
+            }
+            body.writeTo(connectionOutputStream);
+            connectionOutputStream.flush();
+            connectionOutputStream.close();
+            if (uploadWatchdog != null) uploadWatchdog.stop();
+
+            // GET response status
+            urlConnection.getResponseCode();
+
+            if (watchdog != null) watchdog.cancel();
+            if (expired.get()) {
+                throw new SocketTimeoutException("Request to " + request.getUrl() + " timed out.");
+            }
+            return new UrlConnectionResponse(urlConnection, lease);
+        }
+        catch (IOException | RuntimeException ex) {
+            if (watchdog != null) watchdog.cancel();
+            if (uploadWatchdog != null) uploadWatchdog.stop();
+            urlConnection.disconnect();
+            lease.release();
+            if (expired.get() && !(ex instanceof SocketTimeoutException)) {
+                SocketTimeoutException timeout = new SocketTimeoutException("Request to " + request.getUrl() + " timed out.");
+                timeout.initCause(ex);
+                throw timeout;
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public void warmUp(final String url, int connections) throws IOException {
+        // connections are opened in parallel, otherwise the same cached connection would be used each time;
+        // more connections than the cache keeps would be closed right away
+        ConnectionPool.Lease use = pool.use();
+        List<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < Math.min(connections, connectionsPerEndpoint); i++) {
+            results.add(CompletableFuture.runAsync(() -> {
+                try {
+                    HttpURLConnection urlConnection = openConnection(url);
+                    urlConnection.setRequestMethod("HEAD");
+                    urlConnection.setConnectTimeout(30000);
+                    urlConnection.setReadTimeout(30000);
+                    InputStream body = urlConnection.getResponseCode() < 400 ? urlConnection.getInputStream() : urlConnection.getErrorStream();
+                    if (body != null) body.close(); // keeps the connection in the cache
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, IoExecutor.get()));
+        }
+
+        try {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Warm up of " + url + " was interrupted.");
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() instanceof UncheckedIOException ? ex.getCause().getCause() : ex.getCause();
+            throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+        }
+        finally {
+            use.release();
+        }
+    }
+
+    /**
+     * Open a connection. HTTPS connections share the socket factory of the pool, so TLS sessions are resumed and cached connections reused.
+     */
+    private HttpURLConnection openConnection(String url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection)new URL(url).openConnection();
+        if (urlConnection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection)urlConnection).setSSLSocketFactory(pool.getSslSocketFactory());
+        }
+        return urlConnection;
+    }
+
+    /**
+     * Response backed by a HttpURLConnection.
+     */
+    private static class UrlConnectionResponse implements TransportResponse {
+        private final HttpURLConnection urlConnection;
+        private final ConnectionPool.Lease lease;
+        private InputStream body;
+
+        UrlConnectionResponse(HttpURLConnection urlConnection, ConnectionPool.Lease lease) {
+            this.urlConnection = urlConnection;
+            this.lease = lease;
+        }
+
+        @Override
+        public int getStatusCode() {
+            try {
+                return urlConnection.getResponseCode();
+            }
+            catch (IOException ex) {
+                throw new ApiException(ex);
+            }
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            try {
+                return urlConnection.getResponseMessage();
+            }
+            catch (IOException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return urlConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = getStatusCode() < 400 ? urlConnection.getInputStream() : urlConnection.getErrorStream();
+            }
+            return body;
+        }
+
+        @Override
+        public void abort() {
+            // closes the socket, a blocked read fails
+            urlConnection.disconnect();
+            lease.release();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // closing the body (instead of disconnecting) lets the JDK keep the connection alive for the next request
+                InputStream input = getBody();
+                if (input != null) input.close();
+            }
+            catch (IOException ex) {
+                urlConnection.disconnect();
+            }
+            finally {
+                lease.release();
+            }
+        }
+    }
+
+    /**
+     * Request body stream that reports the writes to the idle watchdog.
+     */
+    private static final class WatchedOutputStream extends FilterOutputStream {
+        private final IdleWatchdog watchdog;
+
+        WatchedOutputStream(OutputStream output, IdleWatchdog watchdog) {
+            super(output);
+            this.watchdog = watchdog;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            watchdog.touch();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            watchdog.touch();
+        }
+    }
+}
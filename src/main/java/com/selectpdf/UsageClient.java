@@ -30,16 +30,16 @@ public class UsageClient extends ApiClient {
      */
     public String getUsage(boolean getHistory)
     {
-        headers.put("Accept", "text/json");
+        ApiRequest request = newRequest().withHeader("Accept", "text/json");
 
         if (getHistory)
         {
-            parameters.put("get_history", "True");
+            request = request.withParameter("get_history", "True");
         }
 
         try
         {
-            byte[] result = performPost(null);
+            byte[] result = performPost(request, null).getContent();
 
             String usage = new String(result);
             return usage;
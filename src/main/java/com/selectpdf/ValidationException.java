@@ -0,0 +1,17 @@
+package com.selectpdf;
+
+/**
+ * Exception thrown when the parameters of the call are invalid: the API rejected them (400 Bad Request, 422 Unprocessable Entity)
+ * or the client rejected them before sending the call. Retrying does not help.
+ */
+public class ValidationException extends ApiException {
+    private static final long serialVersionUID = 1L;
+
+    ValidationException(String message) {
+        super(message, null, 0, null, null, null, -1, false, true);
+    }
+
+    ValidationException(String message, int statusCode, String endpoint, String jobId, String errorBody, boolean stackTrace) {
+        super(message, null, statusCode, endpoint, jobId, errorBody, -1, false, stackTrace);
+    }
+}
@@ -21,11 +21,11 @@ public class WebElementsClient extends ApiClient {
      * @return List of web elements locations.
      */
     public String getWebElements() {
-        headers.put("Accept", "text/json");
+        ApiRequest request = newRequest().withHeader("Accept", "text/json");
 
         try
         {
-            byte[] result = performPost(null);
+            byte[] result = performPost(request, null).getContent();
 
             String elements = new String(result);
             return elements;
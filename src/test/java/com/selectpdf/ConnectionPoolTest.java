@@ -0,0 +1,139 @@
+package com.selectpdf;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+
+/**
+ * Connection slots and idle eviction of the pool, against a local server that records the connections of the requests.
+ */
+public class ConnectionPoolTest {
+    private HttpServer server;
+    private String url;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long responseDelay = 0;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                exchange.getRequestBody().readAllBytes();
+                if (responseDelay > 0) Thread.sleep(responseDelay);
+                byte[] body = "%PDF".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/api2/convert/";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void idleConnectionsAreEvicted() throws Exception {
+        ConnectionPool pool = new ConnectionPool(4, 1);
+        JavaHttpClientTransport transport = new JavaHttpClientTransport(pool);
+
+        post(transport);
+        HttpClient client = pool.getHttpClient();
+        post(transport);
+        assertSame(client, pool.getHttpClient());
+        assertEquals("The connection is reused.", 1, clientPorts.size());
+
+        Thread.sleep(1500);
+        post(transport);
+        assertNotSame(client, pool.getHttpClient());
+        assertEquals("A new connection is opened.", 2, clientPorts.size());
+    }
+
+    @Test
+    public void busyConnectionsAreNotEvicted() throws Exception {
+        ConnectionPool pool = new ConnectionPool(4, 1);
+        JavaHttpClientTransport transport = new JavaHttpClientTransport(pool);
+
+        post(transport);
+        HttpClient client = pool.getHttpClient();
+        // the eviction is due while this request is in flight
+        responseDelay = 1500;
+        post(transport);
+        assertSame(client, pool.getHttpClient());
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void socketFactoryIsReplacedWhenEvicted() throws Exception {
+        ConnectionPool pool = new ConnectionPool(4, 1);
+        UrlConnectionTransport transport = new UrlConnectionTransport(pool);
+        Object factory = pool.getSslSocketFactory();
+
+        post(transport);
+        assertSame(factory, pool.getSslSocketFactory());
+        Thread.sleep(1500);
+        assertNotSame(factory, pool.getSslSocketFactory());
+    }
+
+    @Test
+    public void slotsMatchKeepAliveCapacity() throws Exception {
+        // HttpURLConnection keeps 5 idle connections per host unless http.maxConnections is set
+        Assume.assumeTrue(System.getProperty("http.maxConnections") == null);
+        UrlConnectionTransport transport = new UrlConnectionTransport(new ConnectionPool(32, 0));
+        responseDelay = 200;
+
+        List<CompletableFuture<Void>> calls = new ArrayList<CompletableFuture<Void>>();
+        ExecutorService executor = Executors.newFixedThreadPool(12);
+        try {
+            for (int i = 0; i < 12; i++) {
+                calls.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        post(transport);
+                    }
+                    catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdown();
+        }
+        assertEquals(5, maxInFlight.get());
+        assertTrue("Connections were reused, not opened per request: " + clientPorts.size(), clientPorts.size() <= 5);
+    }
+
+    private void post(HttpTransport transport) throws IOException {
+        try (TransportResponse response = transport.post(request()); InputStream body = response.getBody()) {
+            assertEquals(200, response.getStatusCode());
+            body.readAllBytes();
+        }
+    }
+
+    private TransportRequest request() {
+        return new TransportRequest(url, new HashMap<String, String>(), RequestBody.create("application/x-www-form-urlencoded", "key=test".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,113 @@
+package com.selectpdf;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import org.junit.*;
+
+/**
+ * Posts compressed bodies to a local server that decompresses them.
+ */
+public class GzipRequestBodyTest {
+    private HttpServer server;
+    private String url;
+    private final AtomicReference<String> encoding = new AtomicReference<String>();
+    private final AtomicReference<byte[]> received = new AtomicReference<byte[]>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            encoding.set(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            try (InputStream input = new GZIPInputStream(exchange.getRequestBody())) {
+                received.set(input.readAllBytes());
+                exchange.sendResponseHeaders(200, -1);
+            }
+            catch (IOException ex) {
+                exchange.sendResponseHeaders(400, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void writeToIsDecompressedByServer() throws IOException {
+        // HttpURLConnection streams the body through writeTo
+        byte[] content = content(300000);
+        assertEquals(200, post(new UrlConnectionTransport(new ConnectionPool()), content));
+        assertEquals("gzip", encoding.get());
+        assertArrayEquals(content, received.get());
+    }
+
+    @Test
+    public void openStreamIsDecompressedByServer() throws IOException {
+        // HttpClient pulls the buffers of the body from openStream
+        byte[] content = content(300000);
+        assertEquals(200, post(new JavaHttpClientTransport(new ConnectionPool()), content));
+        assertEquals("gzip", encoding.get());
+        assertArrayEquals(content, received.get());
+    }
+
+    @Test
+    public void emptyBodyIsDecompressedByServer() throws IOException {
+        assertEquals(200, post(new UrlConnectionTransport(new ConnectionPool()), new byte[0]));
+        assertArrayEquals(new byte[0], received.get());
+        assertEquals(200, post(new JavaHttpClientTransport(new ConnectionPool()), new byte[0]));
+        assertArrayEquals(new byte[0], received.get());
+    }
+
+    @Test
+    public void writeToAndOpenStreamProduceSameContent() throws IOException {
+        byte[] content = content(100000);
+        RequestBody body = new GzipRequestBody(RequestBody.create("text/plain", content));
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        body.writeTo(written);
+        byte[] streamed;
+        try (InputStream input = body.openStream()) {
+            streamed = input.readAllBytes();
+        }
+        assertArrayEquals(content, gunzip(written.toByteArray()));
+        assertArrayEquals(content, gunzip(streamed));
+    }
+
+    private int post(HttpTransport transport, byte[] content) throws IOException {
+        RequestBody body = new GzipRequestBody(RequestBody.create("application/x-www-form-urlencoded", content));
+        try (TransportResponse response = transport.post(new TransportRequest(url, new HashMap<String, String>(), body))) {
+            return response.getStatusCode();
+        }
+    }
+
+    /**
+     * Text that compresses well, mixed with random bytes that do not.
+     */
+    private static byte[] content(int length) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(length);
+        Random random = new Random(length);
+        byte[] noise = new byte[512];
+        while (content.size() < length) {
+            content.writeBytes(("html=<p>paragraph " + content.size() + "</p>&").getBytes(StandardCharsets.UTF_8));
+            random.nextBytes(noise);
+            content.write(noise, 0, random.nextInt(noise.length));
+        }
+        return Arrays.copyOf(content.toByteArray(), length);
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return input.readAllBytes();
+        }
+    }
+}
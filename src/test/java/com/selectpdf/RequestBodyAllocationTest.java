@@ -0,0 +1,128 @@
+package com.selectpdf;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.*;
+
+/**
+ * Heap allocated while request bodies are encoded: bodies are streamed, so encoding must not copy the content.
+ */
+public class RequestBodyAllocationTest {
+    private static final int WARM_UP_ENCODES = 500;
+    private static final int MEASURED_ENCODES = 500;
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static String html;
+    private static byte[] data;
+
+    @BeforeClass
+    public static void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 65536) {
+            content.append("<p class=\"text\">Café & crème brûlée € ").append(content.length()).append("</p>\n");
+        }
+        html = content.toString();
+        data = new byte[262144];
+        new Random(1).nextBytes(data);
+    }
+
+    @Test
+    public void urlEncodedBodyIsNotCopied() throws IOException {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("key", "0123456789abcdef");
+        parameters.put("html", html);
+        parameters.put("page_size", "A4");
+        parameters.put("margins", "5");
+
+        long bytesPerEncode = allocatedBytesPerEncode(() -> new FormUrlEncodedBody(parameters));
+        long contentLength = new FormUrlEncodedBody(parameters).getContentLength();
+        assertTrue("Allocated " + bytesPerEncode + " bytes per encode of " + contentLength + " bytes.", bytesPerEncode < 4096);
+    }
+
+    @Test
+    public void multipartBodyIsNotCopied() throws IOException {
+        long bytesPerEncode = allocatedBytesPerEncode(RequestBodyAllocationTest::multipartBody);
+        long contentLength = multipartBody().getContentLength();
+        // a single array for the UTF-8 chunks of the text fields, whatever their length
+        assertTrue("Allocated " + bytesPerEncode + " bytes per encode of " + contentLength + " bytes.", bytesPerEncode < 32768);
+    }
+
+    @Test
+    public void multipartTextIsEncodedLikeGetBytes() throws IOException {
+        // surrogate pairs across chunk boundaries and unpaired surrogates
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 40000) {
+            text.append("aé€😀").append('\ud800').append("b").append('\udc00');
+        }
+        MultipartFormDataBody body = new MultipartFormDataBody("boundary");
+        body.addField("html", text.toString());
+
+        byte[] expected = ("--boundary\r\nContent-Disposition: form-data; name=\"html\"\r\n\r\n" + text + "\r\n--boundary--\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, body.getContentLength());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        body.writeTo(written);
+        assertArrayEquals(expected, written.toByteArray());
+
+        try (InputStream input = body.openStream()) {
+            assertArrayEquals(expected, input.readAllBytes());
+        }
+
+        ByteArrayOutputStream buffers = new ByteArrayOutputStream();
+        try (RequestBody.BufferSource source = body.openBuffers()) {
+            ByteBuffer buffer;
+            while ((buffer = source.next()) != null) {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                buffers.write(bytes);
+            }
+        }
+        assertArrayEquals(expected, buffers.toByteArray());
+    }
+
+    private static MultipartFormDataBody multipartBody() {
+        MultipartFormDataBody body = new MultipartFormDataBody("----selectpdf0123456789");
+        body.addField("key", "0123456789abcdef");
+        body.addField("html", html);
+        body.addField("page_size", "A4");
+        body.addData("file.pdf", data);
+        return body;
+    }
+
+    /**
+     * Build and write bodies repeatedly and measure the heap allocated by the current thread, once the code is compiled.
+     */
+    private static long allocatedBytesPerEncode(BodyFactory factory) throws IOException {
+        OutputStream sink = OutputStream.nullOutputStream();
+        for (int i = 0; i < WARM_UP_ENCODES; i++) {
+            encode(factory.create(), sink);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ENCODES; i++) {
+            encode(factory.create(), sink);
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_ENCODES;
+    }
+
+    private static void encode(RequestBody body, OutputStream output) throws IOException {
+        body.getContentLength();
+        body.writeTo(output);
+    }
+
+    @FunctionalInterface
+    private interface BodyFactory {
+        RequestBody create();
+    }
+}
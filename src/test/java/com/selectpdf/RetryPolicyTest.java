@@ -0,0 +1,262 @@
+package com.selectpdf;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+
+/**
+ * Retries of failed calls, against a local server that fails on demand.
+ */
+public class RetryPolicyTest {
+    private static final EnumSet<RetryPolicy.FailureKind> TRANSIENT_FAILURES =
+        EnumSet.of(RetryPolicy.FailureKind.RATE_LIMITED, RetryPolicy.FailureKind.UNAVAILABLE, RetryPolicy.FailureKind.NETWORK);
+
+    private HttpServer server;
+    private HtmlToPdfClient client;
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Fault> faults = new ConcurrentLinkedQueue<Fault>();
+
+    /**
+     * Response of the server to an attempt.
+     */
+    @FunctionalInterface
+    private interface Fault {
+        void respond(HttpExchange exchange) throws IOException;
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            attempts.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            Fault fault = faults.poll();
+            try {
+                if (fault != null) fault.respond(exchange);
+                else respond(exchange, 200, "%PDF");
+            }
+            finally {
+                exchange.close();
+            }
+        });
+        server.start();
+
+        client = new HtmlToPdfClient("key");
+        client.setApiEndpoint("http://localhost:" + server.getAddress().getPort() + "/api2/convert/");
+        client.setTransport(new JavaHttpClientTransport(new ConnectionPool()));
+        client.setCircuitBreaker(CircuitBreaker.disabled());
+        client.setRateLimiter(RateLimiter.unlimited());
+        client.setConcurrencyLimiter(ConcurrencyLimiter.disabled());
+        client.setRetryPolicy(policy(3, 1000, new RetryBudget(0, 100)));
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void transientFailuresAreRetried() {
+        faults.add(status(503, null));
+        faults.add(status(502, null));
+
+        assertEquals("%PDF", new String(client.convertHtmlString("<p>test</p>"), StandardCharsets.UTF_8));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void attemptsAreLimited() {
+        for (int i = 0; i < 5; i++) faults.add(status(503, null));
+
+        ApiException failure = expectFailure(() -> client.convertHtmlString("<p>test</p>"));
+        assertEquals(503, failure.getStatusCode());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void futureAttemptsAreLimited() throws InterruptedException {
+        for (int i = 0; i < 5; i++) faults.add(status(503, null));
+
+        try {
+            client.convertHtmlStringFuture("<p>test</p>").get(10, TimeUnit.SECONDS);
+            fail("The call should fail.");
+        }
+        catch (ExecutionException ex) {
+            assertEquals(503, ((ApiException)ex.getCause()).getStatusCode());
+        }
+        catch (TimeoutException ex) {
+            fail("The call did not complete.");
+        }
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void retryAfterIsHonored() {
+        faults.add(status(503, "1"));
+
+        long startTime = System.nanoTime();
+        client.convertHtmlString("<p>test</p>");
+        assertEquals(2, attempts.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 1000);
+    }
+
+    @Test
+    public void retryAfterLongerThanMaxBackoffIsNotWaited() {
+        faults.add(status(503, "5"));
+
+        long startTime = System.nanoTime();
+        ApiException failure = expectFailure(() -> client.convertHtmlString("<p>test</p>"));
+        assertEquals(5000, failure.getRetryAfter());
+        assertEquals(1, attempts.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 5000);
+    }
+
+    @Test
+    public void exhaustedBudgetStopsRetries() {
+        // a single retry per second and no retries earned by the calls
+        RetryBudget budget = new RetryBudget(0, 1);
+        client.setRetryPolicy(policy(5, 1000, budget));
+        for (int i = 0; i < 5; i++) faults.add(status(503, null));
+
+        expectFailure(() -> client.convertHtmlString("<p>test</p>"));
+        assertEquals(2, attempts.get());
+        assertEquals(0, budget.getAvailableRetries());
+    }
+
+    @Test
+    public void emptyBudgetDisablesRetries() {
+        client.setRetryPolicy(policy(5, 1000, new RetryBudget(0, 0)));
+        faults.add(status(503, null));
+
+        expectFailure(() -> client.convertHtmlString("<p>test</p>"));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void truncatedResponseIsNotRetriedByDefault() {
+        // the server received the request, a retry could run the conversion twice
+        faults.add(truncated());
+
+        ApiException failure = expectFailure(() -> client.convertHtmlString("<p>test</p>"));
+        assertEquals(RetryPolicy.FailureKind.CONNECTION_LOST, RetryPolicy.classify(failure));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void truncatedResponseIsRetriedWhenEnabled() {
+        client.setRetryPolicy(policy(3, 1000, new RetryBudget(0, 100), RetryPolicy.FailureKind.CONNECTION_LOST));
+        faults.add(truncated());
+
+        assertEquals("%PDF", new String(client.convertHtmlString("<p>test</p>"), StandardCharsets.UTF_8));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void asyncSubmissionIsNotSentAgain() {
+        client.setRetryPolicy(policy(3, 1000, new RetryBudget(0, 100), RetryPolicy.FailureKind.CONNECTION_LOST, RetryPolicy.FailureKind.SERVER_ERROR));
+        faults.add(truncated());
+
+        expectFailure(() -> client.convertHtmlStringAsync("<p>test</p>"));
+        assertEquals(1, attempts.get());
+
+        faults.add(status(500, null));
+        expectFailure(() -> client.convertHtmlStringAsync("<p>test</p>"));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void refusedConnectionIsRetried() throws IOException {
+        // nothing listens on the port once the socket is closed
+        int port;
+        try (java.net.ServerSocket socket = new java.net.ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        client.setApiEndpoint("http://localhost:" + port + "/api2/convert/");
+        RetryBudget budget = new RetryBudget(0, 3);
+        client.setRetryPolicy(policy(3, 1000, budget));
+
+        ApiException failure = expectFailure(() -> client.convertHtmlString("<p>test</p>"));
+        assertEquals(RetryPolicy.FailureKind.NETWORK, RetryPolicy.classify(failure));
+        // 2 retries taken from the budget
+        assertEquals(1, budget.getAvailableRetries());
+    }
+
+    @Test
+    public void writtenOutputIsNotRetried() {
+        faults.add(truncated());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        expectFailure(() -> client.convertHtmlStringToStream("<p>test</p>", output));
+        assertEquals(1, attempts.get());
+        assertTrue(output.size() > 0);
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() {
+        faults.add(status(400, null));
+
+        ApiException failure = expectFailure(() -> client.convertHtmlString("<p>test</p>"));
+        assertTrue(failure instanceof ValidationException);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void rejectedKeyIsNotRetried() {
+        faults.add(status(401, null));
+
+        ApiException failure = expectFailure(() -> client.convertHtmlString("<p>test</p>"));
+        assertTrue(failure instanceof AuthenticationException);
+        assertEquals(1, attempts.get());
+    }
+
+    private static RetryPolicy policy(int maxAttempts, long maxBackoff, RetryBudget budget, RetryPolicy.FailureKind... optInFailures) {
+        EnumSet<RetryPolicy.FailureKind> retriedFailures = EnumSet.copyOf(TRANSIENT_FAILURES);
+        retriedFailures.addAll(Arrays.asList(optInFailures));
+        return new RetryPolicy(maxAttempts, 10, 2, maxBackoff, retriedFailures, budget);
+    }
+
+    private static ApiException expectFailure(Runnable call) {
+        try {
+            call.run();
+        }
+        catch (ApiException ex) {
+            return ex;
+        }
+        fail("The call should fail.");
+        return null;
+    }
+
+    private static Fault status(int statusCode, String retryAfter) {
+        return exchange -> {
+            if (retryAfter != null) exchange.getResponseHeaders().add("Retry-After", retryAfter);
+            respond(exchange, statusCode, "Error " + statusCode);
+        };
+    }
+
+    /**
+     * A response that announces more bytes than it sends before the connection is closed.
+     */
+    private static Fault truncated() {
+        return exchange -> {
+            exchange.sendResponseHeaders(200, 100000);
+            OutputStream body = exchange.getResponseBody();
+            body.write(new byte[50000]);
+            body.flush();
+            // the exchange is closed with bytes missing, so the server closes the connection and the read fails on the client
+        };
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}